@@ -21,7 +21,12 @@ import java.util.HashMap;
  * <li>Getting relevant data
  * </ol>
  * The buffer manager is used by access methods, heap files, and
- * relational operators.
+ * relational operators.  Its methods are synchronized, so a background
+ * thread (e.g. the log manager's Checkpointer) can flush pages while
+ * others pin and unpin them.
+ * <br><br>
+ * Optionally, pages evicted from the pool are kept compressed in a victim
+ * cache (see setVictimCacheSize), so pinning them again avoids the disk.
  */
 public class BufMgr implements GlobalConst {
 
@@ -31,6 +36,7 @@ public class BufMgr implements GlobalConst {
 	Clock replPolicy;
 	int numPages; //index into buffer pool before full
 	int numFrames;
+	VictimCache victims; //null unless enabled
 
   /**
    * Constructs a buffer manager by initializing member data.  
@@ -57,6 +63,9 @@ public class BufMgr implements GlobalConst {
 	  
 	  //initialize replacement policy (clock)
 	  replPolicy = new Clock(numFrames);
+	  
+	//no victim cache until setVictimCacheSize
+	  victims = null;
 
     //throw new UnsupportedOperationException("Not implemented");
 
@@ -90,7 +99,7 @@ public class BufMgr implements GlobalConst {
    * @throws IllegalArgumentException if PIN_MEMCPY and the page is pinned.
    * @throws IllegalStateException if all pages are pinned (i.e. pool is full)
    */
-  public void pinPage(PageId pageno, Page mempage, int contents) {
+  public synchronized void pinPage(PageId pageno, Page mempage, int contents) {
 
 	int index;
 	
@@ -124,6 +133,11 @@ public class BufMgr implements GlobalConst {
 				  Minibase.DiskManager.write_page(frametab[index].getPageNum(), frames[index]);
 			  }
 
+			  //keep the (now clean) victim in the victim cache
+			  if(victims != null && frametab[index].isValid()){
+				  victims.put(frametab[index].getPageNum().pid, frames[index]);
+			  }
+
 			  //remove the victim from the map
 			  map.remove(frametab[index].getPageNum().hashCode());
 
@@ -136,8 +150,11 @@ public class BufMgr implements GlobalConst {
 		  frametab[index] = new FrameDesc(newPageNum);
 		  
 		  //for Disk I/O, read contents into the buffer pool 
+		  //(unless the victim cache still has them)
 		  if(contents == PIN_DISKIO){
-			  Minibase.DiskManager.read_page(pageno, frames[index]);
+			  if(victims == null || !victims.take(pageno.pid, frames[index])){
+				  Minibase.DiskManager.read_page(pageno, frames[index]);
+			  }
 		  }
 		  
 		  //for Memcpy, copy the mempage into the buffer pool
@@ -147,6 +164,11 @@ public class BufMgr implements GlobalConst {
 			  frames[index].copyPage(mempage);
 		  }
 		  
+		  //otherwise any cached copy is out of date
+		  if(contents != PIN_DISKIO && victims != null){
+			  victims.remove(pageno.pid);
+		  }
+		  
 		  //need to make sure the Page parameter shares the data of frame in buffer pool 
 		  mempage.setPage(frames[index]);
 		  
@@ -166,7 +188,7 @@ public class BufMgr implements GlobalConst {
    * @throws IllegalArgumentException if the page is not in the buffer pool
    *  or not pinned
    */
-  public void unpinPage(PageId pageno, boolean dirty) {
+  public synchronized void unpinPage(PageId pageno, boolean dirty) {
 
 	  //error if pageID not in map
 	  if(!map.containsKey(pageno.hashCode())){
@@ -207,7 +229,7 @@ public class BufMgr implements GlobalConst {
    * @throws IllegalArgumentException if firstpg is already pinned
    * @throws IllegalStateException if all pages are pinned (i.e. pool exceeded)
    */
-  public PageId newPage(Page firstpg, int run_size) {
+  public synchronized PageId newPage(Page firstpg, int run_size) {
 
 	  //allocate the disk pages and get the first pageID available from disk
 	  PageId firstPgId = Minibase.DiskManager.allocate_page(run_size);
@@ -237,7 +259,12 @@ public class BufMgr implements GlobalConst {
    * @param pageno identifies the page to remove
    * @throws IllegalArgumentException if the page is pinned
    */
-  public void freePage(PageId pageno) {
+  public synchronized void freePage(PageId pageno) {
+
+	//a freed page's cached copy is garbage
+	  if(victims != null){
+		  victims.remove(pageno.pid);
+	  }
 
 	//if the pageno is not in the map, just deallocate
 	  if(!map.containsKey(pageno.hashCode())){
@@ -275,7 +302,7 @@ public class BufMgr implements GlobalConst {
    * or the like.
    * 
    */
-  public void flushAllFrames() {
+  public synchronized void flushAllFrames() {
 
 	//walk thru all frames to write to disk (if dirty & valid) and make clean
 	  //don't make invalid since want to keep the ref bit check for replacement
@@ -295,7 +322,12 @@ public class BufMgr implements GlobalConst {
    * 
    * @throws IllegalArgumentException if the page is not in the buffer pool
    */
-  public void flushPage(PageId pageno) {
+  public synchronized void flushPage(PageId pageno) {
+	  
+	  //error if pageID not in map
+	  if(!map.containsKey(pageno.hashCode())){
+		  throw new IllegalArgumentException("page not in buffer pool");
+	  }
 	  
 	  //get the index of the pageID into the buffer pool
 	  int idx = map.get(pageno.hashCode());
@@ -315,6 +347,33 @@ public class BufMgr implements GlobalConst {
     
   }
 
+  /**
+   * Enables the compressed victim cache with the given memory budget (in
+   * bytes of compressed pages), or disables it if 0.  Resizing empties it.
+   * 
+   * @throws IllegalArgumentException if the size is negative
+   */
+  public synchronized void setVictimCacheSize(int max_bytes) {
+	  if(max_bytes < 0){
+		  throw new IllegalArgumentException("invalid victim cache size");
+	  }
+	  victims = (max_bytes == 0) ? null : new VictimCache(max_bytes);
+  }
+
+  /**
+   * Gets the number of pins served by the victim cache instead of the disk.
+   */
+  public synchronized long getVictimHits() {
+	  return (victims == null) ? 0 : victims.hits;
+  }
+
+  /**
+   * Gets the number of disk reads the victim cache could not avoid.
+   */
+  public synchronized long getVictimMisses() {
+	  return (victims == null) ? 0 : victims.misses;
+  }
+
    /**
    * Gets the total number of buffer frames.
    */
@@ -328,7 +387,7 @@ public class BufMgr implements GlobalConst {
   /**
    * Gets the total number of unpinned buffer frames.
    */
-  public int getNumUnpinned() {
+  public synchronized int getNumUnpinned() {
     
 	  int num = 0;
 	  
@@ -0,0 +1,98 @@
+package bufmgr;
+
+import diskmgr.PageCodec;
+import global.GlobalConst;
+import global.Page;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Second-tier cache of clean pages evicted from the buffer pool, kept
+ * compressed (see PageCodec) so many more of them fit in the same memory.
+ * A page is in at most one of the pool and this cache: pinning takes it
+ * out, and the least recently evicted pages go first when it is full.
+ * Its contents always match the disk.
+ */
+class VictimCache implements GlobalConst {
+
+	//compressed page images by page id, oldest first
+	LinkedHashMap<Integer, byte[]> pages;
+	int maxBytes;
+	int usedBytes;
+	long hits;
+	long misses;
+
+	/**
+	 * Constructs an empty cache holding up to the given number of bytes of
+	 * (compressed) pages.
+	 */
+	VictimCache(int max_bytes) {
+		pages = new LinkedHashMap<Integer, byte[]>();
+		maxBytes = max_bytes;
+	}
+
+	/**
+	 * Adds a page just evicted from the pool; pages that do not compress
+	 * are kept as they are.
+	 */
+	void put(int pid, Page page) {
+
+		//compress the page into a buffer of the right size
+		byte[] buf = new byte[PAGE_SIZE];
+		int len = PageCodec.compress(page.getData(), buf);
+		byte[] image;
+		if (len < 0) {
+			image = page.getData().clone();
+		} else {
+			image = new byte[len];
+			System.arraycopy(buf, 0, image, 0, len);
+		}
+
+		//make room by dropping the oldest pages
+		remove(pid);
+		if (image.length > maxBytes) {
+			return;
+		}
+		Iterator<Map.Entry<Integer, byte[]>> it = pages.entrySet().iterator();
+		while (usedBytes + image.length > maxBytes) {
+			usedBytes -= it.next().getValue().length;
+			it.remove();
+		}
+		pages.put(pid, image);
+		usedBytes += image.length;
+	}
+
+	/**
+	 * Takes a page out of the cache into the given frame.
+	 *
+	 * @return false if the page is not cached
+	 */
+	boolean take(int pid, Page frame) {
+		byte[] image = pages.remove(pid);
+		if (image == null) {
+			misses++;
+			return false;
+		}
+		usedBytes -= image.length;
+		if (image.length == PAGE_SIZE) {
+			System.arraycopy(image, 0, frame.getData(), 0, PAGE_SIZE);
+		} else {
+			PageCodec.decompress(image, 0, image.length, frame.getData());
+		}
+		hits++;
+		return true;
+	}
+
+	/**
+	 * Drops a page whose cached contents are no longer valid.
+	 */
+	void remove(int pid) {
+		byte[] image = pages.remove(pid);
+		if (image != null) {
+			usedBytes -= image.length;
+		}
+	}
+
+}
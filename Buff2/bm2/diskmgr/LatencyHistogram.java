@@ -0,0 +1,149 @@
+package diskmgr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of latencies in nanoseconds, in the style of
+ * HdrHistogram.  Values are grouped by their power of two, and each power of
+ * two is split into SUB_BUCKETS linear buckets, so every recorded value is
+ * kept to within 1/SUB_BUCKETS of its true size in constant space.
+ * Recording is lock free and safe from any number of threads.
+ */
+public class LatencyHistogram {
+
+  /** Log2 of the number of linear buckets per power of two. */
+  protected static final int SUB_BITS = 4;
+
+  /** Number of linear buckets per power of two. */
+  protected static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  /** Total number of buckets, enough for any positive long. */
+  protected static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+  // --------------------------------------------------------------------------
+
+  /** Number of values recorded in each bucket. */
+  protected final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+  /** Number of values recorded. */
+  protected final AtomicLong total = new AtomicLong();
+
+  /** Sum of the values recorded. */
+  protected final AtomicLong sum = new AtomicLong();
+
+  /** Largest value recorded. */
+  protected final AtomicLong max = new AtomicLong();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Records one latency, in nanoseconds; negative values count as zero.
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts.incrementAndGet(bucket(nanos));
+    total.incrementAndGet();
+    sum.addAndGet(nanos);
+    long cur = max.get();
+    while (nanos > cur && !max.compareAndSet(cur, nanos)) {
+      cur = max.get();
+    }
+  }
+
+  /**
+   * Gets the number of values recorded.
+   */
+  public long getCount() {
+    return total.get();
+  }
+
+  /**
+   * Gets the mean of the values recorded, or 0 if there are none.
+   */
+  public double getMean() {
+    long cnt = total.get();
+    return (cnt == 0) ? 0 : (double) sum.get() / cnt;
+  }
+
+  /**
+   * Gets the largest value recorded.
+   */
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Gets the value at the given percentile (0 to 100), reported as the
+   * highest value of the bucket it falls in.
+   */
+  public long getPercentile(double percentile) {
+    long cnt = total.get();
+    if (cnt == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(cnt * Math.min(percentile, 100) / 100);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highest(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Clears all recorded values.
+   */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts.set(i, 0);
+    }
+    total.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+  /**
+   * Returns a one-line summary of the histogram, in microseconds.
+   */
+  public String toString() {
+    return String.format("n=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus",
+        getCount(), getMean() / 1000, getPercentile(50) / 1000.0,
+        getPercentile(99) / 1000.0, getMax() / 1000.0);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the bucket for a value: small values map to themselves, larger ones
+   * to their power of two and the next SUB_BITS bits below the leading one.
+   */
+  protected static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exp - SUB_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  /**
+   * Gets the highest value that maps to the given bucket.
+   */
+  protected static long highest(int bucket) {
+    int group = bucket / SUB_BUCKETS;
+    if (group == 0) {
+      return bucket;
+    }
+    long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (group - 1);
+    return low + (1L << (group - 1)) - 1;
+  }
+
+} // public class LatencyHistogram
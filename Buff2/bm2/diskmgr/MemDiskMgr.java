@@ -0,0 +1,189 @@
+package diskmgr;
+
+import global.PageId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Disk manager that keeps the whole database in main memory, for temporary
+ * and test databases that should do no disk I/O.  Pages live in fixed-size
+ * chunks allocated on first write, so an empty database costs little and
+ * page addresses are not limited by the size of one array.  The space map
+ * and file library work exactly as on disk, and the temp segment is kept
+ * in memory too.
+ * <br><br>
+ * Databases are kept by name until destroyed, so a database created by one
+ * Minibase instance can be opened again by another in the same process.
+ */
+public class MemDiskMgr extends DiskMgr {
+
+  /** Number of pages in one chunk of memory. */
+  protected static final int CHUNK_PAGES = 256;
+
+  /** In-memory databases by name. */
+  protected static final ConcurrentHashMap<String, AtomicReferenceArray<byte[]>>
+      databases = new ConcurrentHashMap<String, AtomicReferenceArray<byte[]>>();
+
+  /** Chunks of the open database; null until a chunk is first written. */
+  protected AtomicReferenceArray<byte[]> chunks;
+
+  /** Pages of the temp segment; null until first written. */
+  protected final ArrayList<byte[]> temp_store = new ArrayList<byte[]>();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the number of segment files in the database, which is always one.
+   */
+  public int getNumSegments() {
+    return 1;
+  }
+
+  /**
+   * Gets the segment holding the given page, which is always the first.
+   */
+  public int getSegment(PageId pageno) {
+    return 0;
+  }
+
+  /**
+   * Keeps the pages changed since the last backup in memory only.
+   */
+  protected String changes_name() {
+    return null;
+  }
+
+  /**
+   * Keeps the page checksums in memory only.
+   */
+  protected String checksums_name() {
+    return null;
+  }
+
+  /**
+   * Creates the memory for a new database, replacing one of the same name.
+   */
+  protected void create_files() throws IOException {
+    chunks = new AtomicReferenceArray<byte[]>((num_db_pages + CHUNK_PAGES - 1)
+        / CHUNK_PAGES);
+    databases.put(name, chunks);
+  }
+
+  /**
+   * Finds the memory of an existing database.
+   *
+   * @throws IllegalStateException if no such database exists
+   */
+  protected void open_files() throws IOException {
+    chunks = databases.get(name);
+    if (chunks == null) {
+      throw new IllegalStateException("Database " + name + " does not exist\n");
+    }
+  }
+
+  /**
+   * Closes the database; its contents stay in memory.
+   */
+  protected void close_files() throws IOException {
+    chunks = null;
+  }
+
+  /**
+   * Does nothing; the pages are only kept in memory.
+   */
+  protected void sync_files() throws IOException {
+  }
+
+  /**
+   * Frees the chunks holding only pages past the given number, and zeros
+   * the rest of the chunk the last page is in.
+   */
+  protected void truncate_files(int num_pages) throws IOException {
+    int first = (num_pages + CHUNK_PAGES - 1) / CHUNK_PAGES;
+    for (int i = first; i < chunks.length(); i++) {
+      chunks.set(i, null);
+    }
+    byte[] last = (num_pages % CHUNK_PAGES == 0) ? null
+        : chunks.get(num_pages / CHUNK_PAGES);
+    if (last != null) {
+      Arrays.fill(last, (num_pages % CHUNK_PAGES) * PAGE_SIZE, last.length,
+          (byte) 0);
+    }
+  }
+
+  /**
+   * Frees the memory of the (closed) database.
+   */
+  protected void delete_files() throws IOException {
+    databases.remove(name);
+  }
+
+  /**
+   * Copies a page out of its chunk; pages never written read as zeros.
+   */
+  protected void read_raw(int pid, byte[] buf) throws IOException {
+    byte[] chunk = chunks.get(pid / CHUNK_PAGES);
+    if (chunk == null) {
+      Arrays.fill(buf, (byte) 0);
+    } else {
+      System.arraycopy(chunk, (pid % CHUNK_PAGES) * PAGE_SIZE, buf, 0,
+          PAGE_SIZE);
+    }
+  }
+
+  /**
+   * Copies a page into its chunk, allocating the chunk if needed.
+   */
+  protected void write_raw(int pid, byte[] buf) throws IOException {
+    int index = pid / CHUNK_PAGES;
+    byte[] chunk = chunks.get(index);
+    if (chunk == null) {
+      chunks.compareAndSet(index, null, new byte[CHUNK_PAGES * PAGE_SIZE]);
+      chunk = chunks.get(index);
+    }
+    System.arraycopy(buf, 0, chunk, (pid % CHUNK_PAGES) * PAGE_SIZE,
+        PAGE_SIZE);
+  }
+
+  /**
+   * Empties the temp segment.
+   */
+  protected void reset_temp() throws IOException {
+    synchronized (temp_map) {
+      temp_store.clear();
+      temp_map.clear();
+      temp_pages = 0;
+    }
+  }
+
+  /**
+   * Copies a page of the temp segment; pages never written read as zeros.
+   */
+  protected void read_temp(int index, byte[] buf) throws IOException {
+    synchronized (temp_map) {
+      byte[] page = (index < temp_store.size()) ? temp_store.get(index) : null;
+      if (page == null) {
+        Arrays.fill(buf, (byte) 0);
+      } else {
+        System.arraycopy(page, 0, buf, 0, PAGE_SIZE);
+      }
+    }
+  }
+
+  /**
+   * Copies a page into the temp segment.
+   */
+  protected void write_temp(int index, byte[] buf) throws IOException {
+    synchronized (temp_map) {
+      while (temp_store.size() <= index) {
+        temp_store.add(null);
+      }
+      temp_store.set(index, buf.clone());
+    }
+  }
+
+} // public class MemDiskMgr extends DiskMgr
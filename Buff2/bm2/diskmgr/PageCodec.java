@@ -0,0 +1,164 @@
+package diskmgr;
+
+/**
+ * Small LZ77 codec for page images, in the style of the LZ4 block format.
+ * The output is a series of sequences, each a token byte (literal count in
+ * the high four bits, match length minus four in the low four), any extra
+ * literal count bytes, the literals, a two-byte little-endian match offset
+ * and any extra match length bytes; a count of 15 continues in the following
+ * bytes, each adding up to 255.  The last sequence has literals only.
+ */
+public class PageCodec {
+
+  /** Shortest match worth encoding. */
+  protected static final int MIN_MATCH = 4;
+
+  /** Number of bits of the match finder's hash. */
+  protected static final int HASH_BITS = 10;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Compresses the given bytes into the output buffer.  The result is
+   * always shorter than the buffer, so callers can tell a compressed image
+   * from an uncompressed one of the buffer's size by its length alone.
+   *
+   * @return the compressed length, or -1 if it would not be shorter than
+   * the output buffer
+   */
+  public static int compress(byte[] src, byte[] dst) {
+
+    // positions (plus one) of recent 4-byte sequences, by hash
+    int[] table = new int[1 << HASH_BITS];
+    int n = src.length;
+    int anchor = 0;
+    int dp = 0;
+    for (int i = 0; i + MIN_MATCH <= n;) {
+
+      // look for an earlier copy of the next four bytes
+      int seq = get_int(src, i);
+      int hash = (seq * 0x9E3779B1) >>> (32 - HASH_BITS);
+      int ref = table[hash] - 1;
+      table[hash] = i + 1;
+      if ((ref < 0) || (i - ref > 0xFFFF) || (get_int(src, ref) != seq)) {
+        i++;
+        continue;
+      }
+
+      // extend the match and emit the sequence ending with it
+      int len = MIN_MATCH;
+      while ((i + len < n) && (src[ref + len] == src[i + len])) {
+        len++;
+      }
+      int lit = i - anchor;
+      if (dp + lit + lit / 255 + len / 255 + 5 > dst.length) {
+        return -1;
+      }
+      int token = dp++;
+      dp = put_count(dst, dp, lit);
+      System.arraycopy(src, anchor, dst, dp, lit);
+      dp += lit;
+      dst[dp++] = (byte) (i - ref);
+      dst[dp++] = (byte) ((i - ref) >>> 8);
+      dp = put_count(dst, dp, len - MIN_MATCH);
+      dst[token] = (byte) ((Math.min(lit, 15) << 4)
+          | Math.min(len - MIN_MATCH, 15));
+      i += len;
+      anchor = i;
+
+    } // for
+
+    // the rest are literals
+    int lit = n - anchor;
+    if (dp + lit + lit / 255 + 2 > dst.length) {
+      return -1;
+    }
+    dst[dp++] = (byte) (Math.min(lit, 15) << 4);
+    dp = put_count(dst, dp, lit);
+    System.arraycopy(src, anchor, dst, dp, lit);
+    dp += lit;
+    return (dp < dst.length) ? dp : -1;
+
+  } // public static int compress(byte[] src, byte[] dst)
+
+  /**
+   * Decompresses the given bytes, filling the output buffer.
+   *
+   * @throws IllegalStateException if the input is not valid compressed data
+   * of exactly that size
+   */
+  public static void decompress(byte[] src, int off, int len, byte[] dst) {
+    int sp = off;
+    int end = off + len;
+    int dp = 0;
+    try {
+      while (sp < end) {
+
+        // copy the literals
+        int token = src[sp++] & 0xFF;
+        int lit = token >>> 4;
+        if (lit == 15) {
+          int b;
+          do {
+            b = src[sp++] & 0xFF;
+            lit += b;
+          } while (b == 255);
+        }
+        System.arraycopy(src, sp, dst, dp, lit);
+        sp += lit;
+        dp += lit;
+        if (sp >= end) {
+          break;
+        }
+
+        // copy the match, which may overlap its own output
+        int offset = (src[sp++] & 0xFF) | ((src[sp++] & 0xFF) << 8);
+        int mlen = token & 15;
+        if (mlen == 15) {
+          int b;
+          do {
+            b = src[sp++] & 0xFF;
+            mlen += b;
+          } while (b == 255);
+        }
+        mlen += MIN_MATCH;
+        if ((offset == 0) || (offset > dp)) {
+          throw new IllegalStateException("Invalid compressed page");
+        }
+        for (int i = 0; i < mlen; i++, dp++) {
+          dst[dp] = dst[dp - offset];
+        }
+
+      } // while
+    } catch (IndexOutOfBoundsException exc) {
+      throw new IllegalStateException("Invalid compressed page");
+    }
+    if ((sp != end) || (dp != dst.length)) {
+      throw new IllegalStateException("Invalid compressed page");
+    }
+  }
+
+  /**
+   * Writes the part of a count past 15 as bytes of up to 255 each.
+   *
+   * @return the position after them
+   */
+  protected static int put_count(byte[] dst, int dp, int count) {
+    if (count >= 15) {
+      for (count -= 15; count >= 255; count -= 255) {
+        dst[dp++] = (byte) 255;
+      }
+      dst[dp++] = (byte) count;
+    }
+    return dp;
+  }
+
+  /**
+   * Gets the four bytes at the given position as an int.
+   */
+  protected static int get_int(byte[] buf, int pos) {
+    return (buf[pos] & 0xFF) | ((buf[pos + 1] & 0xFF) << 8)
+        | ((buf[pos + 2] & 0xFF) << 16) | (buf[pos + 3] << 24);
+  }
+
+} // public class PageCodec
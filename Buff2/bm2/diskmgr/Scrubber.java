@@ -0,0 +1,98 @@
+package diskmgr;
+
+/**
+ * Low-priority background thread that finds corrupt pages before a query
+ * does.  It walks the database from the first page to the last, over and
+ * over, verifying the checksums of the allocated pages with large
+ * sequential reads, at no more than a fixed rate.
+ */
+public class Scrubber extends Thread {
+
+  /** Disk manager being scrubbed. */
+  protected final DiskMgr diskmgr;
+
+  /** Minimum time per page checked (in ns). */
+  protected final long page_delay;
+
+  /** False once shutdown has been requested. */
+  protected volatile boolean running = true;
+
+  /** Number of complete passes over the database. */
+  protected volatile int pass_cnt;
+
+  /**
+   * Constructs a scrubber for the given database; call start to run it.
+   *
+   * @throws IllegalArgumentException if the rate is not positive
+   */
+  public Scrubber(DiskMgr diskmgr, int pages_per_sec) {
+    super("Scrubber");
+    if (pages_per_sec <= 0) {
+      throw new IllegalArgumentException("Invalid scrub rate");
+    }
+    this.diskmgr = diskmgr;
+    page_delay = 1000000000L / pages_per_sec;
+    setDaemon(true);
+    setPriority(MIN_PRIORITY);
+  }
+
+  /**
+   * Verifies the database, a run of pages at a time, until shut down.
+   */
+  public void run() {
+    int pid = 0;
+    long next = System.nanoTime();
+    while (pause_until(next)) {
+      int num_pages = diskmgr.getNumDBPages();
+      if (pid >= num_pages) {
+        pid = 0;
+        pass_cnt++;
+      }
+      int count = Math.min(DiskMgr.SCRUB_RUN, num_pages - pid);
+      diskmgr.scrub(pid, count);
+      pid += count;
+      next = Math.max(next, System.nanoTime() - page_delay) + count * page_delay;
+    }
+  }
+
+  /**
+   * Asks the thread to stop and waits until it has.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      running = false;
+      notifyAll();
+    }
+    try {
+      join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Gets the number of complete passes over the database so far.
+   */
+  public int getPassCount() {
+    return pass_cnt;
+  }
+
+  /**
+   * Waits until the given System.nanoTime, unless shut down first.
+   *
+   * @return true if still running
+   */
+  protected synchronized boolean pause_until(long nanos) {
+    long wait = nanos - System.nanoTime();
+    while (running && (wait > 0)) {
+      try {
+        wait((wait + 999999) / 1000000);
+      } catch (InterruptedException exc) {
+        return false;
+      }
+      wait = nanos - System.nanoTime();
+    }
+    return running;
+  }
+
+} // public class Scrubber extends Thread
@@ -0,0 +1,1097 @@
+package logmgr;
+
+import diskmgr.DiskMgr;
+import global.GlobalConst;
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h3>Minibase Log Manager</h3>
+ * The log manager keeps a write-ahead log of every change made to database
+ * pages, so the buffer manager never has to force data pages to disk when a
+ * transaction commits.  It provides the following services:
+ * <ol>
+ * <li>Physical page-level logging: access methods snapshot a page before
+ * changing it and log the changed byte range with its before and after images
+ * <li>Transactions: begin, commit and abort (undo from the before images)
+ * <li>Group commit: concurrent commits share one log write and fsync
+ * <li>The write-ahead rule: the disk manager asks for the log to be flushed
+ * up to a page's LSN before that page is written
+ * <li>Fuzzy checkpoints: the dirty page and transaction tables are logged
+ * without flushing any pages, and a background Checkpointer writes the
+ * oldest dirty pages out at a limited rate
+ * <li>Restart recovery (ARIES): analysis from the last checkpoint, redo
+ * partitioned by page across threads, and undo of unfinished transactions
+ * </ol>
+ * Page LSNs are kept in memory rather than on the pages, whose formats use
+ * every byte.  Redo copies after images, so it does not need them.  After
+ * each checkpoint, the log records that neither redo nor undo can need any
+ * more are cut off the front of the log file (see truncate).
+ */
+public class LogMgr implements GlobalConst {
+
+  /** LSN of no record (i.e. null pointer). */
+  public static final long NULL_LSN = -1;
+
+  /** Transaction id for changes made outside any transaction. */
+  public static final int NO_TXN = 0;
+
+  /** Unchanged bytes that may separate two changes logged as one range. */
+  public static final int MERGE_GAP = 32;
+
+  /** Suffix of the file naming the last complete checkpoint. */
+  protected static final String MASTER_SUFFIX = ".master";
+
+  /** Log records handed to a redo thread at a time. */
+  protected static final int REDO_BATCH = 256;
+
+  /** Initial size of the in-memory log tail (in bytes). */
+  protected static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Size of the log file header, holding the LSN of the first record. */
+  public static final int HEADER_SIZE = 8;
+
+  /** Least number of unneeded bytes worth cutting off the log. */
+  protected static final int TRUNCATE_SIZE = 256 * 1024;
+
+  // --------------------------------------------------------------------------
+
+  /** Name of the OS file holding the log. */
+  protected String name;
+
+  /** Channel to the log file. */
+  protected FileChannel log;
+
+  /** LSN of the first record in the log file. */
+  protected long log_base;
+
+  /** Records appended but not yet written to the log file. */
+  protected ByteBuffer tail = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /** LSN the next appended record will get. */
+  protected long next_lsn;
+
+  /** Every record below this LSN is durable. */
+  protected long flushed_lsn;
+
+  /** True while some thread is writing and syncing the log. */
+  protected boolean flushing;
+
+  /** How long a commit waits for others to join its log flush (in ns). */
+  protected long group_delay;
+
+  /** Number of commits since the log was opened. */
+  protected final AtomicLong commit_cnt = new AtomicLong();
+
+  /** Number of log fsyncs since the log was opened. */
+  protected final AtomicLong sync_cnt = new AtomicLong();
+
+  /** Id of the next transaction. */
+  protected final AtomicInteger next_txn = new AtomicInteger(NO_TXN + 1);
+
+  /** Active transactions, by id. */
+  protected final ConcurrentHashMap<Integer, Transaction> active =
+      new ConcurrentHashMap<Integer, Transaction>();
+
+  /** Transaction of the calling thread, if any. */
+  protected final ThreadLocal<Transaction> current =
+      new ThreadLocal<Transaction>();
+
+  /** LSN of the last change to each page not yet written to disk. */
+  protected final ConcurrentHashMap<Integer, Long> page_lsn =
+      new ConcurrentHashMap<Integer, Long>();
+
+  /** LSN of the first change to each page since it was last written. */
+  protected final ConcurrentHashMap<Integer, Long> rec_lsn =
+      new ConcurrentHashMap<Integer, Long>();
+
+  /** LSN of the last complete checkpoint's begin record. */
+  protected long checkpoint_lsn = NULL_LSN;
+
+  /** Where redo would start after the last complete checkpoint. */
+  protected long redo_lsn = NULL_LSN;
+
+  /** Background checkpointer, if one was started. */
+  protected Checkpointer checkpointer;
+
+  /** Number of threads used to redo the log at restart. */
+  protected int redo_threads = Runtime.getRuntime().availableProcessors();
+
+  /** Transactions found unfinished by recovery, until rolled back. */
+  protected HashMap<Integer, Transaction> losers =
+      new HashMap<Integer, Transaction>();
+
+  /** Number of records redone by the last recovery. */
+  protected long redo_cnt;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Makes each commit wait up to the given time for other commits, so they
+   * can all be made durable by a single fsync.  Zero (the default) flushes
+   * immediately; commits that arrive during a flush are still grouped.
+   */
+  public void setGroupCommitDelay(long micros) {
+    group_delay = micros * 1000;
+  }
+
+  /**
+   * Opens the log with the given OS file name, optionally discarding any
+   * previous contents.
+   */
+  public void openLog(String fname, boolean create) {
+    name = fname;
+    try {
+      RandomAccessFile file = new RandomAccessFile(fname, "rw");
+      if (create) {
+        file.setLength(0);
+      }
+      log = file.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      if (log.size() < HEADER_SIZE) {
+        log.truncate(0);
+        while (header.hasRemaining()) {
+          log.write(header, header.position());
+        }
+      } else {
+        LogReader.read_fully(log, header, 0);
+      }
+      log_base = header.getLong(0);
+      next_lsn = flushed_lsn = log_base + log.size() - HEADER_SIZE;
+      read_master();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  /**
+   * Sets the number of threads used to redo the log at restart.
+   *
+   * @throws IllegalArgumentException if not positive
+   */
+  public void setRecoveryThreads(int threads) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("Invalid number of threads");
+    }
+    redo_threads = threads;
+  }
+
+  /**
+   * Stops the checkpointer (if any), then takes a final checkpoint and
+   * closes the log.  Once the buffer pool has been flushed, the checkpoint
+   * leaves nothing to redo at the next restart.
+   */
+  public void closeLog() {
+    stopCheckpointer();
+    checkpoint();
+    try {
+      log.close();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Starts a transaction for the calling thread.  Changes made by the thread
+   * belong to it until it commits or aborts.
+   * 
+   * @return the transaction id
+   * @throws IllegalStateException if the thread already has a transaction
+   */
+  public int begin() {
+    if (current.get() != null) {
+      throw new IllegalStateException("Transaction already active");
+    }
+    Transaction txn = new Transaction(next_txn.getAndIncrement());
+    active.put(txn.id, txn);
+    current.set(txn);
+    return txn.id;
+  }
+
+  /**
+   * Commits the calling thread's transaction.  Returns once the commit
+   * record is durable; no data pages are forced.
+   * 
+   * @throws IllegalStateException if the thread has no transaction
+   */
+  public void commit() {
+    Transaction txn = end_txn();
+    long lsn = append(txn, new LogRecord(LogRecord.COMMIT, txn.id));
+    flush(lsn);
+    append(txn, new LogRecord(LogRecord.END, txn.id));
+    commit_cnt.incrementAndGet();
+  }
+
+  /**
+   * Aborts the calling thread's transaction, restoring the before images of
+   * its changes in reverse order.
+   * 
+   * @throws IllegalStateException if the thread has no transaction
+   */
+  public void abort() {
+    Transaction txn = end_txn();
+    append(txn, new LogRecord(LogRecord.ABORT, txn.id));
+    for (int i = txn.updates.size() - 1; i >= 0; i--) {
+      undo(txn, txn.updates.get(i));
+    }
+    append(txn, new LogRecord(LogRecord.END, txn.id));
+
+    // the file library may have been rolled back too
+    Minibase.DiskManager.reloadLibrary();
+  }
+
+  /**
+   * Gets the id of the calling thread's transaction, or NO_TXN.
+   */
+  public int getTransaction() {
+    Transaction txn = current.get();
+    return (txn == null) ? NO_TXN : txn.id;
+  }
+
+  /**
+   * Detaches and returns the calling thread's transaction.
+   */
+  protected Transaction end_txn() {
+    Transaction txn = current.get();
+    if (txn == null) {
+      throw new IllegalStateException("No active transaction");
+    }
+    current.remove();
+    active.remove(txn.id);
+    return txn;
+  }
+
+  /**
+   * Restores the before image of one update and logs the compensation.
+   */
+  protected void undo(Transaction txn, LogRecord rec) {
+    PageId pageno = new PageId(rec.pid);
+    Page page = new Page();
+    Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+    System.arraycopy(rec.before, 0, page.getData(), rec.offset,
+        rec.before.length);
+    LogRecord clr = new LogRecord(LogRecord.COMPENSATE, txn.id);
+    clr.pid = rec.pid;
+    clr.offset = rec.offset;
+    clr.after = rec.before;
+    clr.undo_next = rec.prev_lsn;
+    append(txn, clr);
+    Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Takes a before image of a page that is about to change.  Call right
+   * after pinning the page, and pass the result to logUpdate after the
+   * change.
+   * 
+   * @return a copy of the page contents, or null if logging is off
+   */
+  public static byte[] snapshot(Page page) {
+    if (Minibase.LogManager == null) {
+      return null;
+    }
+    return page.getData().clone();
+  }
+
+  /**
+   * Logs the change made to a pinned page since its snapshot was taken.
+   * Call before unpinning the page; does nothing if logging is off or the
+   * page is in the (unlogged) temp segment.
+   */
+  public static void logUpdate(PageId pageno, byte[] before, Page page) {
+    if ((before != null) && (Minibase.LogManager != null)
+        && !DiskMgr.isTempPage(pageno)) {
+      Minibase.LogManager.update(pageno.pid, before, page.getData());
+    }
+  }
+
+  /**
+   * Logs the complete contents of a freshly formatted page.  Call before
+   * unpinning the page; does nothing if logging is off or the page is in the
+   * temp segment.
+   */
+  public static void logNewPage(PageId pageno, Page page) {
+    if ((Minibase.LogManager != null) && !DiskMgr.isTempPage(pageno)) {
+      Minibase.LogManager.update(pageno.pid, new byte[PAGE_SIZE],
+          page.getData());
+    }
+  }
+
+  /**
+   * Appends update records for the bytes that differ between the two page
+   * images, charged to the calling thread's transaction.  Each run of changed
+   * bytes gets its own record, so a slot change at the front of a page and a
+   * record at the back do not log everything in between.
+   */
+  protected void update(int pid, byte[] before, byte[] after) {
+
+    Transaction txn = current.get();
+    int first = 0;
+    while (true) {
+
+      // find the next changed run, merging runs separated by small gaps
+      while ((first < PAGE_SIZE) && (before[first] == after[first])) {
+        first++;
+      }
+      if (first == PAGE_SIZE) {
+        return;
+      }
+      int last = first;
+      for (int i = first + 1; (i < PAGE_SIZE) && (i <= last + MERGE_GAP); i++) {
+        if (before[i] != after[i]) {
+          last = i;
+        }
+      }
+
+      // build and append the record
+      LogRecord rec = new LogRecord(LogRecord.UPDATE,
+          (txn == null) ? NO_TXN : txn.id);
+      rec.pid = pid;
+      rec.offset = first;
+      rec.before = Arrays.copyOfRange(before, first, last + 1);
+      rec.after = Arrays.copyOfRange(after, first, last + 1);
+      append(txn, rec);
+      if (txn != null) {
+        txn.updates.add(rec);
+      }
+      first = last + 1;
+
+    } // while
+
+  } // protected void update(int pid, byte[] before, byte[] after)
+
+  /**
+   * Appends a record to the log tail, chaining it to its transaction's
+   * previous record.  Page changes enter the dirty page table here, under the
+   * same lock as the LSN, so a checkpoint cannot miss one that precedes it.
+   * 
+   * @return the LSN of the record
+   */
+  protected synchronized long append(Transaction txn, LogRecord rec) {
+
+    // assign the LSN and link the transaction's chain
+    rec.lsn = next_lsn;
+    if (txn != null) {
+      rec.prev_lsn = txn.last_lsn;
+      txn.last_lsn = rec.lsn;
+      if (txn.first_lsn == NULL_LSN) {
+        txn.first_lsn = rec.lsn;
+      }
+    }
+
+    // grow the tail if needed and serialize the record
+    int length = rec.getLength();
+    if (tail.remaining() < length) {
+      ByteBuffer bigger = ByteBuffer.allocate(Math.max(tail.capacity() * 2,
+          tail.position() + length));
+      tail.flip();
+      bigger.put(tail);
+      tail = bigger;
+    }
+    rec.writeData(tail);
+    next_lsn += length;
+    if (rec.pid >= 0) {
+      page_lsn.put(rec.pid, rec.lsn);
+      rec_lsn.putIfAbsent(rec.pid, rec.lsn);
+    }
+    return rec.lsn;
+
+  } // protected synchronized long append(Transaction txn, LogRecord rec)
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Makes the log durable at least through the record at the given LSN.
+   * The first waiting thread becomes the leader: it writes everything
+   * appended so far and syncs once, covering every commit that arrived in the
+   * meantime.  Later threads wait for the leader rather than syncing again.
+   */
+  public void flush(long lsn) {
+
+    // wait for a running flush, unless it already covers this record
+    synchronized (this) {
+      while (flushing && (lsn >= flushed_lsn)) {
+        try {
+          wait();
+        } catch (InterruptedException exc) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (lsn < flushed_lsn) {
+        return;
+      }
+      flushing = true;
+    }
+
+    // as the leader, give other commits a chance to join this flush
+    if (group_delay > 0) {
+      try {
+        Thread.sleep(group_delay / 1000000, (int) (group_delay % 1000000));
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    // take the tail, write and sync it without blocking appends
+    ByteBuffer batch;
+    long start;
+    synchronized (this) {
+      batch = tail;
+      start = flushed_lsn;
+      tail = ByteBuffer.allocate(Math.max(BUFFER_SIZE, batch.capacity() / 2));
+    }
+    long end = start + batch.position();
+    try {
+      batch.flip();
+      long pos = start - log_base + HEADER_SIZE;
+      while (batch.hasRemaining()) {
+        log.write(batch, pos + batch.position());
+      }
+      log.force(false);
+      sync_cnt.incrementAndGet();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+    // publish the new durable point and wake the followers
+    synchronized (this) {
+      flushed_lsn = end;
+      flushing = false;
+      notifyAll();
+    }
+
+  } // public void flush(long lsn)
+
+  /**
+   * Makes every appended record durable.
+   */
+  public void flushAll() {
+    long last;
+    synchronized (this) {
+      last = next_lsn - 1;
+    }
+    if (last >= 0) {
+      flush(last);
+    }
+  }
+
+  /**
+   * Enforces the write-ahead rule: makes the log durable through the last
+   * change to the given page.  The disk manager calls this before writing
+   * the page.
+   * 
+   * @return the page LSN that was made durable, or NULL_LSN if none
+   */
+  public long flushPage(int pid) {
+    Long lsn = page_lsn.get(pid);
+    if (lsn == null) {
+      return NULL_LSN;
+    }
+    flush(lsn);
+    return lsn;
+  }
+
+  /**
+   * Notes that the given page has been written to disk with every change up
+   * to the given LSN (as returned by flushPage), so it is clean unless it
+   * was changed again in the meantime.
+   */
+  public synchronized void pageWritten(int pid, long lsn) {
+    if (page_lsn.remove(pid, lsn)) {
+      rec_lsn.remove(pid);
+    }
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Takes a fuzzy checkpoint: logs the dirty page table and the active
+   * transactions without flushing any pages, forces the pages already
+   * written (see DiskMgr.sync), then records the checkpoint in the master
+   * file.  Recovery need not read the log before the returned
+   * LSN, so writing out the oldest dirty pages moves it forward.
+   * 
+   * @return the oldest recovery LSN (where redo would start)
+   */
+  public long checkpoint() {
+
+    // copy the tables; anything changed after the begin record is redone
+    HashMap<Integer, Long> dirty;
+    ArrayList<Transaction> txns;
+    long begin;
+    synchronized (this) {
+      begin = append(null, new LogRecord(LogRecord.BEGIN_CHECKPOINT, NO_TXN));
+      dirty = new HashMap<Integer, Long>(rec_lsn);
+      txns = new ArrayList<Transaction>(active.values());
+    }
+
+    // serialize them as (pid, recLSN) and (txn, lastLSN) pairs
+    ByteBuffer tables = ByteBuffer.allocate(4 + 12 * dirty.size() + 4 + 12
+        * txns.size());
+    long redo = begin;
+    tables.putInt(dirty.size());
+    for (Map.Entry<Integer, Long> entry : dirty.entrySet()) {
+      tables.putInt(entry.getKey()).putLong(entry.getValue());
+      redo = Math.min(redo, entry.getValue());
+    }
+    tables.putInt(txns.size());
+    synchronized (this) {
+      for (Transaction txn : txns) {
+        tables.putInt(txn.id).putLong(txn.last_lsn);
+      }
+    }
+
+    // make the checkpoint durable, and the pages already written (which it
+    // no longer counts as dirty), then point the master file at it
+    LogRecord end = new LogRecord(LogRecord.END_CHECKPOINT, NO_TXN);
+    end.after = tables.array();
+    flush(append(null, end));
+    Minibase.DiskManager.sync();
+    write_master(begin, redo);
+    truncate(redo);
+    return redo;
+
+  } // public long checkpoint()
+
+  /**
+   * Cuts the records before the given recovery LSN off the front of the log,
+   * along with any earlier ones an active transaction might have to undo,
+   * if that frees enough space.  The rest is copied to a new file that
+   * replaces the log in one rename, while flushes wait.  The new file's
+   * header gives the LSN of its first record, so LSNs do not change.
+   */
+  protected void truncate(long redo) {
+
+    // become the only writer of the log file, unless there is little to cut
+    // (keeping whatever an active transaction may still roll back)
+    long cut = redo;
+    long end;
+    synchronized (this) {
+      for (Transaction txn : active.values()) {
+        if (txn.first_lsn != NULL_LSN) {
+          cut = Math.min(cut, txn.first_lsn);
+        }
+      }
+      while (flushing) {
+        try {
+          wait();
+        } catch (InterruptedException exc) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (cut - log_base < TRUNCATE_SIZE) {
+        return;
+      }
+      flushing = true;
+      end = flushed_lsn;
+    }
+
+    // copy the records from the cut on to a new file, then replace the log
+    try {
+      File temp = new File(name + ".tmp");
+      RandomAccessFile file = new RandomAccessFile(temp, "rw");
+      file.setLength(0);
+      FileChannel copy = file.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putLong(0, cut);
+      while (header.hasRemaining()) {
+        copy.write(header, header.position());
+      }
+      long from = cut - log_base + HEADER_SIZE;
+      copy.position(HEADER_SIZE);
+      for (long done = 0; done < end - cut; ) {
+        done += log.transferTo(from + done, end - cut - done, copy);
+      }
+      copy.force(true);
+      log.close();
+      if (!temp.renameTo(new File(name))) {
+        throw new IOException("Cannot replace " + name);
+      }
+      log = copy;
+      log_base = cut;
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+    // let the flushes go on, in the new file
+    synchronized (this) {
+      flushing = false;
+      notifyAll();
+    }
+
+  } // protected void truncate(long redo)
+
+  /**
+   * Gets the dirty pages (i.e. changed since last written) ordered by the
+   * LSN of their first change, oldest first.
+   */
+  public int[] getDirtyPages() {
+    ArrayList<Map.Entry<Integer, Long>> dirty =
+        new ArrayList<Map.Entry<Integer, Long>>(rec_lsn.entrySet());
+    dirty.sort(Map.Entry.comparingByValue());
+    int[] pids = new int[dirty.size()];
+    for (int i = 0; i < pids.length; i++) {
+      pids[i] = dirty.get(i).getKey();
+    }
+    return pids;
+  }
+
+  /**
+   * Gets the LSN of the first change to the given page since it was last
+   * written, or NULL_LSN if the page is clean.
+   */
+  public long getRecLSN(PageId pageno) {
+    Long lsn = rec_lsn.get(pageno.pid);
+    return (lsn == null) ? NULL_LSN : lsn;
+  }
+
+  /**
+   * Starts a background checkpointer that takes a checkpoint every interval
+   * and in between writes out dirty pages, oldest first, at no more than the
+   * given rate.  The buffer manager must be thread-safe (see
+   * Checkpointer.isThreadSafe).
+   * 
+   * @throws IllegalStateException if one is already running, or if the
+   * buffer manager is not thread-safe
+   */
+  public void startCheckpointer(long interval_ms, int pages_per_sec) {
+    if (checkpointer != null) {
+      throw new IllegalStateException("Checkpointer already running");
+    }
+    if (!Checkpointer.isThreadSafe(Minibase.BufferManager)) {
+      throw new IllegalStateException(
+          "Can't checkpoint in the background: the buffer manager is not thread-safe");
+    }
+    checkpointer = new Checkpointer(this, interval_ms, pages_per_sec);
+    checkpointer.start();
+  }
+
+  /**
+   * Stops the background checkpointer, if any, and waits for it to finish.
+   */
+  public void stopCheckpointer() {
+    if (checkpointer != null) {
+      checkpointer.shutdown();
+      checkpointer = null;
+    }
+  }
+
+  /**
+   * Gets the LSN of the last complete checkpoint, or NULL_LSN if none.
+   */
+  public synchronized long getCheckpointLSN() {
+    return checkpoint_lsn;
+  }
+
+  /**
+   * Gets the oldest recovery LSN recorded by the last complete checkpoint,
+   * or NULL_LSN if none.
+   */
+  public synchronized long getRedoLSN() {
+    return redo_lsn;
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * First part of restart recovery, called on a freshly opened log before
+   * logging resumes.  Analysis reads the log from the last checkpoint to
+   * rebuild the dirty page and transaction tables and to cut off a torn
+   * tail.  Redo then reads the log once more, sequentially from the oldest
+   * recovery LSN, handing each page's records to one of several threads
+   * (by page id); each thread reads the pages it is given, repeats their
+   * history and writes them back directly through the disk manager.
+   * Because redo bypasses the buffer pool, the caller must discard any
+   * pages it holds before rolling back with rollback().
+   */
+  public void recover() {
+    try {
+
+      // analysis: rebuild the tables, starting from the last checkpoint
+      HashMap<Integer, Long> dirty = new HashMap<Integer, Long>();
+      HashSet<Integer> finished = new HashSet<Integer>();
+      losers.clear();
+      int max_txn = NO_TXN;
+      long start = Math.max(checkpoint_lsn, log_base);
+      LogReader reader = new LogReader(log, log_base, start);
+      for (LogRecord rec = reader.next(); rec != null; rec = reader.next()) {
+
+        // transaction table
+        max_txn = Math.max(max_txn, rec.txn);
+        if ((rec.type == LogRecord.COMMIT) || (rec.type == LogRecord.END)) {
+          finished.add(rec.txn);
+          losers.remove(rec.txn);
+        } else if ((rec.txn != NO_TXN) && !finished.contains(rec.txn)) {
+          Transaction txn = losers.get(rec.txn);
+          if (txn == null) {
+            txn = new Transaction(rec.txn);
+            losers.put(txn.id, txn);
+          }
+          txn.last_lsn = rec.lsn;
+        }
+
+        // dirty page table
+        if (rec.pid >= 0) {
+          dirty.putIfAbsent(rec.pid, rec.lsn);
+        } else if (rec.type == LogRecord.END_CHECKPOINT) {
+          ByteBuffer tables = ByteBuffer.wrap(rec.after);
+          for (int i = tables.getInt(); i > 0; i--) {
+            int pid = tables.getInt();
+            long lsn = tables.getLong();
+            Long known = dirty.get(pid);
+            if ((known == null) || (lsn < known)) {
+              dirty.put(pid, lsn);
+            }
+          }
+          for (int i = tables.getInt(); i > 0; i--) {
+            Transaction txn = new Transaction(tables.getInt());
+            txn.last_lsn = tables.getLong();
+            max_txn = Math.max(max_txn, txn.id);
+            if (!finished.contains(txn.id)) {
+              losers.putIfAbsent(txn.id, txn);
+            }
+          }
+        }
+
+      } // for
+
+      // drop a torn tail, and never reuse a transaction id
+      long end = reader.getPosition();
+      if (end - log_base + HEADER_SIZE < log.size()) {
+        log.truncate(end - log_base + HEADER_SIZE);
+      }
+      next_lsn = flushed_lsn = end;
+      next_txn.set(max_txn + 1);
+
+      // redo: repeat history from the oldest change not known to be on disk
+      long redo = end;
+      for (long lsn : dirty.values()) {
+        redo = Math.min(redo, lsn);
+      }
+      redo_pages(dirty, redo);
+
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+  } // public void recover()
+
+  /**
+   * Second part of restart recovery, called once logging has resumed with
+   * an empty buffer pool: rolls back the transactions that recover() found
+   * unfinished, undoing their updates in reverse log order (across all of
+   * them) and logging compensation records, then takes a checkpoint.
+   */
+  public void rollback() {
+    try {
+
+      // queue each loser at the last record it still has to undo
+      TreeMap<Long, Transaction> todo = new TreeMap<Long, Transaction>();
+      for (Transaction txn : losers.values()) {
+        todo.put(txn.last_lsn, txn);
+      }
+
+      // undo the latest record of any loser until none are left
+      while (!todo.isEmpty()) {
+        Map.Entry<Long, Transaction> entry = todo.pollLastEntry();
+        Transaction txn = entry.getValue();
+        LogRecord rec = LogReader.read(log, log_base, entry.getKey());
+        long next = rec.prev_lsn;
+        if (rec.type == LogRecord.UPDATE) {
+          undo(txn, rec);
+        } else if (rec.type == LogRecord.COMPENSATE) {
+          next = rec.undo_next;
+        }
+        if (next == NULL_LSN) {
+          append(txn, new LogRecord(LogRecord.END, txn.id));
+        } else {
+          todo.put(next, txn);
+        }
+      }
+      losers.clear();
+
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    checkpoint();
+
+  } // public void rollback()
+
+  /**
+   * Gets the number of log records redone by the last recovery.
+   */
+  public long getRedoCount() {
+    return redo_cnt;
+  }
+
+  /**
+   * Redoes the page updates from the given LSN on, in parallel by page.
+   */
+  protected void redo_pages(HashMap<Integer, Long> dirty, long from)
+      throws IOException {
+
+    // start the workers
+    RedoWorker[] workers = new RedoWorker[redo_threads];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new RedoWorker(i);
+      workers[i].start();
+    }
+
+    // read the log once, sending each update to its page's worker
+    redo_cnt = 0;
+    ArrayList<ArrayList<LogRecord>> batches =
+        new ArrayList<ArrayList<LogRecord>>();
+    for (int i = 0; i < workers.length; i++) {
+      batches.add(new ArrayList<LogRecord>(REDO_BATCH));
+    }
+    LogReader reader = new LogReader(log, log_base, Math.max(from, log_base));
+    for (LogRecord rec = reader.next(); rec != null; rec = reader.next()) {
+      Long first = (rec.pid < 0) ? null : dirty.get(rec.pid);
+      if ((first == null) || (rec.lsn < first)) {
+        continue;
+      }
+      int i = rec.pid % workers.length;
+      batches.get(i).add(rec);
+      if (batches.get(i).size() == REDO_BATCH) {
+        workers[i].put(batches.get(i));
+        batches.set(i, new ArrayList<LogRecord>(REDO_BATCH));
+      }
+      redo_cnt++;
+    }
+
+    // hand over the rest, then an empty batch to finish
+    for (int i = 0; i < workers.length; i++) {
+      workers[i].put(batches.get(i));
+      workers[i].put(new ArrayList<LogRecord>());
+    }
+    for (RedoWorker worker : workers) {
+      worker.finish();
+    }
+
+  } // protected void redo_pages(HashMap<Integer, Long> dirty, long from)
+
+  /**
+   * Gets the name of the master file for this log.
+   */
+  protected String master_name() {
+    return name + MASTER_SUFFIX;
+  }
+
+  /**
+   * Atomically replaces the master file with the given checkpoint.
+   */
+  protected synchronized void write_master(long begin, long redo) {
+    File temp = new File(master_name() + ".tmp");
+    try {
+      FileOutputStream file = new FileOutputStream(temp);
+      DataOutputStream out = new DataOutputStream(file);
+      out.writeLong(begin);
+      out.writeLong(redo);
+      out.flush();
+      file.getFD().sync();
+      out.close();
+      if (!temp.renameTo(new File(master_name()))) {
+        throw new IOException("Cannot replace " + master_name());
+      }
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    checkpoint_lsn = begin;
+    redo_lsn = redo;
+  }
+
+  /**
+   * Reads the master file, if the log has one that is still valid.
+   */
+  protected void read_master() throws IOException {
+    checkpoint_lsn = redo_lsn = NULL_LSN;
+    File master = new File(master_name());
+    if (!master.exists()) {
+      return;
+    }
+    if (next_lsn == 0) {
+      master.delete();
+      return;
+    }
+    DataInputStream in = new DataInputStream(new FileInputStream(master));
+    try {
+      checkpoint_lsn = in.readLong();
+      redo_lsn = in.readLong();
+    } finally {
+      in.close();
+    }
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the LSN of the last change to the given page that has not yet been
+   * written to disk, or NULL_LSN if none.
+   */
+  public long getPageLSN(PageId pageno) {
+    Long lsn = page_lsn.get(pageno.pid);
+    return (lsn == null) ? NULL_LSN : lsn;
+  }
+
+  /**
+   * Gets the LSN below which every log record is durable.
+   */
+  public synchronized long getFlushedLSN() {
+    return flushed_lsn;
+  }
+
+  /**
+   * Gets the number of commits since the log was opened.
+   */
+  public long getCommitCount() {
+    return commit_cnt.get();
+  }
+
+  /**
+   * Gets the number of log fsyncs since the log was opened.
+   */
+  public long getSyncCount() {
+    return sync_cnt.get();
+  }
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Thread that redoes the updates of one partition of the pages.  Each page
+   * is read when its first update arrives and written back at the end.  The
+   * pages are read without verifying their checksums, since a crash can
+   * leave a page torn or out of step with its checksum; writing it back
+   * repairs both.
+   */
+  protected static class RedoWorker extends Thread {
+
+    /** Batches of updates to redo; an empty batch means done. */
+    final BlockingQueue<ArrayList<LogRecord>> queue =
+        new ArrayBlockingQueue<ArrayList<LogRecord>>(16);
+
+    /** Pages read so far, by page id. */
+    final HashMap<Integer, Page> pages = new HashMap<Integer, Page>();
+
+    /** Error that stopped the thread, if any. */
+    volatile RuntimeException error;
+
+    RedoWorker(int num) {
+      super("RedoWorker-" + num);
+    }
+
+    public void run() {
+      try {
+        for (ArrayList<LogRecord> batch = take(); !batch.isEmpty();
+            batch = take()) {
+          for (LogRecord rec : batch) {
+            Page page = pages.get(rec.pid);
+            if (page == null) {
+              page = new Page();
+              Minibase.DiskManager.read_page_unverified(new PageId(rec.pid),
+                  page);
+              pages.put(rec.pid, page);
+            }
+            System.arraycopy(rec.after, 0, page.getData(), rec.offset,
+                rec.after.length);
+          }
+        }
+        for (Map.Entry<Integer, Page> entry : pages.entrySet()) {
+          Minibase.DiskManager.write_page(new PageId(entry.getKey()),
+              entry.getValue());
+        }
+      } catch (RuntimeException exc) {
+        error = exc;
+        queue.clear();
+      }
+    }
+
+    /** Queues a batch of updates, unless the thread has failed. */
+    void put(ArrayList<LogRecord> batch) {
+      while (error == null) {
+        try {
+          if (queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+            return;
+          }
+        } catch (InterruptedException exc) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+
+    /** Waits for the thread, passing on its error if it failed. */
+    void finish() {
+      try {
+        join();
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+      if (error != null) {
+        throw new IllegalStateException("Redo failed", error);
+      }
+    }
+
+    ArrayList<LogRecord> take() {
+      while (true) {
+        try {
+          return queue.take();
+        } catch (InterruptedException exc) {
+          // keep going; recovery cannot stop half way
+        }
+      }
+    }
+
+  } // protected static class RedoWorker extends Thread
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * State of an active transaction.
+   */
+  protected static class Transaction {
+
+    /** Transaction id. */
+    final int id;
+
+    /** LSN of the transaction's first record. */
+    long first_lsn = NULL_LSN;
+
+    /** LSN of the transaction's last record. */
+    long last_lsn = NULL_LSN;
+
+    /** The transaction's updates, oldest first, for rolling back. */
+    final ArrayList<LogRecord> updates = new ArrayList<LogRecord>();
+
+    Transaction(int id) {
+      this.id = id;
+    }
+
+  } // protected static class Transaction
+
+} // public class LogMgr implements GlobalConst
@@ -0,0 +1,142 @@
+package logmgr;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * One entry of the write-ahead log.  Page updates are physical: they carry
+ * the before and after images of the changed byte range of one page, so redo
+ * and undo are simple copies.  The log sequence number (LSN) of a record is
+ * its byte offset in the log file.
+ */
+public class LogRecord {
+
+  /** A page change by a transaction, with before and after images. */
+  public static final byte UPDATE = 1;
+
+  /** Redo-only record of an undone update (compensation log record). */
+  public static final byte COMPENSATE = 2;
+
+  /** A transaction committed. */
+  public static final byte COMMIT = 3;
+
+  /** A transaction started rolling back. */
+  public static final byte ABORT = 4;
+
+  /** A transaction is finished; nothing more will be logged for it. */
+  public static final byte END = 5;
+
+  /** A checkpoint started; later records may not be in its tables. */
+  public static final byte BEGIN_CHECKPOINT = 6;
+
+  /** A checkpoint's dirty page and transaction tables. */
+  public static final byte END_CHECKPOINT = 7;
+
+  /** Size of the fixed part of a record, including the trailing checksum. */
+  protected static final int HEADER_SIZE = 4 + 8 + 8 + 8 + 4 + 1 + 4 + 4 + 4
+      + 4 + 4;
+
+  // --------------------------------------------------------------------------
+
+  /** Position of this record in the log. */
+  public long lsn;
+
+  /** Previous record of the same transaction, or LogMgr.NULL_LSN. */
+  public long prev_lsn = LogMgr.NULL_LSN;
+
+  /** For compensation records, the next record of the transaction to undo. */
+  public long undo_next = LogMgr.NULL_LSN;
+
+  /** Transaction id; 0 for changes made outside any transaction. */
+  public int txn;
+
+  /** Record type. */
+  public byte type;
+
+  /** Page changed by an update or compensation record. */
+  public int pid = -1;
+
+  /** Offset of the changed bytes on the page. */
+  public int offset;
+
+  /** Old contents of the changed bytes (empty unless an update). */
+  public byte[] before = new byte[0];
+
+  /** New contents of the changed bytes, or a checkpoint's tables. */
+  public byte[] after = new byte[0];
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty record of the given type.
+   */
+  public LogRecord(byte type, int txn) {
+    this.type = type;
+    this.txn = txn;
+  }
+
+  /**
+   * Gets the size of the record in the log (in bytes).
+   */
+  public int getLength() {
+    return HEADER_SIZE + before.length + after.length;
+  }
+
+  /**
+   * Writes the record into the given buffer at its current position.
+   */
+  public void writeData(ByteBuffer buf) {
+    int start = buf.position();
+    buf.putInt(getLength()).putLong(lsn).putLong(prev_lsn).putLong(undo_next);
+    buf.putInt(txn).put(type).putInt(pid).putInt(offset);
+    buf.putInt(before.length).putInt(after.length);
+    buf.put(before).put(after);
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), buf.arrayOffset() + start, buf.position() - start);
+    buf.putInt((int) crc.getValue());
+  }
+
+  /**
+   * Reads a record from the given buffer at its current position.
+   * 
+   * @return the record, or null if the buffer holds no complete, intact
+   * record there (i.e. at the torn end of the log)
+   */
+  public static LogRecord readData(ByteBuffer buf) {
+
+    // check that the whole record is present and undamaged
+    int start = buf.position();
+    if (buf.remaining() < HEADER_SIZE) {
+      return null;
+    }
+    int length = buf.getInt(start);
+    if ((length < HEADER_SIZE) || (length > buf.remaining())) {
+      return null;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), buf.arrayOffset() + start, length - 4);
+    if (buf.getInt(start + length - 4) != (int) crc.getValue()) {
+      return null;
+    }
+
+    // decode the fields
+    buf.getInt();
+    long lsn = buf.getLong();
+    long prev_lsn = buf.getLong();
+    long undo_next = buf.getLong();
+    LogRecord rec = new LogRecord((byte) 0, buf.getInt());
+    rec.lsn = lsn;
+    rec.prev_lsn = prev_lsn;
+    rec.undo_next = undo_next;
+    rec.type = buf.get();
+    rec.pid = buf.getInt();
+    rec.offset = buf.getInt();
+    rec.before = new byte[buf.getInt()];
+    rec.after = new byte[buf.getInt()];
+    buf.get(rec.before).get(rec.after);
+    buf.getInt();
+    return rec;
+
+  } // public static LogRecord readData(ByteBuffer buf)
+
+} // public class LogRecord
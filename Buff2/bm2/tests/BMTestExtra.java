@@ -1,9 +1,18 @@
 package tests;
 
+import bufmgr.BufMgr;
+import diskmgr.DiskMgr;
 import global.Convert;
 import global.Minibase;
 import global.Page;
 import global.PageId;
+import logmgr.Checkpointer;
+import logmgr.LogMgr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
 
 /**
  * Test suite for the bufmgr layer.
@@ -28,6 +37,11 @@ class BMTestExtra extends TestDriver {
     boolean status = PASS;
     status &= bmt.test4();
     status &= bmt.test5();
+    status &= bmt.test6();
+    status &= bmt.test7();
+    status &= bmt.test8();
+    status &= bmt.test9();
+    status &= bmt.test10();
 
     // display the final results
     System.out.println();
@@ -386,4 +400,436 @@ class BMTestExtra extends TestDriver {
 
 	  } // protected boolean test5 ()
 
+  /**
+   * Evicts pages into the victim cache and pins them again, checking their
+   * contents, including pages that barely compress.
+   */
+  protected boolean test6() {
+
+    System.out.print("\n  Test 6 evicts pages to the victim cache and "
+        + "pins them again\n");
+    boolean status = PASS;
+    initRandom();
+    int numPages = 3 * Minibase.BufferManager.getNumFrames();
+    byte[][] contents = new byte[numPages][];
+
+    System.out.print("  - Write " + numPages + " new pages\n");
+    Page pg = new Page();
+    PageId firstPid = Minibase.BufferManager.newPage(pg, numPages);
+    Minibase.BufferManager.unpinPage(firstPid, UNPIN_CLEAN);
+    PageId pid = new PageId();
+    for (int i = 0; i < numPages; i++) {
+      byte[] data = new byte[PAGE_SIZE];
+      if (i % 2 == 0) {
+        // random, with one short repeat (may compress to about a page)
+        random.nextBytes(data);
+        int len = 4 + random.nextInt(8);
+        System.arraycopy(data, random.nextInt(PAGE_SIZE / 2), data,
+            PAGE_SIZE / 2 + random.nextInt(PAGE_SIZE / 2 - len), len);
+      } else {
+        for (int j = 0; j < PAGE_SIZE; j += 4) {
+          Convert.setIntValue(i + j / 64, j, data);
+        }
+      }
+      contents[i] = data;
+      pid.pid = firstPid.pid + i;
+      Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+      System.arraycopy(data, 0, pg.getData(), 0, PAGE_SIZE);
+      Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    }
+    Minibase.BufferManager.flushAllFrames();
+
+    System.out.print("  - Pin them all twice with the victim cache on\n");
+    Minibase.BufferManager.setVictimCacheSize(numPages * PAGE_SIZE);
+    for (int pass = 0; pass < 2 && status == PASS; pass++) {
+      for (int i = 0; i < numPages && status == PASS; i++) {
+        pid.pid = firstPid.pid + i;
+        Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+        if (!Arrays.equals(contents[i], pg.getData())) {
+          System.err.print("*** Page " + pid.pid + " has the wrong contents\n");
+          status = FAIL;
+        }
+        Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+      }
+    }
+    if ((status == PASS) && (Minibase.BufferManager.getVictimHits() == 0)) {
+      System.err.print("*** No page came from the victim cache\n");
+      status = FAIL;
+    }
+    Minibase.BufferManager.setVictimCacheSize(0);
+
+    System.out.print("  - Free the pages\n");
+    for (int i = 0; i < numPages; i++) {
+      pid.pid = firstPid.pid + i;
+      Minibase.BufferManager.freePage(pid);
+    }
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager
+        .getNumFrames()) {
+      System.err.print("*** The buffer manager has left pages pinned\n");
+      status = FAIL;
+    }
+
+    if (status == PASS) {
+      System.out.print("  Test 6 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test6()
+
+  /**
+   * Commits and aborts logged changes to a page, and checks how changed
+   * bytes are merged into log records.
+   */
+  protected boolean test7() {
+
+    System.out.print("\n  Test 7 commits and aborts logged page changes\n");
+    boolean status = PASS;
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false, new_diskmgr(),
+        new LogMgr());
+    LogMgr log = Minibase.LogManager;
+    Page pg = new Page();
+    PageId pid = Minibase.BufferManager.newPage(pg, 1);
+    Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+
+    System.out.print("  - Commit a change, then abort another\n");
+    log.begin();
+    fillLogged(pid, 1);
+    log.commit();
+    log.begin();
+    fillLogged(pid, 2);
+    log.abort();
+    status &= checkFill(pid, 1);
+
+    System.out.print("  - Abort a change already written to disk\n");
+    log.begin();
+    long flushed = log.getFlushedLSN();
+    fillLogged(pid, 3);
+    Minibase.BufferManager.flushAllFrames();
+    if ((status == PASS) && (log.getFlushedLSN() <= flushed)) {
+      System.err.print("*** The page was written before its log records\n");
+      status = FAIL;
+    }
+    log.abort();
+    status &= checkFill(pid, 1);
+
+    System.out.print("  - Commit a change and read it back from disk\n");
+    log.begin();
+    fillLogged(pid, 4);
+    log.commit();
+    Minibase.BufferManager.flushAllFrames();
+    Page disk = new Page();
+    Minibase.DiskManager.read_page(pid, disk);
+    if ((status == PASS) && (Convert.getIntValue(PAGE_SIZE - 4,
+        disk.getData()) != 4 * PAGE_SIZE)) {
+      System.err.print("*** The committed change is not on disk\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Log nearby changes as one record\n");
+    log.begin();
+    long single = logBytes(pid, 0);
+    long merged = logBytes(pid, 0, LogMgr.MERGE_GAP);
+    long split = logBytes(pid, 0, LogMgr.MERGE_GAP + 1);
+    long none = logBytes(pid);
+    log.commit();
+    if ((status == PASS) && ((merged != single + 2 * LogMgr.MERGE_GAP)
+        || (split != 2 * single) || (none != 0))) {
+      System.err.print("*** Logged " + single + ", " + merged + ", " + split
+          + " and " + none + " bytes for 1, 2 near, 2 far and 0 changes\n");
+      status = FAIL;
+    }
+
+    Minibase.BufferManager.freePage(pid);
+    Minibase.DiskManager.closeDB();
+    if (status == PASS) {
+      System.out.print("  Test 7 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test7()
+
+  /**
+   * Commits transactions from several threads at once, which should share
+   * log syncs.
+   */
+  protected boolean test8() {
+
+    System.out.print("\n  Test 8 groups concurrent commits\n");
+    boolean status = PASS;
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false, new_diskmgr(),
+        new LogMgr());
+    final LogMgr log = Minibase.LogManager;
+    log.setGroupCommitDelay(1000);
+    final int numThreads = 8;
+    final int numCommits = 20;
+    Page pg = new Page();
+    final PageId firstPid = Minibase.BufferManager.newPage(pg, numThreads);
+    Minibase.BufferManager.unpinPage(firstPid, UNPIN_DIRTY);
+
+    System.out.print("  - Commit " + numCommits + " changes in each of "
+        + numThreads + " threads\n");
+    long commits = log.getCommitCount();
+    long syncs = log.getSyncCount();
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final PageId pid = new PageId(firstPid.pid + t);
+      threads[t] = new Thread() {
+        public void run() {
+          for (int i = 1; i <= numCommits; i++) {
+            log.begin();
+            fillLogged(pid, i);
+            log.commit();
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    commits = log.getCommitCount() - commits;
+    syncs = log.getSyncCount() - syncs;
+    System.out.print("  - " + commits + " commits took " + syncs
+        + " log syncs\n");
+    if (commits != numThreads * numCommits) {
+      System.err.print("*** Counted " + commits + " commits\n");
+      status = FAIL;
+    }
+    if ((status == PASS) && (syncs >= commits)) {
+      System.err.print("*** No commits shared a log sync\n");
+      status = FAIL;
+    }
+    for (int t = 0; t < numThreads && status == PASS; t++) {
+      status &= checkFill(new PageId(firstPid.pid + t), numCommits);
+    }
+
+    for (int t = 0; t < numThreads; t++) {
+      Minibase.BufferManager.freePage(new PageId(firstPid.pid + t));
+    }
+    Minibase.DiskManager.closeDB();
+    if (status == PASS) {
+      System.out.print("  Test 8 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test8()
+
+  /**
+   * Restarts a logged database that was not closed, with a committed change
+   * only in the log, a loser's change already on disk, the front of the log
+   * cut off by a checkpoint and a torn record at its end.
+   */
+  protected boolean test9() {
+
+    System.out.print("\n  Test 9 recovers from a simulated crash\n");
+    boolean status = PASS;
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false, new DiskMgr(),
+        new LogMgr());
+    Page pg = new Page();
+    final PageId pidA = Minibase.BufferManager.newPage(pg, 2);
+    Minibase.BufferManager.unpinPage(pidA, UNPIN_DIRTY);
+    PageId pidB = new PageId(pidA.pid + 1);
+    File logFile = new File(DB_PATH + ".log");
+
+    System.out.print("  - Commit enough changes for a checkpoint to cut the "
+        + "log\n");
+    int numCommits = 0;
+    while (Minibase.LogManager.getFlushedLSN() < 1024 * 1024) {
+      numCommits++;
+      Minibase.LogManager.begin();
+      fillLogged(pidA, numCommits);
+      fillLogged(pidB, numCommits);
+      Minibase.LogManager.commit();
+    }
+    Minibase.BufferManager.flushAllFrames();
+    Minibase.LogManager.checkpoint();
+    if (logFile.length() >= Minibase.LogManager.getFlushedLSN() / 2) {
+      System.err.print("*** The checkpoint did not cut the log\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Write a loser's change and commit another in "
+        + "memory\n");
+    Minibase.LogManager.begin();
+    fillLogged(pidB, -1);
+    Minibase.BufferManager.flushAllFrames();
+    Thread winner = new Thread() {
+      public void run() {
+        Minibase.LogManager.begin();
+        fillLogged(pidA, -2);
+        Minibase.LogManager.commit();
+      }
+    };
+    winner.start();
+    try {
+      winner.join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+
+    System.out.print("  - Tear the end of the log and restart\n");
+    try {
+      RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+      file.seek(file.length());
+      file.write(new byte[] { 0, 0, 1, 0, 42, 42, 42 });
+      file.close();
+    } catch (IOException exc) {
+      System.err.print("*** Could not tear the log: " + exc + "\n");
+      status = FAIL;
+    }
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, true, new DiskMgr(),
+        new LogMgr());
+
+    System.out.print("  - Check the redone and undone pages\n");
+    long redone = Minibase.LogManager.getRedoCount();
+    if ((status == PASS) && (redone != 2)) {
+      System.err.print("*** Redid " + redone + " updates, not the 2 since "
+          + "the checkpoint\n");
+      status = FAIL;
+    }
+    if (status == PASS) {
+      status &= checkFill(pidA, -2);
+    }
+    if (status == PASS) {
+      status &= checkFill(pidB, numCommits);
+    }
+
+    Minibase.BufferManager.freePage(pidA);
+    Minibase.BufferManager.freePage(pidB);
+    Minibase.DiskManager.closeDB();
+    if (status == PASS) {
+      System.out.print("  Test 9 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test9()
+
+  /**
+   * Runs the background checkpointer, which must refuse a buffer manager
+   * whose methods are not synchronized.
+   */
+  protected boolean test10() {
+
+    System.out.print("\n  Test 10 checkpoints in the background\n");
+    boolean status = PASS;
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false, new_diskmgr(),
+        new LogMgr());
+    BufMgr bufmgr = Minibase.BufferManager;
+
+    System.out.print("  - Start it with a buffer manager that is not "
+        + "thread-safe\n");
+    Minibase.BufferManager = new BufMgr(BUF_SIZE) {
+      public void pinPage(PageId pageno, Page mempage, int contents) {
+        super.pinPage(pageno, mempage, contents);
+      }
+    };
+    if (Checkpointer.isThreadSafe(Minibase.BufferManager)
+        || Checkpointer.isThreadSafe(new Object())) {
+      System.err.print("*** An unsynchronized buffer manager passed\n");
+      status = FAIL;
+    }
+    try {
+      Minibase.LogManager.startCheckpointer(50, 1000);
+      Minibase.LogManager.stopCheckpointer();
+      System.err.print("*** The checkpointer started\n");
+      status = FAIL;
+    } catch (IllegalStateException exc) {
+      System.out.print("  --> Failed as expected \n");
+    }
+    Minibase.BufferManager = bufmgr;
+
+    System.out.print("  - Start it with the real one and commit a change\n");
+    if (!Checkpointer.isThreadSafe(bufmgr)) {
+      System.err.print("*** The buffer manager is not thread-safe\n");
+      status = FAIL;
+    }
+    long before = Minibase.LogManager.getCheckpointLSN();
+    Minibase.LogManager.startCheckpointer(50, 1000);
+    Page pg = new Page();
+    PageId pid = Minibase.BufferManager.newPage(pg, 1);
+    Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    Minibase.LogManager.begin();
+    fillLogged(pid, 10);
+    Minibase.LogManager.commit();
+    long lsn = Minibase.LogManager.getFlushedLSN();
+    for (int i = 0; i < 100 && Minibase.LogManager.getCheckpointLSN() < lsn; i++) {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    Minibase.LogManager.stopCheckpointer();
+    if ((status == PASS) && ((Minibase.LogManager.getCheckpointLSN() < lsn)
+        || (Minibase.LogManager.getCheckpointLSN() == before))) {
+      System.err.print("*** No checkpoint was taken after the commit\n");
+      status = FAIL;
+    }
+    status &= checkFill(pid, 10);
+
+    Minibase.BufferManager.freePage(pid);
+    Minibase.DiskManager.closeDB();
+    if (status == PASS) {
+      System.out.print("  Test 10 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test10()
+
+  /**
+   * Fills a page with multiples of the given value, logging the change.
+   */
+  protected void fillLogged(PageId pid, int value) {
+    Page pg = new Page();
+    Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+    byte[] before = LogMgr.snapshot(pg);
+    for (int i = 0; i < PAGE_SIZE; i += 4) {
+      Convert.setIntValue(value * (i + 4), i, pg.getData());
+    }
+    LogMgr.logUpdate(pid, before, pg);
+    Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+  }
+
+  /**
+   * Checks that a page holds what fillLogged put there.
+   */
+  protected boolean checkFill(PageId pid, int value) {
+    Page pg = new Page();
+    Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+    boolean status = PASS;
+    for (int i = 0; i < PAGE_SIZE && status == PASS; i += 4) {
+      if (Convert.getIntValue(i, pg.getData()) != value * (i + 4)) {
+        System.err.print("*** Page " + pid.pid + " does not hold " + value
+            + "s\n");
+        status = FAIL;
+      }
+    }
+    Minibase.BufferManager.unpinPage(pid, UNPIN_CLEAN);
+    return status;
+  }
+
+  /**
+   * Changes the given bytes of a page, and gets the number of bytes that
+   * took in the log.
+   */
+  protected long logBytes(PageId pid, int... offsets) {
+    LogMgr log = Minibase.LogManager;
+    log.flushAll();
+    long start = log.getFlushedLSN();
+    Page pg = new Page();
+    Minibase.BufferManager.pinPage(pid, pg, PIN_DISKIO);
+    byte[] before = LogMgr.snapshot(pg);
+    for (int offset : offsets) {
+      pg.getData()[offset]++;
+    }
+    LogMgr.logUpdate(pid, before, pg);
+    Minibase.BufferManager.unpinPage(pid, UNPIN_DIRTY);
+    log.flushAll();
+    return log.getFlushedLSN() - start;
+  }
+
 } // class BMTest extends TestDriver
@@ -1,9 +1,25 @@
 package tests;
 
+import diskmgr.DiskMgr;
+import diskmgr.IOStats;
+import diskmgr.LatencyHistogram;
+import diskmgr.MemDiskMgr;
+import diskmgr.PageChecksums;
+import diskmgr.PageCodec;
 import global.Convert;
 import global.Minibase;
 import global.Page;
 import global.PageId;
+import logmgr.LogMgr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 /**
  * Test suite for the diskmgr layer.
@@ -32,6 +48,15 @@ class DMTest extends TestDriver {
     status &= dbt.test2();
     status &= dbt.test3();
     status &= dbt.test4();
+    status &= dbt.test5();
+    status &= dbt.test6();
+    status &= dbt.test7();
+    status &= dbt.test8();
+    status &= dbt.test9();
+    status &= dbt.test10();
+    status &= dbt.test11();
+    status &= dbt.test12();
+    status &= dbt.test13();
 
     // display the final results
     System.out.println();
@@ -673,4 +698,779 @@ class DMTest extends TestDriver {
 
   } // protected boolean test4()
 
+  /**
+   * Round-trips pages through the page codec and the disk manager,
+   * including pages that compress to exactly a page.
+   */
+  protected boolean test5() {
+
+    System.out.print("\n  Test 5 round-trips pages through the page codec:\n");
+    boolean status = PASS;
+    create_minibase();
+    initRandom();
+
+    System.out.print("  - Compress random pages with a short repeat\n");
+    PageId pgid = Minibase.DiskManager.allocate_page();
+    byte[] image = new byte[PAGE_SIZE];
+    byte[] wide = new byte[2 * PAGE_SIZE];
+    byte[] copy = new byte[PAGE_SIZE];
+    int boundary = 0;
+    for (int i = 0; i < 1000 && status == PASS; i++) {
+      byte[] data = new byte[PAGE_SIZE];
+      random.nextBytes(data);
+      int len = 4 + random.nextInt(8);
+      System.arraycopy(data, random.nextInt(PAGE_SIZE / 2), data,
+          PAGE_SIZE / 2 + random.nextInt(PAGE_SIZE / 2 - len), len);
+      if (PageCodec.compress(data, wide) == PAGE_SIZE) {
+        boundary++;
+      }
+      int clen = PageCodec.compress(data, image);
+      if (clen >= PAGE_SIZE) {
+        System.err.print("*** Compressed a page to " + clen + " bytes\n");
+        status = FAIL;
+      } else if (clen > 0) {
+        PageCodec.decompress(image, 0, clen, copy);
+        if (!Arrays.equals(data, copy)) {
+          System.err.print("*** Page " + i + " did not round-trip\n");
+          status = FAIL;
+        }
+      }
+
+      // and through the disk manager, compressed or not
+      Minibase.DiskManager.write_page(pgid, new Page(data));
+      Page read = new Page();
+      Minibase.DiskManager.read_page(pgid, read);
+      if ((status == PASS) && !Arrays.equals(data, read.getData())) {
+        System.err.print("*** Page " + i + " was not read back as written\n");
+        status = FAIL;
+      }
+    }
+    if ((status == PASS) && (boundary == 0)) {
+      System.err.print("*** No page compressed to exactly a page\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Compress a page of zeros and a page of text\n");
+    byte[] text = new byte[PAGE_SIZE];
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      text[i] = (byte) ("page codec " + i).charAt(i % 10);
+    }
+    for (byte[] data : new byte[][] { new byte[PAGE_SIZE], text }) {
+      int clen = PageCodec.compress(data, image);
+      if ((status == PASS) && ((clen <= 0) || (clen >= PAGE_SIZE / 4))) {
+        System.err.print("*** Compressed a regular page to " + clen
+            + " bytes\n");
+        status = FAIL;
+      }
+      if (status == PASS) {
+        PageCodec.decompress(image, 0, clen, copy);
+        if (!Arrays.equals(data, copy)) {
+          System.err.print("*** Regular page did not round-trip\n");
+          status = FAIL;
+        }
+      }
+    }
+    Minibase.DiskManager.deallocate_page(pgid);
+
+    if (status == PASS) {
+      System.out.print("  Test 5 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test5()
+
+  /**
+   * Restarts a logged database after a crash that left the checksums of its
+   * header pages out of step with the pages.
+   */
+  protected boolean test6() {
+
+    System.out.print("\n  Test 6 restarts a database with stale checksums:\n");
+    boolean status = PASS;
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false, new DiskMgr(),
+        new LogMgr());
+
+    System.out.print("  - Add enough file entries to need several header "
+        + "pages\n");
+    int[] starts = new int[60];
+    Minibase.LogManager.begin();
+    for (int i = 0; i < starts.length; i++) {
+      PageId pgid = Minibase.DiskManager.allocate_page();
+      Minibase.DiskManager.add_file_entry("crash" + i, pgid);
+      starts[i] = pgid.pid;
+    }
+    Minibase.LogManager.commit();
+    Minibase.BufferManager.flushAllFrames();
+
+    System.out.print("  - Corrupt the checksums of the pages written\n");
+    int[] stale = new int[0];
+    try {
+      RandomAccessFile sums = new RandomAccessFile(DB_PATH + ".sum", "rw");
+      for (int pid = 1; pid < sums.length() / 4; pid++) {
+        sums.seek(4L * pid);
+        int sum = sums.readInt();
+        if (sum != 0) {
+          sums.seek(4L * pid);
+          sums.writeInt(~sum);
+          stale = Arrays.copyOf(stale, stale.length + 1);
+          stale[stale.length - 1] = pid;
+        }
+      }
+      sums.close();
+    } catch (IOException exc) {
+      System.err.print("*** Could not corrupt the checksums: " + exc + "\n");
+      status = FAIL;
+    }
+    if ((status == PASS) && (stale.length < 2)) {
+      System.err.print("*** Only " + stale.length + " pages were written\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Restart without closing the database\n");
+    if (status == PASS) {
+      try {
+        new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, true, new DiskMgr(),
+            new LogMgr());
+      } catch (IllegalStateException exc) {
+        System.err.print("*** Restart failed: " + exc.getMessage() + "\n");
+        status = FAIL;
+      }
+    }
+    if ((status == PASS) && (Minibase.LogManager.getRedoCount() == 0)) {
+      System.err.print("*** Recovery redid no updates\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Check the file entries and the repaired pages\n");
+    for (int i = 0; i < starts.length && status == PASS; i++) {
+      PageId pgid = Minibase.DiskManager.get_file_entry("crash" + i);
+      if ((pgid == null) || (pgid.pid != starts[i])) {
+        System.err.print("*** File entry crash" + i + " was lost\n");
+        status = FAIL;
+      }
+    }
+    for (int i = 0; i < stale.length && status == PASS; i++) {
+      try {
+        Minibase.DiskManager.read_page(new PageId(stale[i]), new Page());
+      } catch (IllegalStateException exc) {
+        System.err.print("*** Page " + stale[i] + " was not repaired\n");
+        status = FAIL;
+      }
+    }
+    if ((status == PASS)
+        && (Minibase.DiskManager.getCorruptPages().length != 0)) {
+      System.err.print("*** Repaired pages are still reported corrupt\n");
+      status = FAIL;
+    }
+    Minibase.DiskManager.closeDB();
+
+    if (status == PASS) {
+      System.out.print("  Test 6 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test6()
+
+  /**
+   * Backs up a database, fully and incrementally, and restores the backups
+   * into a new one.
+   */
+  protected boolean test7() {
+
+    System.out.print("\n  Test 7 backs up and restores a database:\n");
+    boolean status = PASS;
+    create_minibase();
+    int numPages = 20;
+    PageId first = Minibase.DiskManager.allocate_page(numPages);
+    Minibase.DiskManager.add_file_entry("backup", first);
+    ByteArrayOutputStream full = new ByteArrayOutputStream();
+    ByteArrayOutputStream incr1 = new ByteArrayOutputStream();
+    ByteArrayOutputStream incr2 = new ByteArrayOutputStream();
+
+    try {
+
+      System.out.print("  - Take a full backup\n");
+      fillPages(first, 0, numPages, 1);
+      int count = Minibase.DiskManager.backup(full, true);
+      if ((count != DB_SIZE) || (Minibase.DiskManager.getChangedCount() != 0)) {
+        System.err.print("*** Full backup copied " + count + " pages\n");
+        status = FAIL;
+      }
+
+      System.out.print("  - Take an incremental backup of 5 changed pages\n");
+      fillPages(first, 0, 5, 2);
+      count = Minibase.DiskManager.backup(incr1, false);
+      if ((status == PASS) && (count != 5)) {
+        System.err.print("*** Incremental backup copied " + count
+            + " pages\n");
+        status = FAIL;
+      }
+
+      System.out.print("  - Fail a backup of 3 more, which stay marked\n");
+      fillPages(first, 10, 3, 3);
+      try {
+        Minibase.DiskManager.backup(new OutputStream() {
+          public void write(int b) throws IOException {
+            throw new IOException("Backup device full");
+          }
+        }, false);
+        System.err.print("*** The backup did not fail\n");
+        status = FAIL;
+      } catch (IOException exc) {
+        System.out.print("  --> Failed as expected \n");
+      }
+      count = Minibase.DiskManager.getChangedCount();
+      if ((status == PASS) && (count != 3)) {
+        System.err.print("*** " + count + " pages are marked changed\n");
+        status = FAIL;
+      }
+      count = Minibase.DiskManager.backup(incr2, false);
+      if ((status == PASS) && (count != 3)) {
+        System.err.print("*** The retried backup copied " + count
+            + " pages\n");
+        status = FAIL;
+      }
+
+      System.out.print("  - Restore the backups into a new database\n");
+      create_minibase();
+      Minibase.DiskManager.restoreBackup(new ByteArrayInputStream(
+          full.toByteArray()));
+      Minibase.DiskManager.restoreBackup(new ByteArrayInputStream(
+          incr1.toByteArray()));
+      Minibase.DiskManager.restoreBackup(new ByteArrayInputStream(
+          incr2.toByteArray()));
+
+    } catch (IOException exc) {
+      System.err.print("*** Unexpected I/O error: " + exc + "\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Check the restored pages and file entry\n");
+    PageId pgid = Minibase.DiskManager.get_file_entry("backup");
+    if ((status == PASS) && ((pgid == null) || (pgid.pid != first.pid))) {
+      System.err.print("*** The file entry was not restored\n");
+      status = FAIL;
+    }
+    Page pg = new Page();
+    for (int i = 0; i < numPages && status == PASS; i++) {
+      int value = (i < 5) ? 2 : ((i >= 10) && (i < 13)) ? 3 : 1;
+      pgid = new PageId(first.pid + i);
+      Minibase.BufferManager.pinPage(pgid, pg, PIN_DISKIO);
+      if (Convert.getIntValue(PAGE_SIZE - 4, pg.getData()) != pgid.pid
+          * value) {
+        System.err.print("*** Page " + pgid.pid + " was not restored\n");
+        status = FAIL;
+      }
+      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
+    }
+
+    if (status == PASS) {
+      System.out.print("  Test 7 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test7()
+
+  /**
+   * Writes pid * value at the end of each of a run of pages, and flushes them
+   * to disk.
+   */
+  protected void fillPages(PageId first, int offset, int count, int value) {
+    Page pg = new Page();
+    for (int i = offset; i < offset + count; i++) {
+      PageId pgid = new PageId(first.pid + i);
+      Minibase.BufferManager.pinPage(pgid, pg, PIN_DISKIO);
+      Convert.setIntValue(pgid.pid * value, PAGE_SIZE - 4, pg.getData());
+      Minibase.BufferManager.unpinPage(pgid, UNPIN_DIRTY);
+    }
+    Minibase.BufferManager.flushAllFrames();
+  }
+
+  /**
+   * Corrupts pages on disk, which reads and the scrubber should catch, and
+   * checks the checksums themselves.
+   */
+  protected boolean test8() {
+
+    System.out.print("\n  Test 8 detects corrupt pages:\n");
+    boolean status = PASS;
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false, new DiskMgr());
+
+    System.out.print("  - Check the CRC32C of a known string\n");
+    byte[] check = "123456789".getBytes();
+    int crc = PageChecksums.crc32c(check, 0, check.length);
+    if (crc != 0xE3069283) {
+      System.err.print("*** Computed CRC32C " + Integer.toHexString(crc)
+          + "\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Write some pages and check their stored "
+        + "checksums\n");
+    int numPages = 10;
+    PageId first = Minibase.DiskManager.allocate_page(numPages);
+    Page pg = new Page();
+    for (int i = 0; i < numPages; i++) {
+      PageId pgid = new PageId(first.pid + i);
+      Minibase.BufferManager.pinPage(pgid, pg, PIN_DISKIO);
+      for (int j = 0; j < PAGE_SIZE; j += 4) {
+        Convert.setIntValue(pgid.pid + j, j, pg.getData());
+      }
+      Minibase.BufferManager.unpinPage(pgid, UNPIN_DIRTY);
+    }
+    Minibase.BufferManager.flushAllFrames();
+    try {
+      RandomAccessFile sums = new RandomAccessFile(DB_PATH + ".sum", "r");
+      for (int i = 0; i < numPages && status == PASS; i++) {
+        PageId pgid = new PageId(first.pid + i);
+        Minibase.DiskManager.read_page(pgid, pg);
+        sums.seek(4L * pgid.pid);
+        if (sums.readInt() != PageChecksums.crc32c(pg.getData(), 0,
+            PAGE_SIZE)) {
+          System.err.print("*** Page " + pgid.pid + " has the wrong "
+              + "checksum\n");
+          status = FAIL;
+        }
+      }
+      sums.close();
+    } catch (IOException exc) {
+      System.err.print("*** Could not read the checksums: " + exc + "\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Flip a byte of a page on disk\n");
+    PageId bad = new PageId(first.pid + 3);
+    status &= flipByte(bad);
+    int found = Minibase.DiskManager.scrub(first.pid, numPages);
+    if ((status == PASS) && ((found != 1) || !Arrays.equals(new int[] {
+        bad.pid }, Minibase.DiskManager.getCorruptPages()))) {
+      System.err.print("*** The scrub found " + found + " corrupt pages\n");
+      status = FAIL;
+    }
+    try {
+      Minibase.DiskManager.read_page(bad, pg);
+      System.err.print("*** The corrupt page was read\n");
+      status = FAIL;
+    } catch (IllegalStateException exc) {
+      System.out.print("  --> Failed as expected \n");
+    }
+
+    System.out.print("  - Flip a byte of another and run the scrubber\n");
+    PageId bad2 = new PageId(first.pid + 7);
+    status &= flipByte(bad2);
+    Minibase.DiskManager.startScrubber(100000);
+    int[] corrupt = Minibase.DiskManager.getCorruptPages();
+    for (int i = 0; i < 100 && corrupt.length < 2; i++) {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException exc) {
+        Thread.currentThread().interrupt();
+      }
+      corrupt = Minibase.DiskManager.getCorruptPages();
+    }
+    Minibase.DiskManager.stopScrubber();
+    if ((status == PASS) && !Arrays.equals(new int[] { bad.pid, bad2.pid },
+        corrupt)) {
+      System.err.print("*** The scrubber reported pages "
+          + Arrays.toString(corrupt) + "\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Rewrite the pages\n");
+    for (PageId pgid : new PageId[] { bad, bad2 }) {
+      Minibase.DiskManager.write_page(pgid, new Page());
+    }
+    if ((status == PASS)
+        && (Minibase.DiskManager.getCorruptPages().length != 0)) {
+      System.err.print("*** Rewritten pages are still reported corrupt\n");
+      status = FAIL;
+    }
+    Minibase.DiskManager.deallocate_page(first, numPages);
+
+    if (status == PASS) {
+      System.out.print("  Test 8 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test8()
+
+  /**
+   * Checks the latency histogram's buckets and percentiles, and that disk
+   * I/O is charged to the calling thread's tag.
+   */
+  protected boolean test9() {
+
+    System.out.print("\n  Test 9 keeps latency and tagged I/O statistics:\n");
+    boolean status = PASS;
+
+    System.out.print("  - Record small values, which get their own buckets\n");
+    LatencyHistogram hist = new LatencyHistogram();
+    for (int i = 0; i < 16; i++) {
+      hist.record(i);
+    }
+    hist.record(-5);
+    if ((hist.getCount() != 17) || (hist.getPercentile(50) != 7)
+        || (hist.getPercentile(0) != 0) || (hist.getMax() != 15)
+        || (hist.getMean() != 120 / 17.0)) {
+      System.err.print("*** Small values gave " + hist + "\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Record 1 to 100000, checking each percentile\n");
+    hist.reset();
+    int count = 100000;
+    for (int i = 1; i <= count; i++) {
+      hist.record(i);
+    }
+    for (double pct : new double[] { 1, 25, 50, 90, 99, 99.9, 100 }) {
+      long exact = (long) Math.ceil(count * pct / 100);
+      long value = hist.getPercentile(pct);
+      if ((value < exact) || (value > exact + exact / 16)) {
+        System.err.print("*** The " + pct + "th percentile is " + value
+            + ", not about " + exact + "\n");
+        status = FAIL;
+      }
+    }
+    if ((hist.getPercentile(100) != count) || (hist.getMax() != count)) {
+      System.err.print("*** The largest value is " + hist.getMax() + "\n");
+      status = FAIL;
+    }
+    hist.reset();
+    if ((hist.getCount() != 0) || (hist.getPercentile(50) != 0)) {
+      System.err.print("*** Reset left " + hist + "\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Read and write pages under a tag\n");
+    int numPages = 5;
+    PageId first = Minibase.DiskManager.allocate_page(numPages);
+    Page pg = new Page();
+    String prevTag = DiskMgr.setIOTag("test_9");
+    for (int i = 0; i < numPages; i++) {
+      PageId pgid = new PageId(first.pid + i);
+      Minibase.DiskManager.write_page(pgid, pg);
+      Minibase.DiskManager.read_page(pgid, pg);
+      Minibase.DiskManager.read_page(pgid, pg);
+    }
+    DiskMgr.setIOTag(prevTag);
+    Minibase.DiskManager.read_page(first, pg);
+    IOStats tagged = Minibase.DiskManager.getIOStats("test_9");
+    if ((tagged == null) || (tagged.getReads() != 2 * numPages)
+        || (tagged.getWrites() != numPages)
+        || (tagged.getReadLatency().getCount() != 2 * numPages)
+        || (Minibase.DiskManager.getTaggedIOStats().get("test_9") != tagged)) {
+      System.err.print("*** The tag was charged with "
+          + ((tagged == null) ? "no I/O" : tagged.getReads() + " reads and "
+              + tagged.getWrites() + " writes") + "\n");
+      status = FAIL;
+    }
+    Minibase.DiskManager.deallocate_page(first, numPages);
+
+    if (status == PASS) {
+      System.out.print("  Test 9 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test9()
+
+  /**
+   * Shrinks an in-memory database, whose pages past the new end then read
+   * as zeros until they are written again.
+   */
+  protected boolean test10() {
+
+    System.out.print("\n  Test 10 shrinks an in-memory database:\n");
+    boolean status = PASS;
+    new Minibase("test_10", DB_SIZE, BUF_SIZE, false, new MemDiskMgr());
+
+    System.out.print("  - Write a run of pages over several chunks\n");
+    int numPages = 600;
+    PageId first = Minibase.DiskManager.allocate_page(numPages);
+    Page pg = new Page();
+    for (int i = 0; i < numPages; i++) {
+      Convert.setIntValue(first.pid + i, 0, pg.getData());
+      Minibase.DiskManager.write_page(new PageId(first.pid + i), pg);
+    }
+
+    System.out.print("  - Free all but the first 100 and shrink\n");
+    int keep = 100;
+    Minibase.DiskManager.deallocate_page(new PageId(first.pid + keep),
+        numPages - keep);
+    int end = Minibase.DiskManager.shrinkDB();
+    if (end != first.pid + keep) {
+      System.err.print("*** The database ends at page " + end + ", not "
+          + (first.pid + keep) + "\n");
+      status = FAIL;
+    }
+    for (int i = 0; i < numPages && status == PASS; i++) {
+      PageId pgid = new PageId(first.pid + i);
+      Minibase.DiskManager.read_page(pgid, pg);
+      int expected = (i < keep) ? pgid.pid : 0;
+      if (Convert.getIntValue(0, pg.getData()) != expected) {
+        System.err.print("*** Page " + pgid.pid + " reads "
+            + Convert.getIntValue(0, pg.getData()) + "\n");
+        status = FAIL;
+      }
+    }
+
+    System.out.print("  - Write past the end again\n");
+    PageId last = new PageId(first.pid + numPages - 1);
+    Convert.setIntValue(last.pid, 0, pg.getData());
+    Minibase.DiskManager.write_page(last, pg);
+    Page check = new Page();
+    Minibase.DiskManager.read_page(last, check);
+    if ((status == PASS)
+        && (Convert.getIntValue(0, check.getData()) != last.pid)) {
+      System.err.print("*** The rewritten page was lost\n");
+      status = FAIL;
+    }
+    Minibase.DiskManager.destroyDB();
+
+    if (status == PASS) {
+      System.out.print("  Test 10 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test10()
+
+  /**
+   * Opens a database whose temp segment was left behind by a crash, which
+   * should start out empty again.
+   */
+  protected boolean test11() {
+
+    System.out.print("\n  Test 11 resets the temp segment on open:\n");
+    boolean status = PASS;
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false, new DiskMgr());
+    File tempFile = new File(DB_PATH + ".tmp");
+
+    System.out.print("  - Allocate and write temp pages\n");
+    int numPages = 3;
+    boolean wasTemp = DiskMgr.setTempAllocation(true);
+    PageId first = Minibase.DiskManager.allocate_page(numPages);
+    DiskMgr.setTempAllocation(wasTemp);
+    Page pg = new Page();
+    for (int i = 0; i < numPages; i++) {
+      Convert.setIntValue(i + 1, 0, pg.getData());
+      Minibase.DiskManager.write_page(new PageId(first.pid + i), pg);
+    }
+    if (!DiskMgr.isTempPage(first)
+        || (Minibase.DiskManager.getTempAllocCount() != numPages)
+        || !tempFile.exists()) {
+      System.err.print("*** The temp pages were not allocated\n");
+      status = FAIL;
+    }
+
+    System.out.print("  - Open the database again without closing it\n");
+    Minibase.BufferManager.flushAllFrames();
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, true, new DiskMgr());
+    if ((Minibase.DiskManager.getTempAllocCount() != 0) || tempFile.exists()) {
+      System.err.print("*** The temp segment kept "
+          + Minibase.DiskManager.getTempAllocCount() + " pages\n");
+      status = FAIL;
+    }
+    try {
+      Minibase.DiskManager.read_page(first, pg);
+      System.err.print("*** A temp page was read past the end\n");
+      status = FAIL;
+    } catch (IllegalArgumentException exc) {
+      System.out.print("  --> Failed as expected \n");
+    }
+
+    System.out.print("  - Allocate a temp page again, which reads as zeros\n");
+    wasTemp = DiskMgr.setTempAllocation(true);
+    PageId again = Minibase.DiskManager.allocate_page();
+    DiskMgr.setTempAllocation(wasTemp);
+    Minibase.DiskManager.read_page(again, pg);
+    if ((again.pid != first.pid) || (Convert.getIntValue(0, pg.getData()) != 0)) {
+      System.err.print("*** Temp page " + again.pid + " reads "
+          + Convert.getIntValue(0, pg.getData()) + "\n");
+      status = FAIL;
+    }
+    Minibase.DiskManager.deallocate_page(again);
+    Minibase.DiskManager.closeDB();
+
+    if (status == PASS) {
+      System.out.print("  Test 11 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test11()
+
+  /**
+   * Stripes a database over three segment files, checking where each page
+   * lands on disk, and opens it again without configuration.
+   */
+  protected boolean test12() {
+
+    System.out.print("\n  Test 12 stripes pages across segments:\n");
+    boolean status = PASS;
+    String dbPath = "test_12.minibase";
+    String[] dirs = { "test_12.d1", "test_12.d2" };
+    String[] paths = { dbPath, null, null };
+    for (int i = 0; i < dirs.length; i++) {
+      new File(dirs[i]).mkdirs();
+      paths[i + 1] = new File(dirs[i], dbPath + "." + (i + 1)).getPath();
+    }
+    int stripe = 4;
+    DiskMgr diskmgr = new DiskMgr();
+    diskmgr.setSegments(dirs, stripe);
+    new Minibase(dbPath, DB_SIZE, BUF_SIZE, false, diskmgr);
+
+    System.out.print("  - Write a run of pages\n");
+    int numPages = 30;
+    PageId first = Minibase.DiskManager.allocate_page(numPages);
+    Page pg = new Page();
+    for (int i = 0; i < numPages; i++) {
+      PageId pgid = new PageId(first.pid + i);
+      Convert.setIntValue(pgid.pid, PAGE_SIZE - 4, pg.getData());
+      Minibase.DiskManager.write_page(pgid, pg);
+    }
+    Minibase.DiskManager.sync();
+
+    System.out.print("  - Find each page in its segment file\n");
+    if (Minibase.DiskManager.getNumSegments() != paths.length) {
+      System.err.print("*** The database has "
+          + Minibase.DiskManager.getNumSegments() + " segments\n");
+      status = FAIL;
+    }
+    try {
+      for (int i = 0; i < numPages && status == PASS; i++) {
+        PageId pgid = new PageId(first.pid + i);
+        int seg = (pgid.pid / stripe) % paths.length;
+        long pos = ((long) pgid.pid / stripe / paths.length * stripe
+            + pgid.pid % stripe) * PAGE_SIZE;
+        RandomAccessFile file = new RandomAccessFile(paths[seg], "r");
+        byte[] value = new byte[4];
+        file.seek(pos + PAGE_SIZE - 4);
+        file.readFully(value);
+        file.close();
+        if ((Minibase.DiskManager.getSegment(pgid) != seg)
+            || (Convert.getIntValue(0, value) != pgid.pid)) {
+          System.err.print("*** Page " + pgid.pid + " is not at " + pos
+              + " in segment " + seg + "\n");
+          status = FAIL;
+        }
+      }
+    } catch (IOException exc) {
+      System.err.print("*** Could not read the segments: " + exc + "\n");
+      status = FAIL;
+    }
+    Minibase.DiskManager.closeDB();
+
+    System.out.print("  - Open the database again and read the pages\n");
+    new Minibase(dbPath, DB_SIZE, BUF_SIZE, true, new DiskMgr());
+    for (int i = 0; i < numPages && status == PASS; i++) {
+      PageId pgid = new PageId(first.pid + i);
+      Minibase.DiskManager.read_page(pgid, pg);
+      if (Convert.getIntValue(PAGE_SIZE - 4, pg.getData()) != pgid.pid) {
+        System.err.print("*** Page " + pgid.pid + " reads "
+            + Convert.getIntValue(PAGE_SIZE - 4, pg.getData()) + "\n");
+        status = FAIL;
+      }
+    }
+    Minibase.DiskManager.destroyDB();
+    for (int i = 0; i < dirs.length; i++) {
+      if (new File(paths[i + 1]).exists()) {
+        System.err.print("*** Segment " + (i + 1) + " was not deleted\n");
+        status = FAIL;
+      }
+      new File(dirs[i]).delete();
+    }
+
+    if (status == PASS) {
+      System.out.print("  Test 12 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test12()
+
+  /**
+   * Reads and writes pages with direct I/O, and with buffered I/O when the
+   * file system refuses O_DIRECT.
+   */
+  protected boolean test13() {
+
+    System.out.print("\n  Test 13 falls back from direct I/O:\n");
+    boolean status = PASS;
+
+    System.out.print("  - Write pages sharing file system blocks with direct "
+        + "I/O\n");
+    DiskMgr diskmgr = new DiskMgr();
+    diskmgr.setDirectIO(true);
+    status &= checkDirectIO(diskmgr, true);
+
+    System.out.print("  - Write them where the file system refuses O_DIRECT\n");
+    diskmgr = new DiskMgr() {
+      protected FileChannel open_direct(String path) throws IOException {
+        throw new IOException("O_DIRECT not supported");
+      }
+    };
+    diskmgr.setDirectIO(true);
+    status &= checkDirectIO(diskmgr, false);
+
+    if (status == PASS) {
+      System.out.print("  Test 13 completed successfully.\n");
+    }
+    return status;
+
+  } // protected boolean test13()
+
+  /**
+   * Writes a run of pages out of order on a new database, reopens it and
+   * reads them back, checking that it uses direct I/O only if allowed.
+   */
+  protected boolean checkDirectIO(DiskMgr diskmgr, boolean allowed) {
+    boolean status = PASS;
+    String dbPath = "test_13.minibase";
+    new Minibase(dbPath, DB_SIZE, BUF_SIZE, false, diskmgr);
+    if (!allowed && diskmgr.isDirectIO()) {
+      System.err.print("*** Direct I/O is still on\n");
+      status = FAIL;
+    }
+    int numPages = 16;
+    PageId first = Minibase.DiskManager.allocate_page(numPages);
+    Page pg = new Page();
+    for (int i = 0; i < numPages; i++) {
+      PageId pgid = new PageId(first.pid + (i * 5) % numPages);
+      Arrays.fill(pg.getData(), (byte) pgid.pid);
+      Minibase.DiskManager.write_page(pgid, pg);
+    }
+    Minibase.DiskManager.closeDB();
+    new Minibase(dbPath, DB_SIZE, BUF_SIZE, true, new DiskMgr());
+    byte[] expected = new byte[PAGE_SIZE];
+    for (int i = 0; i < numPages && status == PASS; i++) {
+      PageId pgid = new PageId(first.pid + i);
+      Minibase.DiskManager.read_page(pgid, pg);
+      Arrays.fill(expected, (byte) pgid.pid);
+      if (!Arrays.equals(expected, pg.getData())) {
+        System.err.print("*** Page " + pgid.pid + " was overwritten\n");
+        status = FAIL;
+      }
+    }
+    Minibase.DiskManager.destroyDB();
+    return status;
+  }
+
+  /**
+   * Flips the bits of one byte of a page in the database file, behind the
+   * disk manager's back.
+   */
+  protected boolean flipByte(PageId pgid) {
+    try {
+      RandomAccessFile file = new RandomAccessFile(DB_PATH, "rw");
+      long pos = (long) pgid.pid * PAGE_SIZE + PAGE_SIZE / 2;
+      file.seek(pos);
+      int b = file.read();
+      file.seek(pos);
+      file.write(~b);
+      file.close();
+      return PASS;
+    } catch (IOException exc) {
+      System.err.print("*** Could not corrupt page " + pgid.pid + ": " + exc
+          + "\n");
+      return FAIL;
+    }
+  }
+
 } // class DMTest extends TestDriver
@@ -0,0 +1,398 @@
+package diskmgr;
+
+import global.PageId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Disk manager that stores each page compressed (see PageCodec), so scans
+ * read fewer bytes and more of the database fits in the OS cache.  Page
+ * images are variable-size extents of 128-byte units in the database file,
+ * and an indirection map in a file next to it (eight bytes per page) gives
+ * each page's first unit and stored length.  A page that does not compress
+ * is stored raw.
+ * <br><br>
+ * A rewritten page stays in place if it needs the same number of units;
+ * otherwise it is written to a free extent first and only then remapped, so
+ * a crash never leaves the map pointing at a half-written image.  Free
+ * extents are found again on open from the gaps between mapped ones.
+ * Segments and direct I/O are not supported in this mode.
+ */
+public class CompressedDiskMgr extends DiskMgr {
+
+  /** Size of a unit of the page extents (in bytes). */
+  protected static final int UNIT = 128;
+
+  /** Most units in one extent, i.e. a page stored raw. */
+  protected static final int MAX_UNITS = PAGE_SIZE / UNIT;
+
+  /** Size of a map entry (in bytes). */
+  protected static final int MAP_ENTRY = 8;
+
+  /** The database file, holding the page extents. */
+  protected FileChannel data;
+
+  /** The indirection map file. */
+  protected FileChannel map;
+
+  /** First unit of each page's extent. */
+  protected int[] extent_unit = new int[0];
+
+  /** Stored length of each page, PAGE_SIZE if raw, or 0 if never written. */
+  protected int[] extent_len = new int[0];
+
+  /** Free extents (their first units), by size in units. */
+  protected ArrayDeque<Integer>[] free_extents;
+
+  /** Number of units in the database file. */
+  protected int end_unit;
+
+  /** Bytes of the stored page images. */
+  protected long stored_bytes;
+
+  /** Each thread's buffer for one compressed page. */
+  protected final ThreadLocal<byte[]> page_buffer = new ThreadLocal<byte[]>() {
+    protected byte[] initialValue() {
+      return new byte[PAGE_SIZE];
+    }
+  };
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Gets the number of segment files in the database, which is always one.
+   */
+  public int getNumSegments() {
+    return 1;
+  }
+
+  /**
+   * Gets the segment holding the given page, which is always the first.
+   */
+  public int getSegment(PageId pageno) {
+    return 0;
+  }
+
+  /**
+   * Gets the total size of the stored page images (in bytes), to compare
+   * with PAGE_SIZE times the number of pages written.
+   */
+  public synchronized long getStoredBytes() {
+    return stored_bytes;
+  }
+
+  /**
+   * Gets the name of the indirection map file.
+   */
+  protected String map_name() {
+    return name + ".map";
+  }
+
+  /**
+   * Creates the (empty) database and map files, overwriting existing ones.
+   */
+  protected void create_files() throws IOException {
+    new File(name).delete();
+    new File(map_name()).delete();
+    open_channels();
+    load_map();
+  }
+
+  /**
+   * Opens the database and map files of an existing database.
+   *
+   * @throws IllegalStateException if the database file does not exist
+   */
+  protected void open_files() throws IOException {
+    if (!new File(name).exists()) {
+      throw new IllegalStateException("File " + name + " does not exist\n");
+    }
+    open_channels();
+    load_map();
+  }
+
+  /**
+   * Closes the database and map files.
+   */
+  protected void close_files() throws IOException {
+    data.close();
+    map.close();
+  }
+
+  /**
+   * Forces the database and map files to stable storage.
+   */
+  protected void sync_files() throws IOException {
+    data.force(false);
+    map.force(false);
+  }
+
+  /**
+   * Unmaps the pages past the given number and cuts the database file after
+   * the last extent still in use.
+   */
+  protected synchronized void truncate_files(int num_pages) throws IOException {
+    for (int pid = num_pages; pid < extent_len.length; pid++) {
+      if (extent_len[pid] != 0) {
+        stored_bytes -= extent_len[pid];
+        extent_unit[pid] = extent_len[pid] = 0;
+      }
+    }
+    map.truncate((long) Math.min(num_pages, extent_len.length) * MAP_ENTRY);
+    find_free();
+    data.truncate((long) end_unit * UNIT);
+  }
+
+  /**
+   * Deletes the (closed) database and map files.
+   */
+  protected void delete_files() throws IOException {
+    new File(name).delete();
+    new File(map_name()).delete();
+  }
+
+  /**
+   * Reads and decompresses one page; pages never written read as zeros.
+   */
+  protected void read_raw(int pid, byte[] buf) throws IOException {
+    int unit;
+    int len;
+    synchronized (this) {
+      if ((pid >= extent_len.length) || (extent_len[pid] == 0)) {
+        Arrays.fill(buf, (byte) 0);
+        return;
+      }
+      unit = extent_unit[pid];
+      len = extent_len[pid];
+    }
+    if (len == PAGE_SIZE) {
+      read_fully(buf, 0, len, (long) unit * UNIT);
+    } else {
+      byte[] image = page_buffer.get();
+      read_fully(image, 0, len, (long) unit * UNIT);
+      PageCodec.decompress(image, 0, len, buf);
+    }
+  }
+
+  /**
+   * Compresses and writes one page, moving it to another extent if it
+   * needs a different number of units.
+   */
+  protected void write_raw(int pid, byte[] buf) throws IOException {
+
+    // compress the page, or store it raw if that does not make it smaller
+    byte[] image = page_buffer.get();
+    int len = PageCodec.compress(buf, image);
+    if (len < 0) {
+      image = buf;
+      len = PAGE_SIZE;
+    }
+    int units = (len + UNIT - 1) / UNIT;
+
+    // keep the page's extent, or write a new one before remapping it
+    int old_unit;
+    int old_len;
+    int unit;
+    synchronized (this) {
+      ensure_capacity(pid + 1);
+      old_unit = extent_unit[pid];
+      old_len = extent_len[pid];
+      boolean same = (old_len != 0) && ((old_len + UNIT - 1) / UNIT == units);
+      unit = same ? old_unit : allocate_extent(units);
+    }
+    ByteBuffer bb = ByteBuffer.wrap(image, 0, len);
+    long pos = (long) unit * UNIT;
+    while (bb.hasRemaining()) {
+      data.write(bb, pos + bb.position());
+    }
+    synchronized (this) {
+      extent_unit[pid] = unit;
+      extent_len[pid] = len;
+      stored_bytes += len - old_len;
+      write_map_entry(pid);
+      if ((old_len != 0) && (old_unit != unit)) {
+        free_extents[(old_len + UNIT - 1) / UNIT].add(old_unit);
+      }
+    }
+
+  } // protected void write_raw(int pid, byte[] buf)
+
+  /**
+   * Reads a run of consecutive pages with a single read of their extents
+   * when those are close together, as they are when written in order.
+   */
+  protected void read_run(int pid, int count, byte[] buf) throws IOException {
+
+    // find the span of the run's extents
+    int[] units = new int[count];
+    int[] lens = new int[count];
+    long first = Long.MAX_VALUE;
+    long last = 0;
+    synchronized (this) {
+      for (int i = 0; (i < count) && (pid + i < extent_len.length); i++) {
+        units[i] = extent_unit[pid + i];
+        lens[i] = extent_len[pid + i];
+        if (lens[i] != 0) {
+          first = Math.min(first, (long) units[i] * UNIT);
+          last = Math.max(last, (long) units[i] * UNIT + lens[i]);
+        }
+      }
+    }
+    if (last - first > (long) count * PAGE_SIZE) {
+      super.read_run(pid, count, buf);
+      return;
+    }
+
+    // read it at once, then unpack each page
+    byte[] span = new byte[(int) Math.max(0, last - first)];
+    read_fully(span, 0, span.length, first);
+    byte[] page = new byte[PAGE_SIZE];
+    for (int i = 0; i < count; i++) {
+      int off = (int) ((long) units[i] * UNIT - first);
+      if (lens[i] == 0) {
+        Arrays.fill(page, (byte) 0);
+      } else if (lens[i] == PAGE_SIZE) {
+        System.arraycopy(span, off, page, 0, PAGE_SIZE);
+      } else {
+        PageCodec.decompress(span, off, lens[i], page);
+      }
+      System.arraycopy(page, 0, buf, i * PAGE_SIZE, PAGE_SIZE);
+    }
+
+  } // protected void read_run(int pid, int count, byte[] buf)
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Opens the database and map files, creating them if needed.
+   */
+  protected void open_channels() throws IOException {
+    data = new RandomAccessFile(name, "rw").getChannel();
+    map = new RandomAccessFile(map_name(), "rw").getChannel();
+  }
+
+  /**
+   * Reads the whole indirection map and finds the free extents.
+   */
+  protected synchronized void load_map() throws IOException {
+    int num_pages = (int) (map.size() / MAP_ENTRY);
+    ByteBuffer bytes = ByteBuffer.allocate(num_pages * MAP_ENTRY);
+    while (bytes.hasRemaining()) {
+      if (map.read(bytes, bytes.position()) < 0) {
+        break;
+      }
+    }
+    bytes.flip();
+    extent_unit = new int[num_pages];
+    extent_len = new int[num_pages];
+    stored_bytes = 0;
+    for (int pid = 0; pid < num_pages; pid++) {
+      extent_unit[pid] = bytes.getInt();
+      extent_len[pid] = bytes.getInt();
+      stored_bytes += extent_len[pid];
+    }
+    find_free();
+  }
+
+  /**
+   * Rebuilds the free extent lists from the gaps between mapped extents.
+   */
+  @SuppressWarnings("unchecked")
+  protected void find_free() {
+
+    // sort the extents in use by position (first unit, then size)
+    free_extents = (ArrayDeque<Integer>[]) new ArrayDeque<?>[MAX_UNITS + 1];
+    for (int i = 0; i <= MAX_UNITS; i++) {
+      free_extents[i] = new ArrayDeque<Integer>();
+    }
+    int used = 0;
+    long[] extents = new long[extent_len.length];
+    for (int pid = 0; pid < extent_len.length; pid++) {
+      if (extent_len[pid] != 0) {
+        extents[used++] = ((long) extent_unit[pid] << 32)
+            | ((extent_len[pid] + UNIT - 1) / UNIT);
+      }
+    }
+    Arrays.sort(extents, 0, used);
+
+    // split each gap into free extents of at most MAX_UNITS
+    end_unit = 0;
+    for (int i = 0; i < used; i++) {
+      int unit = (int) (extents[i] >>> 32);
+      free_gap(end_unit, unit);
+      end_unit = Math.max(end_unit, unit + (int) extents[i]);
+    }
+
+  } // protected void find_free()
+
+  /**
+   * Adds the units from start up to (not including) end as free extents.
+   */
+  protected void free_gap(int start, int end) {
+    while (start < end) {
+      int units = Math.min(MAX_UNITS, end - start);
+      free_extents[units].add(start);
+      start += units;
+    }
+  }
+
+  /**
+   * Takes a free extent of the given size, splitting a larger one or
+   * growing the file if needed.
+   */
+  protected int allocate_extent(int units) {
+    for (int size = units; size <= MAX_UNITS; size++) {
+      Integer unit = free_extents[size].poll();
+      if (unit != null) {
+        free_gap(unit + units, unit + size);
+        return unit;
+      }
+    }
+    end_unit += units;
+    return end_unit - units;
+  }
+
+  /**
+   * Grows the in-memory map to hold at least the given number of pages.
+   */
+  protected void ensure_capacity(int num_pages) {
+    if (num_pages > extent_len.length) {
+      int size = Math.max(num_pages, Math.max(num_db_pages, extent_len.length * 2));
+      extent_unit = Arrays.copyOf(extent_unit, size);
+      extent_len = Arrays.copyOf(extent_len, size);
+    }
+  }
+
+  /**
+   * Writes one page's entry of the indirection map.
+   */
+  protected void write_map_entry(int pid) throws IOException {
+    ByteBuffer entry = ByteBuffer.allocate(MAP_ENTRY);
+    entry.putInt(extent_unit[pid]).putInt(extent_len[pid]).flip();
+    while (entry.hasRemaining()) {
+      map.write(entry, (long) pid * MAP_ENTRY + entry.position());
+    }
+  }
+
+  /**
+   * Reads the given number of bytes from the database file; any part past
+   * its end reads as zeros.
+   */
+  protected void read_fully(byte[] buf, int off, int len, long pos)
+      throws IOException {
+    ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+    while (bb.hasRemaining()) {
+      if (data.read(bb, pos + bb.position() - off) < 0) {
+        Arrays.fill(buf, bb.position(), off + len, (byte) 0);
+        break;
+      }
+    }
+  }
+
+} // public class CompressedDiskMgr extends DiskMgr
@@ -0,0 +1,76 @@
+package diskmgr;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk I/O statistics for the whole database or for one I/O tag: 64-bit page
+ * read and write counts plus their latency histograms.
+ */
+public class IOStats {
+
+  /** Number of pages read. */
+  protected final AtomicLong reads = new AtomicLong();
+
+  /** Number of pages written. */
+  protected final AtomicLong writes = new AtomicLong();
+
+  /** Latency of each page read. */
+  protected final LatencyHistogram read_latency = new LatencyHistogram();
+
+  /** Latency of each page write. */
+  protected final LatencyHistogram write_latency = new LatencyHistogram();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Records one page read that took the given time.
+   */
+  public void recordRead(long nanos) {
+    reads.incrementAndGet();
+    read_latency.record(nanos);
+  }
+
+  /**
+   * Records one page write that took the given time.
+   */
+  public void recordWrite(long nanos) {
+    writes.incrementAndGet();
+    write_latency.record(nanos);
+  }
+
+  /**
+   * Gets the number of pages read.
+   */
+  public long getReads() {
+    return reads.get();
+  }
+
+  /**
+   * Gets the number of pages written.
+   */
+  public long getWrites() {
+    return writes.get();
+  }
+
+  /**
+   * Gets the latency histogram of page reads.
+   */
+  public LatencyHistogram getReadLatency() {
+    return read_latency;
+  }
+
+  /**
+   * Gets the latency histogram of page writes.
+   */
+  public LatencyHistogram getWriteLatency() {
+    return write_latency;
+  }
+
+  /**
+   * Returns a two-line summary of the statistics.
+   */
+  public String toString() {
+    return "reads:  " + read_latency + "\nwrites: " + write_latency;
+  }
+
+} // public class IOStats
@@ -3,7 +3,12 @@ package heap;
 import global.PageId;
 
 /**
- * A heap file directory page; contains DirEntry records.
+ * A heap file directory page; contains DirEntry records.  The head page of
+ * a heap file's directory also keeps the file's statistics, before its
+ * footer, marked with STATS_MAGIC; the other pages keep the original
+ * layout.  A head page without the marker (from before the statistics, or
+ * marked 0x5354 from before the record bytes were kept) has them added
+ * when its file is opened, if it has room.
  */
 class DirPage extends HFPage {
 
@@ -27,10 +32,35 @@ class DirPage extends HFPage {
   /** Page offset for the total number of entries. */
   protected static final int ENTRY_COUNT = PAGE_SIZE - 2;
 
+  /** Page offset for the marker of the file statistics (head page only). */
+  protected static final int STATS_MARK = PAGE_SIZE - 4;
+
+  /** Page offset for the number of records in the file (head page only). */
+  protected static final int FILE_REC_CNT = PAGE_SIZE - 8;
+
+  /** Page offset for the number of data pages in the file (head page only). */
+  protected static final int FILE_PAGE_CNT = PAGE_SIZE - 12;
+
+  /** Page offset for the free space on all data pages (head page only). */
+  protected static final int FILE_FREE_CNT = PAGE_SIZE - 16;
+
+  /** Page offset for the total length of the file's records (head page only). */
+  protected static final int FILE_REC_BYTES = PAGE_SIZE - 20;
+
+  /** The size of the footer and statistics of a head page (in bytes). */
+  protected static final int HEAD_FOOTER_SIZE = 20;
+
+  /** Marker value of a head page that keeps the file statistics. */
+  protected static final short STATS_MAGIC = 0x5342;
+
   /** Maximum number of entries in a directory page. */
   protected static final int MAX_ENTRIES = (PAGE_SIZE - HEADER_SIZE - FOOTER_SIZE)
       / ENTRY_SIZE;
 
+  /** Maximum number of entries in a head page with the file statistics. */
+  protected static final int HEAD_MAX_ENTRIES = (PAGE_SIZE - HEADER_SIZE
+      - HEAD_FOOTER_SIZE) / ENTRY_SIZE;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -56,6 +86,82 @@ class DirPage extends HFPage {
     setShortValue(entryCnt, ENTRY_COUNT);
   }
 
+  /**
+   * Gets the maximum number of entries on this page, which is less on a
+   * head page that keeps the file statistics.
+   */
+  public int getMaxEntries() {
+    return hasFileStats() ? HEAD_MAX_ENTRIES : MAX_ENTRIES;
+  }
+
+  /**
+   * Tells whether this page keeps the file statistics.  Only head pages
+   * created or opened since the statistics were added do, and only if they
+   * had room for them.
+   */
+  public boolean hasFileStats() {
+    return getShortValue(STATS_MARK) == STATS_MAGIC;
+  }
+
+  /**
+   * Starts keeping the file statistics on this page, with the given values.
+   * 
+   * @throws IllegalStateException if the page has too many entries
+   */
+  public void initFileStats(int recCnt, int pageCnt, int freeCnt,
+      int recBytes) {
+    if (getEntryCnt() > HEAD_MAX_ENTRIES) {
+      throw new IllegalStateException("no room for the file statistics");
+    }
+    setIntValue(recCnt, FILE_REC_CNT);
+    setIntValue(pageCnt, FILE_PAGE_CNT);
+    setIntValue(freeCnt, FILE_FREE_CNT);
+    setIntValue(recBytes, FILE_REC_BYTES);
+    setShortValue(STATS_MAGIC, STATS_MARK);
+  }
+
+  /**
+   * Gets the number of records in the file.
+   */
+  public int getFileRecCnt() {
+    return getIntValue(FILE_REC_CNT);
+  }
+
+  /**
+   * Gets the number of data pages in the file.
+   */
+  public int getFilePageCnt() {
+    return getIntValue(FILE_PAGE_CNT);
+  }
+
+  /**
+   * Gets the free space on all the file's data pages (in bytes).
+   */
+  public int getFileFreeCnt() {
+    return getIntValue(FILE_FREE_CNT);
+  }
+
+  /**
+   * Gets the total length of the records in the file (in bytes).
+   */
+  public int getFileRecBytes() {
+    return getIntValue(FILE_REC_BYTES);
+  }
+
+  /**
+   * Adds the given changes to the file's statistics, if the page keeps them.
+   */
+  public void addFileStats(int deltaRec, int deltaPages, int deltaFree,
+      int deltaBytes) {
+    if (!hasFileStats()) {
+      return;
+    }
+    setIntValue(getFileRecCnt() + deltaRec, FILE_REC_CNT);
+    setIntValue(getFilePageCnt() + deltaPages, FILE_PAGE_CNT);
+    setIntValue(getFileFreeCnt() + deltaFree, FILE_FREE_CNT);
+    setIntValue(getFileRecBytes() + deltaBytes, FILE_REC_BYTES);
+  }
+
   /**
    * Gets the PageId at the given index.
    */
@@ -107,7 +213,8 @@ class DirPage extends HFPage {
 
     // shift all bytes to the left
     int entryPos = HEADER_SIZE + slotno * ENTRY_SIZE;
-    int succLen = PAGE_SIZE - FOOTER_SIZE - entryPos - ENTRY_SIZE;
+    int succLen = HEADER_SIZE + getMaxEntries() * ENTRY_SIZE - entryPos
+        - ENTRY_SIZE;
     System.arraycopy(data, entryPos + ENTRY_SIZE, data, entryPos, succLen);
 
   } // public void compact(int slotno)
@@ -0,0 +1,147 @@
+package heap;
+
+import global.AttrOperator;
+import global.AttrType;
+import global.Convert;
+
+/**
+ * Record predicate comparing one field of the record, at a fixed offset,
+ * with a constant.  Integer and float fields are four bytes, as written by
+ * Convert; string fields have a fixed length, and are compared byte by byte
+ * after trimming blanks and zeros at both ends, as Convert reads them.
+ * Records too short to hold the field do not match.
+ */
+public class FieldPredicate implements RecordPredicate {
+
+  /** Offset of the field in the record. */
+  protected final int fldOffset;
+
+  /** Length of the field. */
+  protected final int fldLength;
+
+  /** AttrType of the field. */
+  protected final int type;
+
+  /** AttrOperator of the comparison. */
+  protected final int operator;
+
+  /** Constant of an integer field. */
+  protected int intValue;
+
+  /** Constant of a float field. */
+  protected float floatValue;
+
+  /** Trimmed bytes of the constant of a string field. */
+  protected byte[] strValue;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs the predicate "field operator value".
+   * 
+   * @param offset offset of the field in the record
+   * @param length length of a string field; ignored for other types
+   * @param type AttrType of the field: INTEGER, FLOAT or STRING
+   * @param operator AttrOperator of the comparison
+   * @param value constant of the field's type (Integer, Float or String)
+   * @throws IllegalArgumentException if any argument is invalid
+   */
+  public FieldPredicate(int offset, int length, int type, int operator,
+      Object value) {
+    if ((operator < AttrOperator.EQ) || (operator > AttrOperator.LTE)) {
+      throw new IllegalArgumentException("Invalid operator: " + operator);
+    }
+    if ((value == null) || (AttrType.getType(value) != type)) {
+      throw new IllegalArgumentException("Invalid value for type " + type
+          + ": " + value);
+    }
+    switch (type) {
+      case AttrType.INTEGER:
+        intValue = (Integer) value;
+        length = 4;
+        break;
+      case AttrType.FLOAT:
+        floatValue = (Float) value;
+        length = 4;
+        break;
+      default:
+        strValue = ((String) value).trim().getBytes();
+        break;
+    }
+    if ((offset < 0) || (length <= 0)) {
+      throw new IllegalArgumentException("Invalid field: offset " + offset
+          + ", length " + length);
+    }
+    fldOffset = offset;
+    fldLength = length;
+    this.type = type;
+    this.operator = operator;
+  }
+
+  /**
+   * Compares the record's field with the constant.
+   */
+  public boolean test(byte[] data, int offset, int length) {
+    if (length < fldOffset + fldLength) {
+      return false;
+    }
+    int pos = offset + fldOffset;
+    int cmp;
+    switch (type) {
+      case AttrType.INTEGER:
+        cmp = Integer.compare(Convert.getIntValue(pos, data), intValue);
+        break;
+      case AttrType.FLOAT:
+        cmp = Float.compare(Convert.getFloatValue(pos, data), floatValue);
+        break;
+      default:
+        cmp = compareString(data, pos, pos + fldLength);
+        break;
+    }
+    switch (operator) {
+      case AttrOperator.EQ:
+        return cmp == 0;
+      case AttrOperator.NEQ:
+        return cmp != 0;
+      case AttrOperator.GT:
+        return cmp > 0;
+      case AttrOperator.GTE:
+        return cmp >= 0;
+      case AttrOperator.LT:
+        return cmp < 0;
+      default:
+        return cmp <= 0;
+    }
+  }
+
+  /**
+   * Compares the trimmed string field from start to end with the constant.
+   */
+  protected int compareString(byte[] data, int start, int end) {
+    while ((start < end) && ((data[start] & 0xFF) <= ' ')) {
+      start++;
+    }
+    while ((end > start) && ((data[end - 1] & 0xFF) <= ' ')) {
+      end--;
+    }
+    int len = Math.min(end - start, strValue.length);
+    for (int i = 0; i < len; i++) {
+      int diff = (data[start + i] & 0xFF) - (strValue[i] & 0xFF);
+      if (diff != 0) {
+        return diff;
+      }
+    }
+    return (end - start) - strValue.length;
+  }
+
+  /**
+   * Returns a string representation of the predicate.
+   */
+  public String toString() {
+    Object value = (type == AttrType.INTEGER) ? (Object) intValue
+        : (type == AttrType.FLOAT) ? (Object) floatValue : new String(strValue);
+    return "field@" + fldOffset + " " + AttrOperator.toString(operator) + " "
+        + value;
+  }
+
+} // public class FieldPredicate implements RecordPredicate
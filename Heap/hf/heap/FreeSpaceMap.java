@@ -0,0 +1,206 @@
+package heap;
+
+import diskmgr.DiskMgr;
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.WeakHashMap;
+
+/**
+ * In-memory free-space map of a heap file: its data pages grouped into
+ * classes by how much free space they have, so finding a page for a record
+ * takes constant time instead of a walk of the directory.  It also records
+ * where in the directory each data page's entry is, so updating that entry
+ * takes one directory page.  The map is built from the directory when first
+ * needed and then kept in step with it by the heap file's directory updates.
+ * It is shared by every HeapFile object for the same file in the same
+ * database.  Rolling back, recovering or restoring the database changes
+ * directories behind the maps, and reloads the file library; the maps are
+ * dropped when that happens (see DiskMgr.getLibraryVersion).
+ */
+class FreeSpaceMap implements GlobalConst {
+
+  /** Bytes of free space covered by each class. */
+  protected static final int CLASS_SIZE = 64;
+
+  /** Number of classes; the last holds pages with the most free space. */
+  protected static final int NUM_CLASSES = PAGE_SIZE / CLASS_SIZE + 1;
+
+  /** Most pages of the exact-fit class checked before giving up. */
+  protected static final int MAX_PROBES = 8;
+
+  /** Maps of the open database's heap files, by directory head page id. */
+  protected static final WeakHashMap<DiskMgr, HashMap<Integer, FreeSpaceMap>>
+      maps = new WeakHashMap<DiskMgr, HashMap<Integer, FreeSpaceMap>>();
+
+  /** Library version of each database when its maps were built. */
+  protected static final WeakHashMap<DiskMgr, Integer> versions =
+      new WeakHashMap<DiskMgr, Integer>();
+
+  /** Free space of each data page, by page id. */
+  protected final HashMap<Integer, Integer> free = new HashMap<Integer, Integer>();
+
+  /** Data pages in each class. */
+  protected final LinkedHashSet<Integer>[] classes;
+
+  /** Directory page id (high half) and slot of each data page's entry. */
+  protected final HashMap<Integer, Long> entries = new HashMap<Integer, Long>();
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty map.
+   */
+  @SuppressWarnings("unchecked")
+  protected FreeSpaceMap() {
+    classes = (LinkedHashSet<Integer>[]) new LinkedHashSet<?>[NUM_CLASSES];
+    for (int i = 0; i < NUM_CLASSES; i++) {
+      classes[i] = new LinkedHashSet<Integer>();
+    }
+  }
+
+  /**
+   * Gets the map of the heap file with the given directory, building it
+   * from the directory on first use or after the library was reloaded.
+   */
+  static synchronized FreeSpaceMap get(PageId headId) {
+    HashMap<Integer, FreeSpaceMap> files = maps.get(Minibase.DiskManager);
+    int version = Minibase.DiskManager.getLibraryVersion();
+    if ((files == null)
+        || (versions.get(Minibase.DiskManager) != version)) {
+      files = new HashMap<Integer, FreeSpaceMap>();
+      maps.put(Minibase.DiskManager, files);
+      versions.put(Minibase.DiskManager, version);
+    }
+    FreeSpaceMap fsm = files.get(headId.pid);
+    if (fsm == null) {
+      fsm = new FreeSpaceMap();
+      fsm.load(headId);
+      files.put(headId.pid, fsm);
+    }
+    return fsm;
+  }
+
+  /**
+   * Forgets the map of a deleted heap file.
+   */
+  static synchronized void drop(PageId headId) {
+    HashMap<Integer, FreeSpaceMap> files = maps.get(Minibase.DiskManager);
+    if (files != null) {
+      files.remove(headId.pid);
+    }
+  }
+
+  /**
+   * Finds a data page with at least the given free space.  Pages in a class
+   * above that of the size fit for certain, so the smallest such class is
+   * used; only if those are empty are a few pages of the size's own class
+   * checked.
+   *
+   * @return the page id, or INVALID_PAGEID if none was found
+   */
+  int find(int size) {
+    int first = Math.min(size / CLASS_SIZE, NUM_CLASSES - 1);
+    for (int i = first + 1; i < NUM_CLASSES; i++) {
+      if (!classes[i].isEmpty()) {
+        return classes[i].iterator().next();
+      }
+    }
+    Iterator<Integer> it = classes[first].iterator();
+    for (int probes = 0; it.hasNext() && (probes < MAX_PROBES); probes++) {
+      int pid = it.next();
+      if (free.get(pid) >= size) {
+        return pid;
+      }
+    }
+    return INVALID_PAGEID;
+  }
+
+  /**
+   * Records the free space of a data page, new or not.
+   */
+  void update(int pid, int freecnt) {
+    Integer old = free.put(pid, freecnt);
+    if (old != null) {
+      classes[class_of(old)].remove(pid);
+    }
+    classes[class_of(freecnt)].add(pid);
+  }
+
+  /**
+   * Gets the free space of a data page.
+   *
+   * @return the free space, or -1 if the page is not in the file
+   */
+  int getFree(int pid) {
+    Integer freecnt = free.get(pid);
+    return (freecnt == null) ? -1 : freecnt;
+  }
+
+  /**
+   * Forgets a data page removed from the file.
+   */
+  void remove(int pid) {
+    Integer old = free.remove(pid);
+    if (old != null) {
+      classes[class_of(old)].remove(pid);
+    }
+    entries.remove(pid);
+  }
+
+  /**
+   * Records where a data page's directory entry is, new or moved.
+   */
+  void setEntry(int pid, int dirpid, int slot) {
+    entries.put(pid, ((long) dirpid << 32) | slot);
+  }
+
+  /**
+   * Gets the id of the directory page holding a data page's entry.
+   *
+   * @return the page id, or INVALID_PAGEID if the page is not in the file
+   */
+  int getDirPage(int pid) {
+    Long entry = entries.get(pid);
+    return (entry == null) ? INVALID_PAGEID : (int) (entry >>> 32);
+  }
+
+  /**
+   * Gets the slot of a data page's entry on its directory page.
+   */
+  int getSlot(int pid) {
+    return entries.get(pid).intValue();
+  }
+
+  /**
+   * Gets the class of the given amount of free space.
+   */
+  protected static int class_of(int freecnt) {
+    return Math.min(freecnt / CLASS_SIZE, NUM_CLASSES - 1);
+  }
+
+  /**
+   * Fills the map with one walk of the directory.
+   */
+  protected void load(PageId headId) {
+    DirPage dirPage = new DirPage();
+    PageId dirId = new PageId();
+    dirId.copyPageId(headId);
+    while (dirId.pid != INVALID_PAGEID) {
+      Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+      for (int i = 0; i < dirPage.getEntryCnt(); i++) {
+        int pid = dirPage.getPageId(i).pid;
+        update(pid, dirPage.getFreeCnt(i));
+        setEntry(pid, dirId.pid, i);
+      }
+      PageId next = dirPage.getNextPage();
+      Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+      dirId.copyPageId(next);
+    }
+  }
+
+} // class FreeSpaceMap implements GlobalConst
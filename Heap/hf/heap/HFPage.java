@@ -4,16 +4,31 @@ import global.Page;
 import global.PageId;
 import global.RID;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * Heap file data pages are implemented as slotted pages, with the slots at the
  * front and the records in the back, both growing into the free space in the
- * middle of the page. This design assumes that records are kept compacted when
- * deletions are performed. Each slot contains the length and offset of its
- * corresponding record.
+ * middle of the page. Each slot contains the length and offset of its
+ * corresponding record.  Deleting a record only leaves a hole; the records
+ * are compacted when an insert needs more contiguous space than there is,
+ * so the free space counts the holes too.  Empty slots are chained through
+ * their offsets, from the header, for reuse (see SLOT_CNT).
+ * <br><br>
+ * A record that grows too large for its page moves to another page, and its
+ * slot becomes a forwarding stub holding the RID where it went, so its own
+ * RID stays the same.  The moved copy is stored after its home RID.  Flags
+ * in the high bits of the slot length tell these apart from plain records.
  */
 class HFPage extends Page {
 
-  /** Offset of the number of slots. */
+  /**
+   * Offset of the number of slots, in the low byte (a page has room for no
+   * more than (PAGE_SIZE - HEADER_SIZE) / SLOT_SIZE).  The high byte holds
+   * the first empty slot plus one, or 0 if none, so pages written before
+   * empty slots were chained read as having none; compact links them.
+   */
   protected static final int SLOT_CNT = 0;
 
   /** Offset of the used space offset. */
@@ -42,6 +57,18 @@ class HFPage extends Page {
   /** Size of a record slot. */
   protected static final int SLOT_SIZE = 4;
 
+  /** Size of a RID stored on the page. */
+  protected static final int RID_SIZE = 8;
+
+  /** Slot length flag of a forwarding stub, holding the record's new RID. */
+  protected static final short FORWARDED = 0x4000;
+
+  /** Slot length flag of a moved record, stored after its home RID. */
+  protected static final short MOVED = 0x2000;
+
+  /** Bits of the slot length giving the stored length. */
+  protected static final short LENGTH_MASK = 0x0FFF;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -76,7 +103,7 @@ class HFPage extends Page {
     // optional type field may be used by sub classes
     setShortValue((short) 0, PAGE_TYPE);
 
-    // set all page ids to invalid
+    // set all page ids to invalid (which leaves no empty slots)
     setIntValue(INVALID_PAGEID, PREV_PAGE);
     setIntValue(INVALID_PAGEID, NEXT_PAGE);
     setIntValue(INVALID_PAGEID, CUR_PAGE);
@@ -87,7 +114,29 @@ class HFPage extends Page {
    * Gets the number of slots on the page.
    */
   public short getSlotCount() {
-    return getShortValue(SLOT_CNT);
+    return (short) (getShortValue(SLOT_CNT) & 0xFF);
+  }
+
+  /**
+   * Sets the number of slots on the page, keeping the empty slot chain.
+   */
+  protected void setSlotCount(int count) {
+    setShortValue((short) ((getShortValue(SLOT_CNT) & 0xFF00) | count),
+        SLOT_CNT);
+  }
+
+  /**
+   * Gets the first empty slot in the chain, or EMPTY_SLOT if none.
+   */
+  protected int getFreeSlot() {
+    return ((getShortValue(SLOT_CNT) >> 8) & 0xFF) - 1;
+  }
+
+  /**
+   * Sets the first empty slot in the chain (EMPTY_SLOT for none).
+   */
+  protected void setFreeSlot(int slotno) {
+    setShortValue((short) (((slotno + 1) << 8) | getSlotCount()), SLOT_CNT);
   }
 
   /**
@@ -173,55 +222,86 @@ class HFPage extends Page {
    * @return RID of new record, or null if insufficient space
    */
   public RID insertRecord(byte[] record) {
+    int slotno = allocate(record.length, (short) 0);
+    if (slotno < 0)
+      return null;
+    System.arraycopy(record, 0, data, getSlotOffset(slotno), record.length);
+    return new RID(new PageId(getIntValue(CUR_PAGE)), slotno);
+  }
 
-    // first check for sufficient space
-    short recLength = (short) record.length;
-    int spaceNeeded = recLength + SLOT_SIZE;
-    short freeSpace = getShortValue(FREE_SPACE);
-    if (spaceNeeded > freeSpace)
+  /**
+   * Inserts a record moved here from its home RID, which is stored with it.
+   * 
+   * @return RID of the moved record, or null if insufficient space
+   */
+  public RID insertMovedRecord(RID home, byte[] record) {
+    int slotno = allocate(record.length + RID_SIZE, MOVED);
+    if (slotno < 0)
       return null;
+    short offset = getSlotOffset(slotno);
+    home.writeData(data, offset);
+    System.arraycopy(record, 0, data, offset + RID_SIZE, record.length);
+    return new RID(new PageId(getIntValue(CUR_PAGE)), slotno);
+  }
 
-    // linear search for an empty slot
-    short slotCnt = getShortValue(SLOT_CNT);
-    short i, length;
-    for (i = 0; i < slotCnt; i++) {
-      length = getSlotLength(i);
-      if (length == EMPTY_SLOT)
-        break;
+  /**
+   * Finds a slot and space for a record of the given stored length and
+   * flags; the caller writes the record at the slot's offset.
+   * 
+   * @return the slot number, or -1 if insufficient space
+   */
+  protected int allocate(int storedLength, short flags) {
+
+    // first check for sufficient space, taking the first empty slot if any
+    short recLength = (short) storedLength;
+    short slotCnt = getSlotCount();
+    int i = getFreeSlot();
+    boolean newSlot = (i == EMPTY_SLOT);
+    int spaceNeeded = newSlot ? recLength + SLOT_SIZE : recLength;
+    short freeSpace = getShortValue(FREE_SPACE);
+    if (spaceNeeded > freeSpace)
+      return -1;
+
+    // compact the records if the holes between them are needed (which
+    // rechains the empty slots, maybe finding some that were not chained)
+    int slotsEnd = HEADER_SIZE + (newSlot ? slotCnt + 1 : slotCnt) * SLOT_SIZE;
+    if (getShortValue(USED_PTR) - slotsEnd < recLength) {
+      compact();
+      i = getFreeSlot();
+      newSlot = (i == EMPTY_SLOT);
+      spaceNeeded = newSlot ? recLength + SLOT_SIZE : recLength;
     }
 
     // if using a new slot
-    if (i == slotCnt) {
-
-      // adjust the free space
-      freeSpace -= spaceNeeded;
-      setShortValue(freeSpace, FREE_SPACE);
+    if (newSlot) {
 
       // adjust the slot count
-      slotCnt++;
-      setShortValue(slotCnt, SLOT_CNT);
+      i = slotCnt++;
+      setSlotCount(slotCnt);
 
     } else {
 
-      // otherwise, reusing an existing slot
-      freeSpace -= recLength;
-      setShortValue(freeSpace, FREE_SPACE);
+      // otherwise, unchain the empty slot
+      setFreeSlot(getSlotOffset(i));
 
     } // else
 
+    // adjust the free space
+    freeSpace -= spaceNeeded;
+    setShortValue(freeSpace, FREE_SPACE);
+
     // update the used space offset
     short usedPtr = getShortValue(USED_PTR);
     usedPtr -= recLength;
     setShortValue(usedPtr, USED_PTR);
 
-    // update the slot, copy the record, and return the RID
+    // update the slot and return its number
     int slotpos = HEADER_SIZE + i * SLOT_SIZE;
-    setShortValue(recLength, slotpos);
+    setShortValue((short) (recLength | flags), slotpos);
     setShortValue(usedPtr, slotpos + 2);
-    System.arraycopy(record, 0, data, usedPtr, recLength);
-    return new RID(new PageId(getIntValue(CUR_PAGE)), i);
+    return i;
 
-  } // public RID insertRecord(byte[] record)
+  } // protected int allocate(int storedLength, short flags)
 
   /**
    * Selects a record from the page.
@@ -232,7 +312,7 @@ class HFPage extends Page {
 
     // get and validate the record information
     short length = checkRID(rid);
-    short offset = getSlotOffset(rid.slotno);
+    int offset = getRecordOffset(rid.slotno);
 
     // finally, get and return the record
     byte[] record = new byte[length];
@@ -242,83 +322,176 @@ class HFPage extends Page {
   } // public byte[] selectRecord(RID rid)
 
   /**
-   * Updates a record on the page.  Must update with a record of the same length.
+   * Updates a record on the page, growing or shrinking it in place if its
+   * length changes.  A moved record keeps its home RID.
    * 
-   * @throws IllegalArgumentException if the rid is invalid or input record's 
-   * length is different.
+   * @return false if the page has no room for the longer record; the page
+   * is then unchanged
+   * @throws IllegalArgumentException if the rid is invalid or forwarded
    */
-  public void updateRecord(RID rid, byte[] record) {
+  public boolean updateRecord(RID rid, byte[] record) {
 
     // get and validate the record information
     short length = checkRID(rid);
-    if (record.length != length)
-      throw new IllegalArgumentException("Invalid record size");
+    if (record.length != length) {
+      RID home = getHomeRID(rid);
+      if (home == null) {
+        if (!resize(rid.slotno, record.length, (short) 0))
+          return false;
+      } else {
+        if (!resize(rid.slotno, record.length + RID_SIZE, MOVED))
+          return false;
+        home.writeData(data, getSlotOffset(rid.slotno));
+      }
+    }
 
     // finally, update the record in place
-    short offset = getSlotOffset(rid.slotno);
-    System.arraycopy(record, 0, data, offset, length);
+    System.arraycopy(record, 0, data, getRecordOffset(rid.slotno),
+        record.length);
+    return true;
 
-  } // public void updateRecord(RID rid, byte[] record)
+  } // public boolean updateRecord(RID rid, byte[] record)
 
   /**
-   * Deletes a record from the page, compacting the records space. RIDs of
-   * other records must not change.
+   * Gets the RID a forwarding stub points to.
    * 
+   * @return the record's new RID, or null if the slot holds the record
    * @throws IllegalArgumentException if the rid is invalid
    */
-  public void deleteRecord(RID rid) {
+  public RID getForward(RID rid) {
+    short length = checkSlot(rid);
+    if ((length & FORWARDED) == 0)
+      return null;
+    return new RID(data, getSlotOffset(rid.slotno));
+  }
 
-    // get and validate the record information
-    short length = checkRID(rid);
-    short offset = getSlotOffset(rid.slotno);
+  /**
+   * Turns a record at home into a forwarding stub, or points an existing
+   * stub somewhere else.
+   * 
+   * @return false if the page has no room for the stub (which is larger
+   * than records shorter than a RID); the page is then unchanged
+   * @throws IllegalArgumentException if the rid is invalid or a moved record
+   */
+  public boolean setForward(RID rid, RID target) {
+    if ((checkSlot(rid) & MOVED) != 0)
+      throw new IllegalArgumentException("Moved record");
+    if (!resize(rid.slotno, RID_SIZE, FORWARDED))
+      return false;
+    target.writeData(data, getSlotOffset(rid.slotno));
+    return true;
+  }
 
-    // calculate the compacting values
-    short usedPtr = getShortValue(USED_PTR);
-    short newSpot = (short) (usedPtr + length);
-    short size = (short) (offset - usedPtr);
+  /**
+   * Replaces a forwarding stub with the record itself.
+   * 
+   * @return false if the page has no room for the record; the page is then
+   * unchanged
+   * @throws IllegalArgumentException if the rid is invalid or not forwarded
+   */
+  public boolean restoreRecord(RID rid, byte[] record) {
+    if ((checkSlot(rid) & FORWARDED) == 0)
+      throw new IllegalArgumentException("Not forwarded");
+    if (!resize(rid.slotno, record.length, (short) 0))
+      return false;
+    System.arraycopy(record, 0, data, getSlotOffset(rid.slotno), record.length);
+    return true;
+  }
 
-    // shift all bytes to the right
-    System.arraycopy(data, usedPtr, data, newSpot, size);
+  /**
+   * Gets the home RID of a moved record.
+   * 
+   * @return the RID it is known by, or null if the record is at home
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public RID getHomeRID(RID rid) {
+    short length = checkSlot(rid);
+    if ((length & MOVED) == 0)
+      return null;
+    return new RID(data, getSlotOffset(rid.slotno));
+  }
 
-    // adjust offsets of all valid slots that refer
-    // to the left of the record being removed
-    short slotCnt = getShortValue(SLOT_CNT);
-    for (int i = 0, n = HEADER_SIZE; i < slotCnt; i++, n += SLOT_SIZE) {
-      if (getSlotLength(i) != EMPTY_SLOT) {
-        short chkoffset = getSlotOffset(i);
-        if (chkoffset < offset) {
-          chkoffset += length;
-          setShortValue(chkoffset, n + 2);
-        }
-      }
+  /**
+   * Makes a moved record a plain one, known by its RID on this page, by
+   * dropping its home RID.
+   * 
+   * @throws IllegalArgumentException if the rid is invalid or not moved
+   */
+  public void clearMoved(RID rid) {
+    if ((checkSlot(rid) & MOVED) == 0)
+      throw new IllegalArgumentException("Not moved");
+    byte[] record = selectRecord(rid);
+    resize(rid.slotno, record.length, (short) 0);
+    System.arraycopy(record, 0, data, getSlotOffset(rid.slotno), record.length);
+  }
+
+  /**
+   * Tells whether the page has no records and no forwarding stubs.
+   */
+  public boolean isEmpty() {
+    short slotCnt = getSlotCount();
+    for (int i = 0; i < slotCnt; i++) {
+      if (getSlotLength(i) != EMPTY_SLOT)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Gets the total length of the records on the page (in bytes), not
+   * counting forwarding stubs or the home RIDs of moved records.
+   */
+  public int getRecordBytes() {
+    int bytes = 0;
+    short slotCnt = getSlotCount();
+    for (int i = 0; i < slotCnt; i++) {
+      short length = getSlotLength(i);
+      if (isRecord(length))
+        bytes += (length & LENGTH_MASK) - (((length & MOVED) != 0) ? RID_SIZE : 0);
     }
+    return bytes;
+  }
 
-    // move the used space offset forward
-    setShortValue(newSpot, USED_PTR);
+  /**
+   * Deletes a record from the page, leaving a hole in the records space
+   * and chaining its slot for reuse. RIDs of other records must not change.
+   * 
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public void deleteRecord(RID rid) {
+
+    // get and validate the record information
+    short length = (short) (checkSlot(rid) & LENGTH_MASK);
+    short offset = getSlotOffset(rid.slotno);
 
-    // increase freespace by size of hole
+    // the hole joins the free space, at once if it is next to it
+    short usedPtr = getShortValue(USED_PTR);
+    if (offset == usedPtr) {
+      setShortValue((short) (usedPtr + length), USED_PTR);
+    }
     short freeSpace = getShortValue(FREE_SPACE);
     freeSpace += length;
     setShortValue(freeSpace, FREE_SPACE);
 
-    // mark the slot as empty
+    // mark the slot as empty and chain it
     int slotpos = HEADER_SIZE + rid.slotno * SLOT_SIZE;
     setShortValue((short) EMPTY_SLOT, slotpos);
-    setShortValue((short) 0, slotpos + 2);
+    setShortValue((short) getFreeSlot(), slotpos + 2);
+    setFreeSlot(rid.slotno);
 
   } // public void deleteRecord(RID rid)
 
   /**
    * Gets the RID of the first record on the page, or null if none.
+   * Forwarding stubs are skipped; their records are on other pages.
    */
   public RID firstRecord() {
 
     // find the first non-empty slot
-    short slotCnt = getShortValue(SLOT_CNT);
+    short slotCnt = getSlotCount();
     int i = 0;
     for (; i < slotCnt; i++) {
-      short length = getSlotLength(i);
-      if (length != EMPTY_SLOT)
+      if (isRecord(getSlotLength(i)))
         break;
     }
 
@@ -333,6 +506,7 @@ class HFPage extends Page {
 
   /**
    * Gets the next nonempty RID after the given one, or null if no more.
+   * Forwarding stubs are skipped.
    * 
    * @throws IllegalArgumentException if curRid is invalid
    */
@@ -340,7 +514,7 @@ class HFPage extends Page {
 
     // validate the record id
 	int curPid = getIntValue(CUR_PAGE);
-    short slotCnt = getShortValue(SLOT_CNT);
+    short slotCnt = getSlotCount();
     if ((curRid.pageno.pid != curPid) || (curRid.slotno < 0)
         || (curRid.slotno > slotCnt))
       throw new IllegalArgumentException("Invalid RID");
@@ -348,8 +522,7 @@ class HFPage extends Page {
     // find the next non-empty slot
     int i = curRid.slotno + 1;
     for (; i < slotCnt; i++) {
-      short length = getSlotLength(i);
-      if (length != EMPTY_SLOT)
+      if (isRecord(getSlotLength(i)))
         break;
     }
 
@@ -367,7 +540,7 @@ class HFPage extends Page {
    */
   public void print() {
 
-    short slotCnt = getShortValue(SLOT_CNT);
+    short slotCnt = getSlotCount();
 
     System.out.println("HFPage:");
     System.out.println("-------");
@@ -388,26 +561,272 @@ class HFPage extends Page {
   } // public void print()
 
   /**
-   * Validates a record id exists on this page.
+   * Passes the records on the page, from the given slot on, to the visitor
+   * without copying them: each is a read-only view of the page itself.  The
+   * view and the RID are made once per call and reused for every record,
+   * which is given by its home RID if it was moved here.
    * 
-   * @return the record length (if valid)
+   * @param filter if not null, only the records it matches are visited
+   * @return false if the visitor stopped the scan
+   */
+  public boolean forEachRecord(int first, RecordVisitor visitor,
+      RecordPredicate filter) {
+    ByteBuffer view = ByteBuffer.wrap(data).asReadOnlyBuffer();
+    int pid = getIntValue(CUR_PAGE);
+    RID rid = new RID();
+    short slotCnt = getSlotCount();
+    for (int i = first; i < slotCnt; i++) {
+      short length = getSlotLength(i);
+      if (!isRecord(length))
+        continue;
+      int offset = getSlotOffset(i);
+      rid.pageno.pid = pid;
+      rid.slotno = i;
+      if ((length & MOVED) != 0) {
+        rid.pageno.pid = getIntValue(offset);
+        rid.slotno = getIntValue(offset + 4);
+        offset += RID_SIZE;
+      }
+      length = (short) ((length & LENGTH_MASK) - (offset - getSlotOffset(i)));
+      if ((filter != null) && !filter.test(data, offset, length))
+        continue;
+      view.limit(offset + length).position(offset);
+      if (!visitor.visit(rid, view))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Copies the page into the batch, with the records from the given slot on;
+   * moved records are given by their home RIDs.
+   * 
+   * @param filter if not null, only the records it matches are added
+   * @return the number of records added
+   */
+  public int copyRecords(int first, RecordBatch batch, RecordPredicate filter) {
+    int base = batch.addPage(data);
+    int pid = getIntValue(CUR_PAGE);
+    short slotCnt = getSlotCount();
+    int added = 0;
+    for (int i = first; i < slotCnt; i++) {
+      short length = getSlotLength(i);
+      if (!isRecord(length))
+        continue;
+      int offset = getRecordOffset(i);
+      int reclen = (length & LENGTH_MASK) - (offset - getSlotOffset(i));
+      if ((filter == null) || filter.test(data, offset, reclen)) {
+        if ((length & MOVED) != 0) {
+          batch.add(base + offset, reclen, getIntValue(offset - RID_SIZE),
+              getIntValue(offset - 4));
+        } else {
+          batch.add(base + offset, reclen, pid, i);
+        }
+        added++;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Gets a read-only view of a record in place, from the view's position
+   * to its limit, reusing the given view of this page if not null.
+   * 
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public ByteBuffer recordView(RID rid, ByteBuffer view) {
+    short length = checkRID(rid);
+    int offset = getRecordOffset(rid.slotno);
+    if (view == null)
+      view = ByteBuffer.wrap(data).asReadOnlyBuffer();
+    view.limit(offset + length).position(offset);
+    return view;
+  }
+
+  /**
+   * Tests a record in place against the predicate.
+   * 
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public boolean matches(RID rid, RecordPredicate filter) {
+    short length = checkRID(rid);
+    return filter.test(data, getRecordOffset(rid.slotno), length);
+  }
+
+  /**
+   * Tells whether a slot length is that of a record (moved or not), rather
+   * than an empty slot or a forwarding stub.
+   */
+  protected static boolean isRecord(short length) {
+    return (length != EMPTY_SLOT) && ((length & FORWARDED) == 0);
+  }
+
+  /**
+   * Gets the offset of the record in the given slot, past its home RID if
+   * it was moved.
+   */
+  protected int getRecordOffset(int slotno) {
+    int offset = getSlotOffset(slotno);
+    return ((getSlotLength(slotno) & MOVED) != 0) ? offset + RID_SIZE : offset;
+  }
+
+  /**
+   * Grows or shrinks the space of a slot to the given stored length and
+   * sets its flags.  A shrinking record stays where it is, leaving a hole;
+   * a growing one moves to the free space, compacting the records first if
+   * it needs the holes.  The slot's contents are left for the caller to
+   * write.
+   * 
+   * @return false if the page has no room for the growth
+   */
+  protected boolean resize(int slotno, int storedLength, short flags) {
+
+    // check for sufficient space
+    int delta = storedLength - (getSlotLength(slotno) & LENGTH_MASK);
+    short freeSpace = getShortValue(FREE_SPACE);
+    if (delta > freeSpace)
+      return false;
+    int slotpos = HEADER_SIZE + slotno * SLOT_SIZE;
+    if (delta > 0) {
+
+      // move to the free space, if it is large enough
+      short usedPtr = getShortValue(USED_PTR);
+      int slotsEnd = HEADER_SIZE + getSlotCount() * SLOT_SIZE;
+      if (usedPtr - slotsEnd >= storedLength) {
+        usedPtr -= storedLength;
+        setShortValue(usedPtr, USED_PTR);
+        setShortValue(usedPtr, slotpos + 2);
+      } else {
+
+        // otherwise grow in place, shifting the records before it
+        compact();
+        short offset = getSlotOffset(slotno);
+        usedPtr = getShortValue(USED_PTR);
+        System.arraycopy(data, usedPtr, data, usedPtr - delta, offset - usedPtr);
+        shiftOffsets(offset, -delta);
+        setShortValue((short) (offset - delta), slotpos + 2);
+        setShortValue((short) (usedPtr - delta), USED_PTR);
+
+      }
+    }
+
+    // update the slot and the free space
+    setShortValue((short) (storedLength | flags), slotpos);
+    setShortValue((short) (freeSpace - delta), FREE_SPACE);
+    return true;
+
+  } // protected boolean resize(int slotno, int storedLength, short flags)
+
+  /**
+   * Packs the records against the end of the page, removing the holes
+   * between them.
+   */
+  protected void compact() {
+
+    // sort the records by offset, last first
+    short slotCnt = getSlotCount();
+    int[] records = new int[slotCnt];
+    int count = 0;
+    for (int i = 0; i < slotCnt; i++) {
+      if (getSlotLength(i) != EMPTY_SLOT) {
+        records[count++] = (getSlotOffset(i) << 16) | i;
+      }
+    }
+    Arrays.sort(records, 0, count);
+
+    // slide each run of adjacent records up against the previous one
+    int usedPtr = PAGE_SIZE;
+    for (int j = count - 1; j >= 0;) {
+      int runEnd = (records[j] >>> 16)
+          + (getSlotLength(records[j] & 0xFFFF) & LENGTH_MASK);
+      int runStart = runEnd;
+      int k = j;
+      for (; k >= 0; k--) {
+        int slotno = records[k] & 0xFFFF;
+        int offset = records[k] >>> 16;
+        if (offset + (getSlotLength(slotno) & LENGTH_MASK) != runStart)
+          break;
+        runStart = offset;
+      }
+      int shift = usedPtr - runEnd;
+      if (shift != 0) {
+        System.arraycopy(data, runStart, data, runStart + shift,
+            runEnd - runStart);
+        for (int i = j; i > k; i--) {
+          setShortValue((short) ((records[i] >>> 16) + shift),
+              HEADER_SIZE + (records[i] & 0xFFFF) * SLOT_SIZE + 2);
+        }
+      }
+      usedPtr -= runEnd - runStart;
+      j = k;
+    }
+    setShortValue((short) usedPtr, USED_PTR);
+
+    // rechain the empty slots, lowest first
+    int head = EMPTY_SLOT;
+    for (int i = slotCnt - 1; i >= 0; i--) {
+      if (getSlotLength(i) == EMPTY_SLOT) {
+        setShortValue((short) head, HEADER_SIZE + i * SLOT_SIZE + 2);
+        head = i;
+      }
+    }
+    setFreeSlot(head);
+
+  } // protected void compact()
+
+  /**
+   * Adds delta to the offsets of the records before the given offset.
+   */
+  protected void shiftOffsets(int offset, int delta) {
+    short slotCnt = getSlotCount();
+    for (int i = 0, n = HEADER_SIZE; i < slotCnt; i++, n += SLOT_SIZE) {
+      if (getSlotLength(i) != EMPTY_SLOT) {
+        short chkoffset = getSlotOffset(i);
+        if (chkoffset < offset) {
+          setShortValue((short) (chkoffset + delta), n + 2);
+        }
+      }
+    }
+  }
+
+  /**
+   * Validates a slot on this page is in use, by a record or a stub.
+   * 
+   * @return the slot length, with its flags
    * @throws IllegalArgumentException if the slot is empty or the RID is invalid
    */
-  protected short checkRID(RID rid) {
+  protected short checkSlot(RID rid) {
 
     // validate the record id
     int curPid = getIntValue(CUR_PAGE);
-    short slotCnt = getShortValue(SLOT_CNT);
+    short slotCnt = getSlotCount();
     if ((rid.pageno.pid != curPid) || (rid.slotno < 0)
         || (rid.slotno >= slotCnt))
       throw new IllegalArgumentException("Invalid RID");
 
-    // validate the record itself
-    short recLen = getSlotLength(rid.slotno);
-    if (recLen == EMPTY_SLOT)
+    // validate the slot itself
+    short slotLen = getSlotLength(rid.slotno);
+    if (slotLen == EMPTY_SLOT)
       throw new IllegalArgumentException("Empty slot");
-    return recLen;
+    return slotLen;
+
+  } // protected short checkSlot(RID rid)
 
-  } // protected short checkRID(RID rid)
+  /**
+   * Validates a record id exists on this page, and holds the record rather
+   * than a forwarding stub.
+   * 
+   * @return the record length (if valid)
+   * @throws IllegalArgumentException if the slot is empty or forwarded, or
+   * the RID is invalid
+   */
+  protected short checkRID(RID rid) {
+    short slotLen = checkSlot(rid);
+    if ((slotLen & FORWARDED) != 0)
+      throw new IllegalArgumentException("Forwarded record");
+    if ((slotLen & MOVED) != 0)
+      return (short) ((slotLen & LENGTH_MASK) - RID_SIZE);
+    return slotLen;
+  }
 
 } // class HFPage extends Page
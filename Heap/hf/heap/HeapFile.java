@@ -1,9 +1,19 @@
 package heap; 
 
+import diskmgr.DiskMgr;
 import global.GlobalConst;
 import global.Minibase;
+import global.Page;
 import global.PageId;
 import global.RID;
+import logmgr.LogMgr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * <h3>Minibase Heap Files</h3>
@@ -16,7 +26,14 @@ import global.RID;
  * relational operators. A temporary heap file does not have an entry in the
  * file library and is deleted when there are no more references to it. <br>
  * A sequential scan of a heap file (via the HeapScan class)
- * is the most basic access method.
+ * is the most basic access method. <br>
+ * Updates may change a record's length.  A record that no longer fits on
+ * its page moves to another one, leaving a forwarding stub so its RID does
+ * not change; a record is never more than one hop from its RID, and
+ * compact removes the stubs. <br>
+ * The head directory page keeps the file's record count, data page count
+ * and free space, updated with the directory, so they are read with one
+ * page pin.
  */
 public class HeapFile implements GlobalConst {
 
@@ -26,10 +43,22 @@ public class HeapFile implements GlobalConst {
   /** HFPage type for data pages. */
   protected static final short DATA_PAGE = 11;
 
+  /** Size of the largest record that fits on a data page. */
+  public static final int MAX_RECORD_SIZE = PAGE_SIZE - HFPage.HEADER_SIZE
+      - HFPage.SLOT_SIZE;
+
+  /** Data page space taken by each record besides its bytes (its slot). */
+  public static final int RECORD_OVERHEAD = HFPage.SLOT_SIZE;
+
   //adding header size constant to match HFPage header size
-  private static final int HEADER_SIZE = 20;
-  private static final int SLOT_SIZE = 4;
-  private static final int MAX_ENTRIES = 125;
+  private static final int HEADER_SIZE = HFPage.HEADER_SIZE;
+  private static final int SLOT_SIZE = HFPage.SLOT_SIZE;
+  
+  //size of the home RID stored with a record moved off its page
+  private static final int RID_SIZE = 8;
+  
+  //number of data pages allocated at once by a bulk insert
+  private static final int BULK_RUN = 32;
 
   // --------------------------------------------------------------------------
 
@@ -44,6 +73,15 @@ public class HeapFile implements GlobalConst {
   /** First page of the directory for this heap file. */
   protected PageId headId;
 
+  /** Has the file been deleted? */
+  protected boolean deleted;
+
+  /** Do inserts only go to the last data page (see setAppendOnly)? */
+  protected boolean appendOnly;
+
+  /** In append-only mode, the data page being filled, or INVALID_PAGEID. */
+  protected int tailPid = INVALID_PAGEID;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -80,8 +118,10 @@ public class HeapFile implements GlobalConst {
 	  //add name/ID to library
 	  if(!exists){
 		  DirPage dpage = new DirPage();
-		  headId = Minibase.BufferManager.newPage(dpage, 1);
+		  headId = newPage(dpage);
 		  dpage.setCurPage(headId);
+		  dpage.initFileStats(0, 0, 0, 0);
+		  LogMgr.logNewPage(headId, dpage);
 		  Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
 		  
 		  if(!isTemp){
@@ -89,6 +129,24 @@ public class HeapFile implements GlobalConst {
 		  }
 	  }
 	  
+	  //a head page from before the file statistics (or the record bytes in
+	  //them) gets them now, if it has room
+	  else{
+		  DirPage headPage = new DirPage();
+		  Minibase.BufferManager.pinPage(headId, headPage, PIN_DISKIO);
+		  boolean upgrade = !headPage.hasFileStats()
+				  && (headPage.getEntryCnt() <= DirPage.HEAD_MAX_ENTRIES);
+		  Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
+		  if(upgrade){
+			  int[] stats = countFileStats();
+			  Minibase.BufferManager.pinPage(headId, headPage, PIN_DISKIO);
+			  byte[] before = LogMgr.snapshot(headPage);
+			  headPage.initFileStats(stats[0], stats[1], stats[2], stats[3]);
+			  LogMgr.logUpdate(headId, before, headPage);
+			  Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+		  }
+	  }
+	  
 	  
 	  //throw new UnsupportedOperationException("Not implemented");
 
@@ -100,7 +158,8 @@ public class HeapFile implements GlobalConst {
    */
   protected void finalize() throws Throwable {
 
-	  if(isTemp){
+	  //(unless already deleted, as its pages may belong to another file now)
+	  if(isTemp && !deleted){
 		  deleteFile();
 	  }
 	  
@@ -146,13 +205,15 @@ public class HeapFile implements GlobalConst {
 		  //set the did to the next dir page id
 		  did.copyPageId(next);
 		  
-		  //delete from library entry if it is not a temp file
-		  if(!isTemp){
-			  Minibase.DiskManager.delete_file_entry(fileName);
-		  }
-		  
 	  }
 	  
+	  //delete from library entry if it is not a temp file
+	  if(!isTemp){
+		  Minibase.DiskManager.delete_file_entry(fileName);
+	  }
+	  FreeSpaceMap.drop(headId);
+	  deleted = true;
+	  
 	 //throw new UnsupportedOperationException("Not implemented");
 
   } // public void deleteFile()
@@ -169,190 +230,620 @@ public class HeapFile implements GlobalConst {
    * large to fit on one data page
    */
   public RID insertRecord(byte[] record) {
-	  
-	  int len = record.length;
+	  String prevTag = tagIO();
+	  try{
+		  int len = record.length;
 
-	  //error if to big of record
-	  if(len > (PAGE_SIZE - HEADER_SIZE)){
-		  throw new IllegalArgumentException("record length exceeds page size");
+		  //error if to big of record
+		  if(len > (PAGE_SIZE - HEADER_SIZE)){
+			  throw new IllegalArgumentException("record length exceeds page size");
+		  }
+	  
+		  PageId pageId = new PageId();
+	  
+		//find a page with enough free space or create a new page (if needed)
+		  pageId.copyPageId(getAvailPage(len));
+	  
+		  //insert the record and return the rid
+		  return insertOnPage(pageId, record, null);
+	  
+		 //throw new UnsupportedOperationException("Not implemented");
+	  }
+	  finally{
+		  DiskMgr.setIOTag(prevTag);
 	  }
+   } // public RID insertRecord(byte[] record)
+
+  /**
+   * Inserts a record on the given data page, which must have room for it, and
+   * updates the page's directory entry.
+   * 
+   * @param home RID of a record being moved to the page, or null
+   * @return the RID of the new record
+   */
+  protected RID insertOnPage(PageId pageId, byte[] record, RID home) {
 	  
-	  PageId pageId = new PageId();
 	  DataPage dataPage = new DataPage();
-	  RID rid;
-	  short freeSpace;
-	  
-	//find a page with enough free space or create a new page (if needed)
-	  pageId.copyPageId(getAvailPage(len));
 	  
 	  //pin the pageno
-//	  System.out.println("insert record pin page: " + pageId.pid);
-	  Minibase.BufferManager.pinPage(pageId, dataPage, PIN_DISKIO);//diski0 needed???????????????
+	  Minibase.BufferManager.pinPage(pageId, dataPage, PIN_DISKIO);
+	  byte[] before = LogMgr.snapshot(dataPage);
 	  
-	  //insert the record and return the rid
-	  rid = dataPage.insertRecord(record);  //is the copy method needed here?????????????????????
+	  //insert the record
+	  RID rid = (home == null) ? dataPage.insertRecord(record)
+			  : dataPage.insertMovedRecord(home, record);
+	  LogMgr.logUpdate(pageId, before, dataPage);
 	  
 	  //need the free space left after insert to update the directory page
-	  freeSpace = dataPage.getFreeSpace();
+	  short freeSpace = dataPage.getFreeSpace();
 	  
-	  //unpin athe datapage as dirty
-//	  System.out.println("insert record unpin page: " + pageId.pid);
+	  //unpin the datapage as dirty and update the dir page
 	  Minibase.BufferManager.unpinPage(pageId, UNPIN_DIRTY);
-	  
-	  //update the dir page
-	  updateDirEntry(pageId, 1, freeSpace);
+	  updateDirEntry(pageId, 1, record.length, freeSpace);
 	  
 	  return rid;
 	  
-	 //throw new UnsupportedOperationException("Not implemented");
-   } // public RID insertRecord(byte[] record)
+  } // protected RID insertOnPage(PageId pageId, byte[] record, RID home)
 
   /**
-   * Reads a record from the file, given its rid.
+   * Moves a record off its home page to a page with room for it and its
+   * home RID.
    * 
-   * @throws IllegalArgumentException if the rid is invalid
+   * @return the RID of the moved record
+   * @throws IllegalArgumentException if the record is too large to move
    */
-  public byte[] selectRecord(RID rid) {
+  protected RID insertMoved(RID home, byte[] record) {
+	  
+	  int len = record.length + RID_SIZE;
+	  if(len + SLOT_SIZE > (PAGE_SIZE - HEADER_SIZE)){
+		  throw new IllegalArgumentException("record too large to move");
+	  }
+	  return insertOnPage(getAvailPage(len), record, home);
+	  
+  } // protected RID insertMoved(RID home, byte[] record)
+
+  /**
+   * Bulk-loads records into the file, filling fresh data pages back to back
+   * rather than looking for free space.  Pages are allocated BULK_RUN at a
+   * time (fewer when the database has no free run that long) and each gets
+   * its directory entry (and log record) once, when it is full.  The RIDs
+   * come back packed into longs (see unpackRID), in the order of the
+   * records.
+   * 
+   * @throws IllegalArgumentException if a record is too large to fit on
+   * one data page; the records before it stay inserted
+   * @throws IllegalStateException if the database is full; the records
+   * before it stay inserted
+   */
+  public long[] insertRecords(Iterator<byte[]> records) {
+	  
+	  long[] rids = new long[64];
+	  int count = 0;
 	  
+	  //the run of new pages and the one being filled
 	  DataPage dataPage = new DataPage();
-	  PageId dataId = new PageId();
-	  dataId.copyPageId(rid.pageno);
+	  PageId dataId = new PageId(INVALID_PAGEID);
+	  int nextPid = 0, runEnd = 0, recCnt = 0, recBytes = 0;
+	  PageId directoryId = new PageId();
+	  directoryId.copyPageId(headId);
+	  String prevTag = tagIO();
+	  try{
+		  while(records.hasNext()){
+			  byte[] record = records.next();
+			  if(record.length + SLOT_SIZE > (PAGE_SIZE - HEADER_SIZE)){
+				  throw new IllegalArgumentException("record length exceeds page size");
+			  }
+			  
+			  //insert on the current page, moving to the next one when it is full
+			  RID rid = (dataId.pid == INVALID_PAGEID) ? null : dataPage.insertRecord(record);
+			  if(rid == null){
+				  if(dataId.pid != INVALID_PAGEID){
+					  finishBulkPage(directoryId, dataId, dataPage, recCnt, recBytes);
+					  dataId = new PageId(INVALID_PAGEID);
+				  }
+				  
+				  //take the next page of the run, allocating a new run if needed;
+				  //halve the run while there's no room for it, down to one page
+				  dataPage = new DataPage();
+				  if(nextPid == runEnd){
+					  int runSize = BULK_RUN;
+					  while(true){
+						  try{
+							  dataId = newPage(dataPage, runSize);
+							  break;
+						  }
+						  catch(IllegalStateException full){
+							  if(runSize == 1){
+								  throw full;
+							  }
+							  runSize /= 2;
+						  }
+					  }
+					  nextPid = dataId.pid + 1;
+					  runEnd = dataId.pid + runSize;
+				  }
+				  else{
+					  Minibase.BufferManager.pinPage(new PageId(nextPid), dataPage, PIN_MEMCPY);
+					  dataId = new PageId(nextPid++);
+				  }
+				  dataPage.setCurPage(dataId);
+				  recCnt = 0;
+				  recBytes = 0;
+				  rid = dataPage.insertRecord(record);
+			  }
+			  recCnt++;
+			  recBytes += record.length;
+			  
+			  //add the rid, growing the array as needed
+			  if(count == rids.length){
+				  rids = Arrays.copyOf(rids, count * 2);
+			  }
+			  rids[count++] = ((long) rid.pageno.pid << 32) | rid.slotno;
+		  }
+	  }
+	  finally{
+		  
+		  //finish the last page and give back the rest of the run
+		  if(dataId.pid != INVALID_PAGEID){
+			  finishBulkPage(directoryId, dataId, dataPage, recCnt, recBytes);
+		  }
+		  if(nextPid < runEnd){
+			  Minibase.DiskManager.deallocate_page(new PageId(nextPid), runEnd - nextPid);
+		  }
+		  DiskMgr.setIOTag(prevTag);
+	  }
+	  return Arrays.copyOf(rids, count);
 	  
-	  byte record[];
+  } // public long[] insertRecords(Iterator<byte[]> records)
+
+  /**
+   * Logs and unpins a data page filled by a bulk insert and adds its
+   * directory entry, at or after the given directory page.
+   */
+  protected void finishBulkPage(PageId directoryId, PageId dataId,
+      DataPage dataPage, int recCnt, int recBytes) {
 	  
-	  //pin the page referenced by the rid
-//	  System.out.println("select record pin page: " + dataId.pid);
-	  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+	  LogMgr.logNewPage(dataId, dataPage);
+	  short freeSpace = dataPage.getFreeSpace();
+	  Minibase.BufferManager.unpinPage(dataId, UNPIN_DIRTY);
+	  findDirSpace(directoryId);
+	  addDirEntry(directoryId, dataId, recCnt, recBytes, freeSpace);
 	  
-	  //assign "record" to record on page based on slot referenced by rid
-	  //unpin clean because no changes
-	  //if error, throw exception
+  } // protected void finishBulkPage(PageId, PageId, DataPage, int, int)
+
+  /**
+   * Gets the RID packed into a long by insertRecords.
+   */
+  public static RID unpackRID(long rid) {
+	  return new RID(new PageId((int) (rid >>> 32)), (int) rid);
+  }
+
+  /**
+   * Reads a record from the file, given its rid.
+   * 
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public byte[] selectRecord(RID rid) {
+	  String prevTag = tagIO();
 	  try{
-		  record = dataPage.selectRecord(rid);
-//		  System.out.println("select record unpin page: " + dataId.pid);
+		  DataPage dataPage = new DataPage();
+		  PageId dataId = new PageId();
+		  dataId.copyPageId(rid.pageno);
+	  
+		  byte record[] = null;
+		  RID target;
+	  
+		  //pin the page referenced by the rid
+		  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+	  
+		  //assign "record" to record on page based on slot referenced by rid,
+		  //unless it has moved; unpin clean because no changes
+		  //if error, throw exception
+		  try{
+			  target = findRecord(dataPage, rid);
+			  if(target == null){
+				  record = dataPage.selectRecord(rid);
+			  }
+		  }
+		  catch(IllegalArgumentException invalid){
+			  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+			  throw new IllegalArgumentException("RID is invalid");
+		  }
 		  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+	  
+		  //follow the forwarding stub to the moved record
+		  if(target != null){
+			  Minibase.BufferManager.pinPage(target.pageno, dataPage, PIN_DISKIO);
+			  record = dataPage.selectRecord(target);
+			  Minibase.BufferManager.unpinPage(target.pageno, UNPIN_CLEAN);
+		  }
 		  return record;
 	  }
-	  catch(IllegalArgumentException invalid){
-//		  System.out.println("select record unpin page: " + dataId.pid);
-		  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
-		  throw new IllegalArgumentException("RID is invalid");
+	  finally{
+		  DiskMgr.setIOTag(prevTag);
 	  }
 
-	    //throw new UnsupportedOperationException("Not implemented");
-
   } // public byte[] selectRecord(RID rid)
 
   /**
-   * Updates the specified record in the heap file.
+   * Updates the specified record in the heap file.  The new record may be
+   * longer or shorter; if it no longer fits on its page it moves to
+   * another, keeping its RID.
    * 
    * @throws IllegalArgumentException if the rid or new record is invalid
+   * @throws IllegalStateException if the record is shorter than a RID and
+   * its full page has no room for a forwarding stub
    */
   public void updateRecord(RID rid, byte[] newRecord) {
-
-	  DataPage dataPage = new DataPage();
-	  PageId dataId = new PageId();
-	  dataId.copyPageId(rid.pageno);
-	  
-	  //pin the page referenced by the rid
-//	  System.out.println("update record pin page: " + dataId.pid);
-	  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
-	  
-	  //try to update the record
-	  //unpin dirty because change made to page
-	  //if error, throw excption
+	  String prevTag = tagIO();
 	  try{
-		  dataPage.updateRecord(rid, newRecord);
-//		  System.out.println("update record unpin page: " + dataId.pid);
-		  Minibase.BufferManager.unpinPage(dataId, UNPIN_DIRTY);
-	  }
-	  catch(IllegalArgumentException invalid){
-//		  System.out.println("update record unpin page: " + dataId.pid);
+		  DataPage dataPage = new DataPage();
+		  PageId dataId = new PageId();
+		  dataId.copyPageId(rid.pageno);
+		  RID target;
+	  
+		  //pin the page referenced by the rid
+		  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+	  
+		  //try to update the record in place, growing or shrinking it
+		  //unpin dirty because change made to page
+		  //if error, throw excption
+		  byte[] before = LogMgr.snapshot(dataPage);
+		  boolean updated;
+		  int oldLength = 0;
+		  try{
+			  target = findRecord(dataPage, rid);
+			  if(target == null){
+				  oldLength = dataPage.checkRID(rid);
+			  }
+			  updated = (target == null) && dataPage.updateRecord(rid, newRecord);
+		  }
+		  catch(IllegalArgumentException invalid){
+			  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+			  throw new IllegalArgumentException("can't update record, invalid rid or new record");
+		  }
+		  if(updated){
+			  LogMgr.logUpdate(dataId, before, dataPage);
+			  short freeSpace = dataPage.getFreeSpace();
+			  Minibase.BufferManager.unpinPage(dataId, UNPIN_DIRTY);
+			  updateDirEntry(dataId, 0, newRecord.length - oldLength, freeSpace);
+			  return;
+		  }
 		  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
-		  throw new IllegalArgumentException("can't update record, invalid rid or new record");
+	  
+		  //it has moved already, or has to now
+		  if(target != null){
+			  updateMoved(rid, target, newRecord);
+		  }
+		  else{
+			  RID newTarget = insertMoved(rid, newRecord);
+			  setForward(rid, newTarget, true);
+		  }
+	  }
+	  finally{
+		  DiskMgr.setIOTag(prevTag);
 	  }
-	    //throw new UnsupportedOperationException("Not implemented");
 
   } // public void updateRecord(RID rid, byte[] newRecord)
 
   /**
-   * Deletes the specified record from the heap file.
-   * Removes empty data and/or directory pages.
+   * Updates a record that has moved off its home page: in place if it
+   * still fits there, otherwise back home if it fits there, otherwise on a
+   * third page, so the record is never more than one hop from its RID.
+   */
+  protected void updateMoved(RID home, RID target, byte[] newRecord) {
+	  
+	  DataPage dataPage = new DataPage();
+	  
+	  //try the page it is on
+	  Minibase.BufferManager.pinPage(target.pageno, dataPage, PIN_DISKIO);
+	  byte[] before = LogMgr.snapshot(dataPage);
+	  int oldLength = dataPage.checkRID(target);
+	  if(dataPage.updateRecord(target, newRecord)){
+		  LogMgr.logUpdate(target.pageno, before, dataPage);
+		  short freeSpace = dataPage.getFreeSpace();
+		  Minibase.BufferManager.unpinPage(target.pageno, UNPIN_DIRTY);
+		  updateDirEntry(target.pageno, 0, newRecord.length - oldLength, freeSpace);
+		  return;
+	  }
+	  Minibase.BufferManager.unpinPage(target.pageno, UNPIN_CLEAN);
+	  
+	  //then its home page, in place of the forwarding stub
+	  Minibase.BufferManager.pinPage(home.pageno, dataPage, PIN_DISKIO);
+	  before = LogMgr.snapshot(dataPage);
+	  if(dataPage.restoreRecord(home, newRecord)){
+		  LogMgr.logUpdate(home.pageno, before, dataPage);
+		  short freeSpace = dataPage.getFreeSpace();
+		  Minibase.BufferManager.unpinPage(home.pageno, UNPIN_DIRTY);
+		  updateDirEntry(home.pageno, 1, newRecord.length, freeSpace);
+	  }
+	  else{
+		  Minibase.BufferManager.unpinPage(home.pageno, UNPIN_CLEAN);
+		  setForward(home, insertMoved(home, newRecord), false);
+	  }
+	  
+	  //either way, the old copy goes
+	  deleteOnPage(target);
+	  
+  } // protected void updateMoved(RID home, RID target, byte[] newRecord)
+
+  /**
+   * Points a record's home slot at where the record now is, turning the
+   * record into a forwarding stub if it was at home.
    * 
-   * @throws IllegalArgumentException if the rid is invalid
+   * @param wasHome true if the record was on its home page until now
+   * @throws IllegalStateException if the page has no room for the stub,
+   * after taking back the moved record
    */
-  public void deleteRecord(RID rid) {
+  protected void setForward(RID home, RID target, boolean wasHome) {
 	  
 	  DataPage dataPage = new DataPage();
-	  PageId dataId = new PageId();
-	  dataId.copyPageId(rid.pageno);
+	  Minibase.BufferManager.pinPage(home.pageno, dataPage, PIN_DISKIO);
+	  byte[] before = LogMgr.snapshot(dataPage);
+	  int length = wasHome ? dataPage.checkRID(home) : 0;
+	  if(!dataPage.setForward(home, target)){
+		  Minibase.BufferManager.unpinPage(home.pageno, UNPIN_CLEAN);
+		  deleteOnPage(target);
+		  throw new IllegalStateException("no room for a forwarding stub");
+	  }
+	  LogMgr.logUpdate(home.pageno, before, dataPage);
+	  short freeSpace = dataPage.getFreeSpace();
+	  Minibase.BufferManager.unpinPage(home.pageno, UNPIN_DIRTY);
 	  
-	  short freeSpace;
+	  //the record is counted on the page it is stored on
+	  updateDirEntry(home.pageno, wasHome ? -1 : 0, -length, freeSpace, true);
 	  
-	  //pin the page referenced by the rid
-//	  System.out.println("delete record pin page: " + dataId.pid);
-	  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+  } // protected void setForward(RID home, RID target, boolean wasHome)
+
+  /**
+   * Deletes a record or forwarding stub from its page, updating the page's
+   * directory entry; the page is removed once it holds neither.
+   */
+  protected void deleteOnPage(RID rid) {
 	  
-	  //try to delete the record, get the new freeSpace on the page
-	  //need to unpin dirty since updated page and update the directory page
-	  //if error, throw exception
+	  DataPage dataPage = new DataPage();
+	  Minibase.BufferManager.pinPage(rid.pageno, dataPage, PIN_DISKIO);
+	  byte[] before = LogMgr.snapshot(dataPage);
+	  boolean record = (dataPage.getForward(rid) == null);
+	  int length = record ? dataPage.checkRID(rid) : 0;
+	  dataPage.deleteRecord(rid);
+	  LogMgr.logUpdate(rid.pageno, before, dataPage);
+	  short freeSpace = dataPage.getFreeSpace();
+	  boolean empty = dataPage.isEmpty();
+	  Minibase.BufferManager.unpinPage(rid.pageno, UNPIN_DIRTY);
+	  updateDirEntry(rid.pageno, record ? -1 : 0, -length, freeSpace, !empty);
+	  
+  } // protected void deleteOnPage(RID rid)
+
+  /**
+   * Gets where the record with the given RID is, on its (pinned) home page.
+   * 
+   * @return the RID of the moved record, or null if it is on this page
+   * @throws IllegalArgumentException if the rid is invalid, or is that of a
+   * moved record rather than its home
+   */
+  protected static RID findRecord(DataPage dataPage, RID rid) {
+	  RID target = dataPage.getForward(rid);
+	  if(target == null && dataPage.getHomeRID(rid) != null){
+		  throw new IllegalArgumentException("not a home RID");
+	  }
+	  return target;
+  }
+
+  /**
+   * Deletes the specified record from the heap file.
+   * Removes empty data and/or directory pages.
+   * 
+   * @throws IllegalArgumentException if the rid is invalid
+   */
+  public void deleteRecord(RID rid) {
+	  String prevTag = tagIO();
 	  try{
-		  dataPage.deleteRecord(rid);
+		  DataPage dataPage = new DataPage();
+		  PageId dataId = new PageId();
+		  dataId.copyPageId(rid.pageno);
+	  
+		  short freeSpace;
+		  boolean empty;
+		  int length = 0;
+		  RID target;
+	  
+		  //pin the page referenced by the rid
+		  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+	  
+		  //try to delete the record (or its forwarding stub), get the new freeSpace
+		  //on the page; need to unpin dirty since updated page
+		  //if error, throw exception
+		  byte[] before = LogMgr.snapshot(dataPage);
+		  try{
+			  target = findRecord(dataPage, rid);
+			  if(target == null){
+				  length = dataPage.checkRID(rid);
+			  }
+			  dataPage.deleteRecord(rid);
+		  }
+		  catch(IllegalArgumentException invlaid){
+			  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+			  throw new IllegalArgumentException("can't delete, rid is invalid");
+		  }
+		  LogMgr.logUpdate(dataId, before, dataPage);
 		  freeSpace = dataPage.getFreeSpace();
-//		  System.out.println("delete record unpin page: " + dataId.pid);
+		  empty = dataPage.isEmpty();
 		  Minibase.BufferManager.unpinPage(dataId, UNPIN_DIRTY);
-		  updateDirEntry(dataId, -1, freeSpace);
+	  
+		  //update the directory page, then delete the moved record if any
+		  updateDirEntry(dataId, (target == null) ? -1 : 0, -length, freeSpace, !empty);
+		  if(target != null){
+			  deleteOnPage(target);
+		  }
 	  }
-	  catch(IllegalArgumentException invlaid){
-//		  System.out.println("delete record unpin page: " + dataId.pid);
-		  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
-		  throw new IllegalArgumentException("can't delete, rid is invalid");
+	  finally{
+		  DiskMgr.setIOTag(prevTag);
 	  }
 
-	    //throw new UnsupportedOperationException("Not implemented");
-
   } // public void deleteRecord(RID rid)
 
   /**
    * Gets the number of records in the file.
    */
   public int getRecCnt() {
+	  return getFileStats()[0];
+  }
 
-	  DirPage directPage = new DirPage();
-	  PageId directId = new PageId();
-	  directId.copyPageId(headId);
+  /**
+   * Gets the number of data pages in the file.
+   */
+  public int getPageCnt() {
+	  return getFileStats()[1];
+  }
+
+  /**
+   * Gets the free space on all of the file's data pages (in bytes).
+   */
+  public int getFreeCnt() {
+	  return getFileStats()[2];
+  }
+
+  /**
+   * Gets the average length of the file's records (in bytes), or 0 if there
+   * are no records.
+   */
+  public int getAvgRecLength() {
 	  
-	  int entryCount, recordCount = 0;
+	  int[] stats = getFileStats();
+	  return (stats[0] == 0) ? 0 : stats[3] / stats[0];
 	  
-	  //need to keep a temporary "next" Directory Page ID
-	  PageId next = new PageId();
+  } // public int getAvgRecLength()
+
+  /**
+   * Reorganizes the file online, packing its records into as few data pages
+   * as possible.  Records move from the pages with the highest ids into free
+   * space on those with the lowest, so the emptied (and freed) pages are
+   * the ones nearest the end of the database; follow with
+   * DiskMgr.shrinkDB to give that space back to the OS.  Records keep
+   * their contents but get new RIDs, each reported to the listener.  First,
+   * every record that has moved off its home page is made a plain record
+   * where it is, and its forwarding stub removed.
+   * 
+   * @param listener told of every record moved, or null
+   * @return the number of data pages freed
+   */
+  public int compact(RelocationListener listener) {
 	  
-	  //on each directory page, loop through all the slots
-	  //to accumulate the total record count for the file
-	  while(directId.pid != INVALID_PAGEID){
-		  //pin the current directory page
-//		  System.out.println("get record count pin page: " + directId.pid);
-		  Minibase.BufferManager.pinPage(directId, directPage, PIN_DISKIO);
-		  //count of entries on this page
-		  entryCount = directPage.getEntryCnt();
-		  
-		  //loop thru all entries on this page
-		  for(int i = 0; i < entryCount; i++){
-			  recordCount += directPage.getRecCnt(i);
+	  collapseForwards(listener);
+	  
+	  //list the data pages with their record counts and free space
+	  ArrayList<int[]> entries = new ArrayList<int[]>();
+	  DirPage dirPage = new DirPage();
+	  PageId dirId = new PageId();
+	  dirId.copyPageId(headId);
+	  while(dirId.pid != INVALID_PAGEID){
+		  Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+		  for(int i = 0; i < dirPage.getEntryCnt(); i++){
+			  entries.add(new int[] {dirPage.getPageId(i).pid,
+					  dirPage.getRecCnt(i), dirPage.getFreeCnt(i)});
 		  }
+		  PageId next = dirPage.getNextPage();
+		  Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+		  dirId.copyPageId(next);
+	  }
+	  
+	  //fill the lowest pages (targets) from the highest (sources)
+	  int[][] pages = entries.toArray(new int[entries.size()][]);
+	  Arrays.sort(pages, (a, b) -> Integer.compare(a[0], b[0]));
+	  DataPage dataPage = new DataPage();
+	  int lo = 0, hi = pages.length - 1, freed = 0;
+	  while(lo < hi){
 		  
-		  //get the next directory pageId for the while loop and unpin (clean)
-		  next = directPage.getNextPage();
-//		  System.out.println("get record count unpin page: " + directId.pid);
-		  Minibase.BufferManager.unpinPage(directId, UNPIN_CLEAN);
-		  directId.copyPageId(next);
+		  //move the source's records one at a time; the last delete frees it
+		  PageId srcId = new PageId(pages[hi][0]);
+		  for(int k = pages[hi][1]; k > 0; k--){
+			  Minibase.BufferManager.pinPage(srcId, dataPage, PIN_DISKIO);
+			  RID oldRid = dataPage.firstRecord();
+			  byte[] record = dataPage.selectRecord(oldRid);
+			  Minibase.BufferManager.unpinPage(srcId, UNPIN_CLEAN);
+			  
+			  //find a target with room, giving up if none is left
+			  while((lo < hi) && (pages[lo][2] < record.length + SLOT_SIZE)){
+				  lo++;
+			  }
+			  if(lo == hi){
+				  return freed;
+			  }
+			  
+			  //copy, then delete the original and report the move
+			  PageId dstId = new PageId(pages[lo][0]);
+			  RID newRid = insertOnPage(dstId, record, null);
+			  pages[lo][2] -= record.length + SLOT_SIZE;
+			  deleteRecord(oldRid);
+			  if(listener != null){
+				  listener.recordMoved(oldRid, newRid);
+			  }
+		  }
+		  freed++;
+		  hi--;
 	  }
+	  return freed;
 	  
-	  return recordCount;	  
+  } // public int compact(RelocationListener listener)
+
+  /**
+   * Collapses every forward in the file: each moved record gets the RID of
+   * where it is stored, reported to the listener, and its stub is deleted.
+   */
+  protected void collapseForwards(RelocationListener listener) {
 	  
-	    //throw new UnsupportedOperationException("Not implemented");
+	  //find the moved records, with their home RIDs
+	  ArrayList<RID[]> moved = new ArrayList<RID[]>();
+	  DirPage dirPage = new DirPage();
+	  DataPage dataPage = new DataPage();
+	  PageId dirId = new PageId();
+	  dirId.copyPageId(headId);
+	  while(dirId.pid != INVALID_PAGEID){
+		  Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+		  for(int i = 0; i < dirPage.getEntryCnt(); i++){
+			  PageId dataId = dirPage.getPageId(i);
+			  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+			  for(RID rid = dataPage.firstRecord(); rid != null; rid = dataPage.nextRecord(rid)){
+				  RID home = dataPage.getHomeRID(rid);
+				  if(home != null){
+					  moved.add(new RID[] {home, rid});
+				  }
+			  }
+			  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+		  }
+		  PageId next = dirPage.getNextPage();
+		  Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+		  dirId.copyPageId(next);
+	  }
+	  
+	  //make each a plain record, then drop its stub and report the move
+	  for(RID[] pair : moved){
+		  Minibase.BufferManager.pinPage(pair[1].pageno, dataPage, PIN_DISKIO);
+		  byte[] before = LogMgr.snapshot(dataPage);
+		  dataPage.clearMoved(pair[1]);
+		  LogMgr.logUpdate(pair[1].pageno, before, dataPage);
+		  short freeSpace = dataPage.getFreeSpace();
+		  Minibase.BufferManager.unpinPage(pair[1].pageno, UNPIN_DIRTY);
+		  updateDirEntry(pair[1].pageno, 0, 0, freeSpace);
+		  deleteOnPage(pair[0]);
+		  if(listener != null){
+			  listener.recordMoved(pair[0], pair[1]);
+		  }
+	  }
+	  
+  } // protected void collapseForwards(RelocationListener listener)
 
-  } // public int getRecCnt()
+  /**
+   * Switches append-only mode on or off.  In append-only mode, for files
+   * that only grow (e.g. logs and event tables), inserts go straight to the
+   * last data page this object added until it fills, then to a new one,
+   * without looking for free space elsewhere in the file.
+   */
+  public void setAppendOnly(boolean append) {
+	  appendOnly = append;
+	  tailPid = INVALID_PAGEID;
+  }
 
   /**
    * Initiates a sequential scan of the heap file.
@@ -361,6 +852,39 @@ public class HeapFile implements GlobalConst {
     return new HeapScan(this);
   }
 
+  /**
+   * Initiates a sequential scan of the records matching the filter, which is
+   * tested on each record in place so the others are never copied.
+   */
+  public HeapScan openScan(RecordPredicate filter) {
+    return new HeapScan(this, filter);
+  }
+
+  /**
+   * Gets a splittable scan of the file's records, in directory order, e.g.
+   * for fork-join tasks that each take part of the file.  The data pages are
+   * listed when this is called, so the file should not change until the
+   * scan is done.
+   */
+  public Spliterator<byte[]> spliterator() {
+    return new HeapSpliterator(headId);
+  }
+
+  /**
+   * Gets a sequential stream of the file's records.
+   */
+  public Stream<byte[]> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  /**
+   * Gets a parallel stream of the file's records, whose workers each read
+   * different data pages.
+   */
+  public Stream<byte[]> parallelStream() {
+    return StreamSupport.stream(spliterator(), true);
+  }
+
   /**
    * Returns the name of the heap file.
    */
@@ -369,111 +893,58 @@ public class HeapFile implements GlobalConst {
   }
 
   /**
-   * Searches the directory for the first data page with enough free space to store a
-   * record of the given size. If no suitable page is found, this creates a new
-   * data page.
-   * A more efficient implementation would start with a directory page that is in the
-   * buffer pool.
+   * Finds a data page with enough free space to store a record of the given
+   * size, using the file's free-space map. If no suitable page is found, this
+   * creates a new data page.
    */
   protected PageId getAvailPage(int reclen) {
 
-	  DirPage directPage = new DirPage();
-	  PageId directId = new PageId();
-	  directId.copyPageId(headId);
-	  
-	  //need 2 more Page IDs to keep track of the temp "next" for while loop
-	  //and the found "available" page
-	  PageId avail, next = new PageId();
-	  
-	  //EntryCount will keep track of entries on the curr directory page
-	  int entryCount = 0;
-	  
-	  //cycle thru each entry on each directory page until a page with
-	  //enough room (including the slot size for record info) found
-	  while(directId.pid != INVALID_PAGEID){
-//		  System.out.println("get avail pin page: " + directId.pid);
-		  Minibase.BufferManager.pinPage(directId, directPage, PIN_DISKIO);
-		  entryCount = directPage.getEntryCnt();
-		  
-		  //loop thru entries of curr page looking for enough space
-		  for(int i = 0; i < entryCount; i++){
-			  if(directPage.getFreeCnt(i) >= (reclen + SLOT_SIZE)){
-				  avail = directPage.getPageId(i);
-//				  System.out.println("get avail unpin page: " + directId.pid);
-				  Minibase.BufferManager.unpinPage(directId, UNPIN_CLEAN);
-				  return avail;
-			  }
+	  //in append-only mode, use the tail page until it fills, then start another
+	  FreeSpaceMap fsm = FreeSpaceMap.get(headId);
+	  if(appendOnly){
+		  if(tailPid == INVALID_PAGEID || fsm.getFree(tailPid) < reclen + SLOT_SIZE){
+			  //search for directory space from the tail's directory page
+			  int dirPid = (tailPid == INVALID_PAGEID) ? INVALID_PAGEID : fsm.getDirPage(tailPid);
+			  tailPid = insertPage(dirPid == INVALID_PAGEID ? headId : new PageId(dirPid)).pid;
 		  }
-		  
-		  //if get here, haven't found good page, so go to next directory page
-		  next.copyPageId(directPage.getNextPage());
-//		  System.out.println("get avail unpin page: " + directId.pid);
-		  Minibase.BufferManager.unpinPage(directId, UNPIN_CLEAN);
-		  directId.copyPageId(next);
+		  return new PageId(tailPid);
 	  }
 	  
-	  //if get here, a good page doesn't exist, so create a new page
-	  avail = insertPage();
-	  return avail;
+	  //look up a page in the free-space classes
+	  int pid = fsm.find(reclen + SLOT_SIZE);
+	  if(pid != INVALID_PAGEID){
+		  return new PageId(pid);
+	  }
 	  
-	    //throw new UnsupportedOperationException("Not implemented");
+	  //if get here, a good page doesn't exist, so create a new page
+	  return insertPage(headId);
 
   } // protected PageId getAvailPage(int reclen)
 
   /**
-   * Helper method for finding directory entries of data pages.
-   * A more efficient implementation would start with a directory
-   * page that is in the buffer pool.
+   * Helper method for finding directory entries of data pages.  The entry's
+   * place comes from the file's free-space map, so only its directory page
+   * is pinned.
    * 
    * @param pageno identifies the page for which to find an entry
    * @param dirId output param to hold the directory page's id (pinned)
    * @param dirPage output param to hold directory page contents
    * @return index of the data page's entry on the directory page
+   * @throws IllegalArgumentException if the page is not in this file
    */
   protected int findDirEntry(PageId pageno, PageId dirId, DirPage dirPage) {
 
-	  //note: dirId and dirPage already created and passed as parameters
-	  //      pageno is the page we changed and need to update the directory
-	  
-	  //set dirId to the first page in directory
-	  dirId.copyPageId(headId);
-	  
-	  //keep track of next directory page for loop
-	  PageId next = new PageId();
-	  
-	  //keep track of the entry count on the current directory page
-	  int entryCount;
-	  
-	  //loop through the entries on each directory page
-	  //until the entry containing the pageno is found
-	  while(dirId.pid != INVALID_PAGEID){
-//		  System.out.println("find dir entry pin page: " + dirId.pid);
-		  Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
-		  entryCount = dirPage.getEntryCnt();
-		  
-		  //loop thru the entries of curr dirPage
-		  for(int i = 0; i < entryCount; i++){
-			  //check for slot that contains the pageno
-			  if(dirPage.getPageId(i).equals(pageno)){
-//				  System.out.println("find dir entry unpin page: " + dirId.pid);
-				  Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-//				  System.out.print("dirID: " + dirId.pid + " , ");
-				  return i;
-			  }
-		  }
-		  
-		  //if get here, haven't found the entry, so go to next dirPage
-		  next.copyPageId(dirPage.getNextPage());
-//		  System.out.println("find dir entry unpin page: " + dirId.pid);
-		  Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
-		  dirId.copyPageId(next);
+	  //look up the directory page and slot of the entry
+	  FreeSpaceMap fsm = FreeSpaceMap.get(headId);
+	  dirId.pid = fsm.getDirPage(pageno.pid);
+	  if(dirId.pid == INVALID_PAGEID){
+		  throw new IllegalArgumentException("can't find the directory entry");
 	  }
+	  int slot = fsm.getSlot(pageno.pid);
 	  
-	  //if get here, something went terribly wrong because the dirPage entry should have
-	  //been found!
-	  throw new IllegalArgumentException("something went wrong, can't find the directory entry");
-	  
-	    //throw new UnsupportedOperationException("Not implemented");
+	  //pin the directory page, which the caller unpins
+	  Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+	  return slot;
 
   } // protected int findEntry(PageId pageno, PageId dirId, DirPage dirPage)
 
@@ -483,53 +954,107 @@ public class HeapFile implements GlobalConst {
    * If this causes a dir page to become empty, remove it
    * @param pageno identifies the data page whose directory entry will be updated
    * @param deltaRec input change in number of records on that data page
+   * @param deltaBytes input change in the length of its records (in bytes)
    * @param freecnt input new value of freecnt for the directory entry
    */
-  protected void updateDirEntry(PageId pageno, int deltaRec, int freecnt) {
+  protected void updateDirEntry(PageId pageno, int deltaRec, int deltaBytes,
+		  int freecnt) {
+	  updateDirEntry(pageno, deltaRec, deltaBytes, freecnt, false);
+  }
+
+  /**
+   * Updates the directory entry for the given data page, which is kept even
+   * without records if it still holds forwarding stubs (records are counted
+   * on the page they are stored on).
+   * @param keep true if the page must stay even without records
+   */
+  protected void updateDirEntry(PageId pageno, int deltaRec, int deltaBytes,
+		  int freecnt, boolean keep) {
 
 	  DirPage directPage = new DirPage();
 	  PageId directId = new PageId();
 	  int slot, recordCount = 0;
 	  
-	  //findDirEntry will return the slot number and give the directPage and directId
+	  //findDirEntry will return the slot number and give the (pinned) directPage and directId
 	  slot = findDirEntry(pageno, directId, directPage);
-	  
-	  //pin the page
-//	  System.out.println("dirID: " + directId.pid);
-//	  System.out.println("update dir entry pin page: " + directId.pid);
-	  Minibase.BufferManager.pinPage(directId, directPage, PIN_DISKIO);
 	  	  
 	  //new record count for the directory entry will be current count + "deltaRec" parameter
 	  recordCount = directPage.getRecCnt(slot) + deltaRec;
+	  int oldFree = directPage.getFreeCnt(slot);
 	  
 	  //if the record count for the page is 0, delete the page
 	  //otherwise update the slot number's record count and free space
-	  if(recordCount < 1){
+	  if(recordCount < 1 && !keep){
 		  deletePage(pageno, directId, directPage, slot); //unpinned in deletePage method
+		  addFileStats(deltaRec, -1, -oldFree, deltaBytes);
 	  }
 	  else{
+		  //the file statistics are updated along with the entry if it is on the head page
+		  boolean onHead = directId.equals(headId);
+		  byte[] before = LogMgr.snapshot(directPage);
 		  directPage.setFreeCnt(slot, (short) freecnt);
 		  directPage.setRecCnt(slot, (short) recordCount);
+		  if(onHead){
+			  directPage.addFileStats(deltaRec, 0, freecnt - oldFree, deltaBytes);
+		  }
+		  LogMgr.logUpdate(directId, before, directPage);
 //		  System.out.println("update dir entry unpin page: " + directId.pid);
 		  Minibase.BufferManager.unpinPage(directId, UNPIN_DIRTY);
+		  if(!onHead){
+			  addFileStats(deltaRec, 0, freecnt - oldFree, deltaBytes);
+		  }
+		  FreeSpaceMap.get(headId).update(pageno.pid, freecnt);
 	  }
 	  
 	    //throw new UnsupportedOperationException("Not implemented");
 
-  } // protected void updateEntry(PageId pageno, int deltaRec, int deltaFree)
+  } // protected void updateDirEntry(PageId, int, int, int, boolean)
 
   /**
-   * Inserts a new empty data page and its directory entry into the heap file. 
+   * Inserts a new empty data page and its directory entry into the heap file,
+   * at the first directory page from startDir on with room. 
    * If necessary, this also inserts a new directory page.
    * Leaves all data and directory pages unpinned
    * 
    * @return id of the new data page
    */
-  protected PageId insertPage() {
+  protected PageId insertPage(PageId startDir) {
 	  
-	  DirPage directoryPage = new DirPage();
+	  //get the directory id for the page info of page inserting
+	  //make new directory page/id if needed
 	  PageId directoryId = new PageId();
-	  directoryId.copyPageId(headId);
+	  directoryId.copyPageId(startDir);
+	  findDirSpace(directoryId);
+	  
+	  //now the directory page and ID is known
+	  //so allocate space for new page and update the directory page for data page slot
+	  DataPage newDataPage = new DataPage();
+	  PageId newDataId = newPage(newDataPage);
+	  newDataPage.setCurPage(newDataId);
+	  addDirEntry(directoryId, newDataId, 0, 0, newDataPage.getFreeSpace());
+	  LogMgr.logNewPage(newDataId, newDataPage);
+	  
+	  //unpin new data page
+//	  System.out.println("insert page (new data page) unpin page: " + newDataId.pid);
+	  Minibase.BufferManager.unpinPage(newDataId, UNPIN_CLEAN);
+	  
+	  return newDataId;
+
+	  //  throw new UnsupportedOperationException("Not implemented");
+
+  } // protected PageId insertPage(PageId startDir)
+
+  /**
+   * Finds a directory page with room for another entry, starting from the
+   * given one and adding a new directory page at the end if needed.
+   * Leaves all directory pages unpinned.
+   * 
+   * @param directoryId input the directory page to start from; output the
+   * one with room
+   */
+  protected void findDirSpace(PageId directoryId) {
+	  
+	  DirPage directoryPage = new DirPage();
 	  
 	  //keep track of next directory id for looping
 	  PageId next = new PageId();
@@ -538,55 +1063,42 @@ public class HeapFile implements GlobalConst {
 	  DirPage newDirectoryPage = new DirPage();
 	  PageId newDirectoryId = new PageId();
 	  
-	  //will definitely need new data page since no room on prev data pages
-	  DataPage newDataPage = new DataPage();
-	  PageId newDataId = new PageId();
-	  
-	  //keep track of entry count for curr directory page
-	  int entryCount = 0;
-	  
-	  //will need to set free space for the new page in the directory
-	  int freeSpace = 0;
-	  
-	  //get the directory id for the page info of page inserting
-	  //make new directory page/id if needed
 	  while(true){
 		  //pin current directory page
 //		  System.out.println("insert page pin page: " + directoryId.pid);
 		  Minibase.BufferManager.pinPage(directoryId, directoryPage, PIN_DISKIO);
 		  
 		  //if there is space on the current page, just use that page!
-		  entryCount = directoryPage.getEntryCnt();
-		  if(entryCount < MAX_ENTRIES){
+		  if(directoryPage.getEntryCnt() < directoryPage.getMaxEntries()){
 //			  System.out.println("insert page unpin page: " + directoryId.pid);
 			  Minibase.BufferManager.unpinPage(directoryId, UNPIN_CLEAN);
-			  break;
+			  return;
 		  }
 		  
 		  //if the next directory page is invalid, make a new directory page
 		  next = directoryPage.getNextPage();
 		  if(next.pid == INVALID_PAGEID){
 			  //allocate a new page
-			  newDirectoryId = Minibase.BufferManager.newPage(newDirectoryPage, 1);
+			  newDirectoryId = newPage(newDirectoryPage);
 //			  System.out.println("insert page (new dir page) pin page: " + newDirectoryId.pid);
 			  
 			  //set the page references in new directory page and old directory page
 			  newDirectoryPage.setCurPage(newDirectoryId);
 			  newDirectoryPage.setPrevPage(directoryId);
+			  LogMgr.logNewPage(newDirectoryId, newDirectoryPage);
 			  
+			  byte[] before = LogMgr.snapshot(directoryPage);
 			  directoryPage.setNextPage(newDirectoryId);
+			  LogMgr.logUpdate(directoryId, before, directoryPage);
 			  
 			  //unpin the directory page dirty
 //			  System.out.println("insert page unpin page: " + directoryId.pid);
 			  Minibase.BufferManager.unpinPage(directoryId, UNPIN_DIRTY);
 			  Minibase.BufferManager.unpinPage(newDirectoryId, UNPIN_CLEAN);
 			  
-			  //set directory page/id to the new directory page/id to use later
+			  //set directory id to the new directory page id
 			  directoryId.copyPageId(newDirectoryId);
-//			  directoryId = newDirectoryId;
-			  directoryPage.setData(newDirectoryPage.getData());
-			  
-			  break;			  
+			  return;
 		  }
 		  
 		  //if get here, need unpin and check the next valid directory page for an open slot
@@ -595,38 +1107,143 @@ public class HeapFile implements GlobalConst {
 		  directoryId.copyPageId(next);
 	  }
 	  
-	  //now the directory page and ID is known
-	  //so allocate space for new page and update the directory page for data page slot
+  } // protected void findDirSpace(PageId directoryId)
+
+  /**
+   * Adds the directory entry of a data page to the given directory page,
+   * which must have room for it, and to the free-space map.
+   */
+  protected void addDirEntry(PageId directoryId, PageId dataId, int recCnt,
+      int recBytes, int freeCnt) {
 	  
-	  newDataId = Minibase.BufferManager.newPage(newDataPage, 1);
-//	  System.out.println("insert page (new data page) pin page: " + newDataId.pid);
 //	  System.out.println("insert page (dir page) pin page: " + directoryId.pid);
+	  DirPage directoryPage = new DirPage();
 	  Minibase.BufferManager.pinPage(directoryId, directoryPage, PIN_DISKIO);
+	  byte[] before = LogMgr.snapshot(directoryPage);
 	  
 	  //make sure count and free space is correct for slot number
-	  entryCount = directoryPage.getEntryCnt();
-	  freeSpace = newDataPage.getFreeSpace();
+	  int entryCount = directoryPage.getEntryCnt();
+	  directoryPage.setPageId(entryCount, dataId);
+	  directoryPage.setRecCnt(entryCount, (short) recCnt);
+	  directoryPage.setFreeCnt(entryCount, (short) freeCnt);
+	  directoryPage.setEntryCnt((short) (entryCount + 1));
+	  boolean onHead = directoryId.equals(headId);
+	  if(onHead){
+		  directoryPage.addFileStats(recCnt, 1, freeCnt, recBytes);
+	  }
+	  LogMgr.logUpdate(directoryId, before, directoryPage);
 	  
-	  directoryPage.setPageId(entryCount, newDataId);
-	  directoryPage.setRecCnt(entryCount, (short) 0);
-	  directoryPage.setFreeCnt(entryCount, (short) freeSpace);
+	  //unpin directory page
+//	  System.out.println("insert page (dir page) unpin page: " + directoryId.pid);
+	  Minibase.BufferManager.unpinPage(directoryId, UNPIN_DIRTY);
+	  if(!onHead){
+		  addFileStats(recCnt, 1, freeCnt, recBytes);
+	  }
+	  FreeSpaceMap fsm = FreeSpaceMap.get(headId);
+	  fsm.update(dataId.pid, freeCnt);
+	  fsm.setEntry(dataId.pid, directoryId.pid, entryCount);
 	  
-	  entryCount++;
-	  directoryPage.setEntryCnt((short) entryCount);
+  } // protected void addDirEntry(PageId, PageId, int, int, int)
+
+  /**
+   * Gets the file's record count, data page count, free space and record
+   * bytes, from the head directory page, or by adding them up if it's too
+   * full to keep them.
+   */
+  protected int[] getFileStats() {
+	  
+	  DirPage headPage = new DirPage();
+	  Minibase.BufferManager.pinPage(headId, headPage, PIN_DISKIO);
+	  int[] stats = null;
+	  if(headPage.hasFileStats()){
+		  stats = new int[] {headPage.getFileRecCnt(),
+				  headPage.getFilePageCnt(), headPage.getFileFreeCnt(),
+				  headPage.getFileRecBytes()};
+	  }
+	  Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
+	  return (stats != null) ? stats : countFileStats();
 	  
-	  newDataPage.setCurPage(newDataId);
+  } // protected int[] getFileStats()
+
+  /**
+   * Adds up the file's record count, data page count and free space from
+   * all of its directory entries, and its record bytes from its data pages.
+   */
+  protected int[] countFileStats() {
 	  
-	  //unpin directory page and new data page
-//	  System.out.println("insert page (dir page) unpin page: " + directoryId.pid);
-//	  System.out.println("insert page (new data page) unpin page: " + newDataId.pid);
-	  Minibase.BufferManager.unpinPage(directoryId, UNPIN_DIRTY);
-	  Minibase.BufferManager.unpinPage(newDataId, UNPIN_CLEAN);
+	  int[] stats = new int[4];
+	  DirPage dirPage = new DirPage();
+	  DataPage dataPage = new DataPage();
+	  PageId dirId = new PageId();
+	  dirId.copyPageId(headId);
+	  while(dirId.pid != INVALID_PAGEID){
+		  Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+		  int entryCnt = dirPage.getEntryCnt();
+		  for(int i = 0; i < entryCnt; i++){
+			  stats[0] += dirPage.getRecCnt(i);
+			  stats[2] += dirPage.getFreeCnt(i);
+			  PageId dataId = dirPage.getPageId(i);
+			  Minibase.BufferManager.pinPage(dataId, dataPage, PIN_DISKIO);
+			  stats[3] += dataPage.getRecordBytes();
+			  Minibase.BufferManager.unpinPage(dataId, UNPIN_CLEAN);
+		  }
+		  stats[1] += entryCnt;
+		  PageId next = dirPage.getNextPage();
+		  Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+		  dirId.copyPageId(next);
+	  }
+	  return stats;
 	  
-	  return newDataId;
+  } // protected int[] countFileStats()
 
-	  //  throw new UnsupportedOperationException("Not implemented");
+  /**
+   * Adds the given changes to the file statistics on the head directory
+   * page.
+   */
+  protected void addFileStats(int deltaRec, int deltaPages, int deltaFree,
+		  int deltaBytes) {
+	  
+	  DirPage headPage = new DirPage();
+	  Minibase.BufferManager.pinPage(headId, headPage, PIN_DISKIO);
+	  byte[] before = LogMgr.snapshot(headPage);
+	  headPage.addFileStats(deltaRec, deltaPages, deltaFree, deltaBytes);
+	  LogMgr.logUpdate(headId, before, headPage);
+	  Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+	  
+  } // protected void addFileStats(int, int, int, int)
+
+  /**
+   * Charges the calling thread's disk I/O to this file, by name, until the
+   * returned tag is restored; a temporary file keeps the caller's tag.
+   */
+  protected String tagIO() {
+	  return DiskMgr.setIOTag(isTemp ? DiskMgr.getIOTag() : fileName);
+  }
+
+  /**
+   * Allocates and pins a new page for the heap file; a temporary file's
+   * pages come from the disk manager's (unlogged) temp segment.
+   */
+  protected PageId newPage(Page page) {
+	  return newPage(page, 1);
+  }
 
-  } // protected PageId insertPage()
+  /**
+   * Allocates a run of new pages for the heap file and pins the first one;
+   * a temporary file's pages come from the disk manager's (unlogged) temp
+   * segment.
+   */
+  protected PageId newPage(Page page, int run_size) {
+	  
+	  boolean wasTemp = DiskMgr.setTempAllocation(isTemp);
+	  try{
+		  return Minibase.BufferManager.newPage(page, run_size);
+	  }
+	  finally{
+		  DiskMgr.setTempAllocation(wasTemp);
+	  }
+	  
+  } // protected PageId newPage(Page page, int run_size)
 
   /**
    * Deletes the given data page and its directory entry from the heap file. If
@@ -649,18 +1266,27 @@ public class HeapFile implements GlobalConst {
 	  next.copyPageId(dirPage.getNextPage());
 	  	  
 	  //keep track of the curr dir page entry count
-	  int entryCount = 0;
+	  int entryCount = dirPage.getEntryCnt();
 	  
 	  //first free the page
 	  Minibase.BufferManager.freePage(pageno);
+	  FreeSpaceMap fsm = FreeSpaceMap.get(headId);
+	  fsm.remove(pageno.pid);
 	  
 	  //if there are more pages in the directory page
 	  //just compact the info and decrement the entry count
 	  //also do this if the curr page is the head id because don't want to remove that one
 	  if(entryCount > 1 || dirId.equals(headId)){
+		  byte[] before = LogMgr.snapshot(dirPage);
 		  dirPage.compact(index);
 		  entryCount--;
 		  dirPage.setEntryCnt((short) entryCount);
+		  
+		  //the following entries moved down a slot
+		  for(int i = index; i < entryCount; i++){
+			  fsm.setEntry(dirPage.getPageId(i).pid, dirId.pid, i);
+		  }
+		  LogMgr.logUpdate(dirId, before, dirPage);
 		  Minibase.BufferManager.unpinPage(dirId, UNPIN_DIRTY);
 	  }
 
@@ -669,12 +1295,16 @@ public class HeapFile implements GlobalConst {
 	  else{
 		  if(prev.pid != INVALID_PAGEID){
 			  Minibase.BufferManager.pinPage(prev, tempPage, PIN_DISKIO);
+			  byte[] before = LogMgr.snapshot(tempPage);
 			  tempPage.setNextPage(next);
+			  LogMgr.logUpdate(prev, before, tempPage);
 			  Minibase.BufferManager.unpinPage(prev, UNPIN_DIRTY);
 		  }
 		  if(next.pid != INVALID_PAGEID){
 			  Minibase.BufferManager.pinPage(next, tempPage, PIN_DISKIO);
-			  tempPage.setNextPage(prev);
+			  byte[] before = LogMgr.snapshot(tempPage);
+			  tempPage.setPrevPage(prev);
+			  LogMgr.logUpdate(next, before, tempPage);
 			  Minibase.BufferManager.unpinPage(next, UNPIN_DIRTY);			  
 		  }
 		  
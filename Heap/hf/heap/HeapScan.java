@@ -1,17 +1,27 @@
 package heap;
 
+import diskmgr.DiskMgr;
 import global.GlobalConst;
 import global.Minibase;
+import global.Page;
 import global.PageId;
 import global.RID;
 
+import java.nio.ByteBuffer;
+
 /**
  * A HeapScan object is created only through the function openScan() in the
  * HeapFile class. It supports the getNext interface which will simply retrieve
- * the next record in the file.
+ * the next record in the file.  Records can also be read in place, without
+ * copying them out of the buffer pool, with getNextView or forEach, or a
+ * block at a time with getNextBatch.  A scan opened with a RecordPredicate
+ * tests each record in place and only returns the ones that match.
  */
 public class HeapScan implements GlobalConst {
 
+  /** The file being scanned, which its disk I/O is charged to. */
+  protected final HeapFile hf;
+
   /** Currently pinned directory page (outer loop). */
   protected DirPage dirPage;
 
@@ -27,6 +37,15 @@ public class HeapScan implements GlobalConst {
   /** RID of the current record on the data page. */
   protected RID curRid;
 
+  /** Records the scan returns, or null for all of them. */
+  protected final RecordPredicate filter;
+
+  /** View of the current data page returned by getNextView, or null. */
+  protected ByteBuffer view;
+
+  /** Frame the view is over. */
+  protected byte[] viewData;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -34,18 +53,28 @@ public class HeapScan implements GlobalConst {
    * iterator fields.
    */
   protected HeapScan(HeapFile hf) {
+    this(hf, null);
+  }
+
+  /**
+   * Constructs a file scan returning only the records matching the filter
+   * (all of them if it is null).
+   */
+  protected HeapScan(HeapFile hf, RecordPredicate filter) {
 
     // pin the head page and get the count
+    this.hf = hf;
     dirPage = new DirPage();
-    Minibase.BufferManager.pinPage(hf.headId, dirPage, PIN_DISKIO);
+    pinPage(hf.headId, dirPage);
     count = dirPage.getEntryCnt();
 
     // initialize other data fields
     index = -1;
     dataPage = null;
     curRid = null;
+    this.filter = filter;
 
-  } // protected HeapScan(HeapFile hf)
+  } // protected HeapScan(HeapFile hf, RecordPredicate filter)
 
   /**
    * Called by the garbage collector when there are no more references to the
@@ -79,6 +108,8 @@ public class HeapScan implements GlobalConst {
     count = -1;
     index = -1;
     curRid = null;
+    view = null;
+    viewData = null;
 
   } // public void close()
 
@@ -87,9 +118,100 @@ public class HeapScan implements GlobalConst {
    * 
    * @param rid output parameter that identifies the returned record
    * @return the next record, or null if there is no next record
-   * @throws IllegalStateException if it encounters an empty data page
    */
   public byte[] getNext(RID rid) {
+    return next(rid) ? dataPage.selectRecord(curRid) : null;
+  }
+
+  /**
+   * Gets the next record in the file scan without copying it: the record
+   * runs from the returned view's position to its limit, in the pinned
+   * page.  The view is only valid until the next call or close.
+   * 
+   * @param rid output parameter that identifies the returned record
+   * @return a read-only view of the next record, or null if there is none
+   */
+  public ByteBuffer getNextView(RID rid) {
+    if (!next(rid)) {
+      return null;
+    }
+    if (viewData != dataPage.getData()) {
+      viewData = dataPage.getData();
+      view = null;
+    }
+    view = dataPage.recordView(curRid, view);
+    return view;
+  }
+
+  /**
+   * Passes every remaining record of the scan to the visitor, reading each
+   * in place in its pinned page (see RecordVisitor), then closes the scan.
+   * Nothing is allocated per record.
+   */
+  public void forEach(RecordVisitor visitor) {
+
+    // finish the current data page, then go through the rest page by page
+    boolean more = (curRid == null)
+        || dataPage.forEachRecord(curRid.slotno + 1, visitor, filter);
+    curRid = null;
+    while (more && nextDataPage()) {
+      more = dataPage.forEachRecord(0, visitor, filter);
+    }
+    close();
+
+  } // public void forEach(RecordVisitor visitor)
+
+  /**
+   * Fills the batch with the next records of the scan: the rest of the
+   * current data page, if any, then whole data pages while the batch has
+   * room for them.  The scan can go on with getNext afterwards.
+   * 
+   * @return the number of records in the batch, or 0 if there are no more
+   */
+  public int getNextBatch(RecordBatch batch) {
+    batch.clear();
+    if (curRid != null) {
+      if (dataPage.copyRecords(curRid.slotno + 1, batch, filter) == 0) {
+        batch.dropPage(); // leave its room to a page with records
+      }
+      curRid = null;
+    }
+    while (batch.hasRoom() && nextDataPage()) {
+      if (dataPage.copyRecords(0, batch, filter) == 0) {
+        batch.dropPage();
+      }
+    }
+    return batch.size();
+  }
+
+  /**
+   * Moves to the next record in the file scan that matches the filter.
+   * 
+   * @param rid output parameter that identifies the record
+   * @return false if there is no next record
+   */
+  protected boolean next(RID rid) {
+    while (step(rid)) {
+      if ((filter == null) || dataPage.matches(curRid, filter)) {
+
+        // a record moved to this page is known by its home RID
+        RID home = dataPage.getHomeRID(curRid);
+        if (home != null) {
+          rid.copyRID(home);
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Moves to the next record in the file scan, matching or not.
+   * 
+   * @param rid output parameter that identifies the record
+   * @return false if there is no next record
+   */
+  protected boolean step(RID rid) {
 
 	//If we are starting the scan, index = -1; dataPage = null; curRid = null;
 	//If we are iterating within a data page, curRid != null
@@ -101,7 +223,7 @@ public class HeapScan implements GlobalConst {
       curRid = dataPage.nextRecord(curRid);
       if (curRid != null) {
         rid.copyRID(curRid);
-        return dataPage.selectRecord(rid);
+        return true;
       } 
     } 
 
@@ -114,27 +236,18 @@ public class HeapScan implements GlobalConst {
     // If there is another data entry in this dir page, process its data page
     if (index < count - 1) {
 
-      // minor optimization
-      if (dataPage == null) {//we just started the scan
-        dataPage = new DataPage();
-      } else {//we are moving on to a new data page, so unpin the old one
-        Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN);
-      }
-      
       // pin the next data page
-      index++;
-      Minibase.BufferManager.pinPage(dirPage.getPageId(index), dataPage,
-          PIN_DISKIO);
+      pinNextDataPage();
 
       // reset the current record rid, get the first record and return it.
       //The scan is iterating within a data page.
       curRid = dataPage.firstRecord();
       if (curRid != null) {
         rid.copyRID(curRid);
-        return dataPage.selectRecord(rid);
+        return true;
       } else{
-    	int pageno = dataPage.getCurPage().pid;
-    	throw new IllegalStateException("Data page "+pageno+" is empty.");
+        // the page only holds forwarding stubs of records moved elsewhere
+        return step(rid);
       }
       //control never gets here
       
@@ -151,19 +264,74 @@ public class HeapScan implements GlobalConst {
 
       // unpin the current dir page, pin the next dir page
       Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN);
-      Minibase.BufferManager.pinPage(nextId, dirPage, PIN_DISKIO);
+      pinPage(nextId, dirPage);
 
       // reset the counters and try again
       count = dirPage.getEntryCnt();
       index = -1;
       curRid = null;
-      return getNext(rid);
+      return step(rid);
 
     } // if more dir pages
 
     // otherwise, no more records
-    return null;
+    return false;
 
-  } // public byte[] getNext(RID rid)
+  } // protected boolean step(RID rid)
+
+  /**
+   * Pins the next data page of the scan, moving on through the directory
+   * as needed, without going to its first record.
+   * 
+   * @return false if there are no more data pages
+   */
+  protected boolean nextDataPage() {
+    while (dirPage != null) {
+      if (index < count - 1) {
+        pinNextDataPage();
+        return true;
+      }
+      PageId nextId = dirPage.getNextPage();
+      if (nextId.pid == INVALID_PAGEID) {
+        return false;
+      }
+      Minibase.BufferManager.unpinPage(dirPage.getCurPage(), UNPIN_CLEAN);
+      pinPage(nextId, dirPage);
+      count = dirPage.getEntryCnt();
+      index = -1;
+    }
+    return false;
+  }
+
+  /**
+   * Unpins the current data page, if any, and pins the one of the next
+   * entry on the directory page.
+   */
+  protected void pinNextDataPage() {
+
+    // minor optimization
+    if (dataPage == null) {//we just started the scan
+      dataPage = new DataPage();
+    } else {//we are moving on to a new data page, so unpin the old one
+      Minibase.BufferManager.unpinPage(dataPage.getCurPage(), UNPIN_CLEAN);
+    }
+
+    // pin the next data page
+    index++;
+    pinPage(dirPage.getPageId(index), dataPage);
+
+  } // protected void pinNextDataPage()
+
+  /**
+   * Pins a page of the file, charging any disk I/O to the file.
+   */
+  protected void pinPage(PageId pageno, Page page) {
+    String prevTag = hf.tagIO();
+    try {
+      Minibase.BufferManager.pinPage(pageno, page, PIN_DISKIO);
+    } finally {
+      DiskMgr.setIOTag(prevTag);
+    }
+  }
 
 } // public class HeapScan implements GlobalConst
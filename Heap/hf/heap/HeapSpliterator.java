@@ -0,0 +1,150 @@
+package heap;
+
+import global.GlobalConst;
+import global.Minibase;
+import global.PageId;
+import global.RID;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splittable scan of a heap file's records, in directory order, for
+ * HeapFile.stream and parallelStream.  The data pages are listed with one
+ * walk of the directory when the scan starts, and splitting hands half of
+ * the pages not yet visited to a new scan, so workers read disjoint pages.
+ * <br><br>
+ * Each data page is copied out of the buffer pool while pinned, and its
+ * records are then taken from the copy.  The pin, copy and unpin are done
+ * holding the buffer manager's lock, so workers may share a buffer manager
+ * that is not thread-safe; the records are processed without it.
+ */
+class HeapSpliterator implements Spliterator<byte[]>, GlobalConst {
+
+  /** Ids of the data pages, in directory order. */
+  protected final int[] pids;
+
+  /** Number of records on the data pages before each one (and in all). */
+  protected final long[] before;
+
+  /** Index of the next data page to visit. */
+  protected int next;
+
+  /** Index past the last data page to visit. */
+  protected final int end;
+
+  /** Copy of the data page being visited. */
+  protected final DataPage page = new DataPage();
+
+  /** Next record on the copied page, or null if there is none. */
+  protected RID curRid;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs a scan of the given data pages.
+   */
+  protected HeapSpliterator(int[] pids, long[] before, int next, int end) {
+    this.pids = pids;
+    this.before = before;
+    this.next = next;
+    this.end = end;
+  }
+
+  /**
+   * Constructs a scan of all the data pages in the given directory.
+   */
+  HeapSpliterator(PageId headId) {
+    int[] ids = new int[16];
+    long[] counts = new long[ids.length + 1];
+    int num = 0;
+    DirPage dirPage = new DirPage();
+    PageId dirId = new PageId();
+    dirId.copyPageId(headId);
+    while (dirId.pid != INVALID_PAGEID) {
+      synchronized (Minibase.BufferManager) {
+        Minibase.BufferManager.pinPage(dirId, dirPage, PIN_DISKIO);
+        for (int i = 0; i < dirPage.getEntryCnt(); i++, num++) {
+          if (num == ids.length) {
+            ids = Arrays.copyOf(ids, num * 2);
+            counts = Arrays.copyOf(counts, num * 2 + 1);
+          }
+          ids[num] = dirPage.getPageId(i).pid;
+          counts[num + 1] = counts[num] + dirPage.getRecCnt(i);
+        }
+        PageId nextId = dirPage.getNextPage();
+        Minibase.BufferManager.unpinPage(dirId, UNPIN_CLEAN);
+        dirId.copyPageId(nextId);
+      }
+    }
+    pids = ids;
+    before = counts;
+    next = 0;
+    end = num;
+  }
+
+  /**
+   * Passes the next record to the action.
+   * 
+   * @return false if there are no more records
+   */
+  public boolean tryAdvance(Consumer<? super byte[]> action) {
+    while (curRid == null) {
+      if (next == end) {
+        return false;
+      }
+      copyPage(pids[next++]);
+      curRid = page.firstRecord();
+    }
+    byte[] record = page.selectRecord(curRid);
+    curRid = page.nextRecord(curRid);
+    action.accept(record);
+    return true;
+  }
+
+  /**
+   * Hands the first half of the data pages left to a new scan; a page
+   * partly visited stays with this one, which then does not split.
+   * 
+   * @return the new scan, or null if this one cannot be split
+   */
+  public Spliterator<byte[]> trySplit() {
+    if ((curRid != null) || (end - next < 2)) {
+      return null;
+    }
+    int mid = (next + end) >>> 1;
+    HeapSpliterator prefix = new HeapSpliterator(pids, before, next, mid);
+    next = mid;
+    return prefix;
+  }
+
+  /**
+   * Estimates the number of records left, from the directory's counts of
+   * the pages not yet visited.
+   */
+  public long estimateSize() {
+    return before[end] - before[next];
+  }
+
+  /**
+   * Records come in directory order and are never null.
+   */
+  public int characteristics() {
+    return ORDERED | NONNULL;
+  }
+
+  /**
+   * Copies the given data page out of the buffer pool.
+   */
+  protected void copyPage(int pid) {
+    DataPage frame = new DataPage();
+    PageId pageId = new PageId(pid);
+    synchronized (Minibase.BufferManager) {
+      Minibase.BufferManager.pinPage(pageId, frame, PIN_DISKIO);
+      page.copyPage(frame);
+      Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
+    }
+  }
+
+} // class HeapSpliterator implements Spliterator<byte[]>, GlobalConst
@@ -0,0 +1,171 @@
+package heap;
+
+import global.GlobalConst;
+import global.RID;
+
+/**
+ * Block of records filled by HeapScan.getNextBatch, laid out as primitive
+ * arrays so operators can go through them in tight loops.  Each data page
+ * of the batch is copied whole into the batch's data array, and record i
+ * is the getLengths()[i] bytes at getOffsets()[i] in it; its RID is
+ * getPageIds()[i] and getSlots()[i].  The arrays are reused by every fill.
+ */
+public class RecordBatch implements GlobalConst {
+
+  /** Most records a single data page can hold. */
+  protected static final int MAX_PAGE_RECORDS =
+      (PAGE_SIZE - HFPage.HEADER_SIZE) / HFPage.SLOT_SIZE;
+
+  /** Copies of the batch's data pages, one after another. */
+  protected final byte[] data;
+
+  /** Offset of each record in the data array. */
+  protected final int[] offsets;
+
+  /** Length of each record. */
+  protected final int[] lengths;
+
+  /** Data page id of each record's RID. */
+  protected final int[] pageIds;
+
+  /** Slot number of each record's RID. */
+  protected final int[] slots;
+
+  /** Most data pages in one fill. */
+  protected final int maxPages;
+
+  /** Number of data pages in the batch. */
+  protected int numPages;
+
+  /** Number of records in the batch. */
+  protected int size;
+
+  // --------------------------------------------------------------------------
+
+  /**
+   * Constructs an empty batch holding the records of up to the given
+   * number of data pages.
+   * 
+   * @throws IllegalArgumentException if maxPages is not positive
+   */
+  public RecordBatch(int maxPages) {
+    if (maxPages < 1) {
+      throw new IllegalArgumentException("Invalid batch size: " + maxPages);
+    }
+    this.maxPages = maxPages;
+    data = new byte[maxPages * PAGE_SIZE];
+    offsets = new int[maxPages * MAX_PAGE_RECORDS];
+    lengths = new int[offsets.length];
+    pageIds = new int[offsets.length];
+    slots = new int[offsets.length];
+  }
+
+  /**
+   * Gets the number of records in the batch.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the data array the records are in.
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * Gets the offsets of the records in the data array.
+   */
+  public int[] getOffsets() {
+    return offsets;
+  }
+
+  /**
+   * Gets the lengths of the records.
+   */
+  public int[] getLengths() {
+    return lengths;
+  }
+
+  /**
+   * Gets the page ids of the records' RIDs.
+   */
+  public int[] getPageIds() {
+    return pageIds;
+  }
+
+  /**
+   * Gets the slot numbers of the records' RIDs.
+   */
+  public int[] getSlots() {
+    return slots;
+  }
+
+  /**
+   * Gets the RID of a record in the batch.
+   * 
+   * @param rid output parameter set to the record's RID
+   * @return the rid parameter
+   */
+  public RID getRID(int i, RID rid) {
+    rid.pageno.pid = pageIds[i];
+    rid.slotno = slots[i];
+    return rid;
+  }
+
+  /**
+   * Gets a copy of a record in the batch.
+   */
+  public byte[] getRecord(int i) {
+    byte[] record = new byte[lengths[i]];
+    System.arraycopy(data, offsets[i], record, 0, lengths[i]);
+    return record;
+  }
+
+  /**
+   * Empties the batch.
+   */
+  public void clear() {
+    numPages = 0;
+    size = 0;
+  }
+
+  /**
+   * Tells whether the batch can take another data page.
+   */
+  boolean hasRoom() {
+    return numPages < maxPages;
+  }
+
+  /**
+   * Copies a data page into the batch.
+   * 
+   * @return the offset of the copy in the data array
+   */
+  int addPage(byte[] page) {
+    int base = numPages * PAGE_SIZE;
+    System.arraycopy(page, 0, data, base, PAGE_SIZE);
+    numPages++;
+    return base;
+  }
+
+  /**
+   * Takes back the last page added, none of whose records were added.
+   */
+  void dropPage() {
+    numPages--;
+  }
+
+  /**
+   * Adds a record of the last page added.
+   */
+  void add(int offset, int length, int pid, int slot) {
+    offsets[size] = offset;
+    lengths[size] = length;
+    pageIds[size] = pid;
+    slots[size] = slot;
+    size++;
+  }
+
+} // public class RecordBatch implements GlobalConst
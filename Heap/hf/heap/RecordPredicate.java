@@ -0,0 +1,17 @@
+package heap;
+
+/**
+ * Condition on the raw bytes of a record, given to HeapFile.openScan so the
+ * scan tests each record in place in the pinned page and only returns the
+ * ones that match.  It may be a lambda, or a FieldPredicate comparing one
+ * field with a constant.
+ */
+public interface RecordPredicate {
+
+  /**
+   * Tells whether the record stored at the given offset and length of the
+   * data array matches; the array must not be changed or kept.
+   */
+  public boolean test(byte[] data, int offset, int length);
+
+} // public interface RecordPredicate
@@ -0,0 +1,23 @@
+package heap;
+
+import global.RID;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads records in place, without copying them out of the buffer pool (see
+ * HeapScan.forEach), e.g. to filter or aggregate on fields.
+ */
+public interface RecordVisitor {
+
+  /**
+   * Called for each record with a read-only view of the pinned page holding
+   * it; the record runs from the view's position to its limit, so fields are
+   * read with absolute gets from the position.  The view and rid are reused
+   * for the next record and must not be kept after the call.
+   * 
+   * @return true to go on, false to stop the scan
+   */
+  public boolean visit(RID rid, ByteBuffer record);
+
+} // public interface RecordVisitor
@@ -0,0 +1,16 @@
+package heap;
+
+import global.RID;
+
+/**
+ * Receives the new location of each record that a heap file moves, e.g. so
+ * indexes on the file can be updated.
+ */
+public interface RelocationListener {
+
+  /**
+   * Called after a record has moved from oldRid to newRid.
+   */
+  public void recordMoved(RID oldRid, RID newRid);
+
+} // public interface RelocationListener
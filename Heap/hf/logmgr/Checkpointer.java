@@ -0,0 +1,182 @@
+package logmgr;
+
+import global.Minibase;
+import global.Page;
+import global.PageId;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Background thread that keeps restart recovery short without the latency
+ * spike of flushing the whole buffer pool.  Every interval it takes a fuzzy
+ * checkpoint, then writes out the pages that were already dirty at that
+ * checkpoint, oldest first, at no more than a fixed rate.  Each page written
+ * moves the oldest recovery LSN of the next checkpoint forward.
+ * <br><br>
+ * The thread shares the buffer pool with the foreground, so it can only run
+ * with a buffer manager whose methods are synchronized on itself (see
+ * isThreadSafe); otherwise take checkpoints with LogMgr.checkpoint.
+ */
+public class Checkpointer extends Thread {
+
+  /** Log manager being checkpointed. */
+  protected final LogMgr logmgr;
+
+  /** Time between checkpoints (in ms). */
+  protected final long interval;
+
+  /** Minimum time between two page writes (in ns). */
+  protected final long page_delay;
+
+  /** False once shutdown has been requested. */
+  protected volatile boolean running = true;
+
+  /** Number of pages written so far. */
+  protected volatile long flush_cnt;
+
+  /**
+   * Constructs a checkpointer for the given log; call start to run it.
+   *
+   * @throws IllegalArgumentException if the interval or rate is not positive
+   */
+  public Checkpointer(LogMgr logmgr, long interval_ms, int pages_per_sec) {
+    super("Checkpointer");
+    if ((interval_ms <= 0) || (pages_per_sec <= 0)) {
+      throw new IllegalArgumentException("Invalid checkpoint interval or rate");
+    }
+    this.logmgr = logmgr;
+    interval = interval_ms;
+    page_delay = 1000000000L / pages_per_sec;
+    setDaemon(true);
+  }
+
+  /**
+   * Tells whether the given buffer manager serializes its calls on its own
+   * monitor, so a background thread holding that monitor excludes the
+   * foreground.  Only such a buffer manager can be shared with a
+   * Checkpointer.
+   */
+  public static boolean isThreadSafe(Object bufmgr) {
+    try {
+      Class<?> type = bufmgr.getClass();
+      Method[] methods = {
+          type.getMethod("pinPage", PageId.class, Page.class, int.class),
+          type.getMethod("unpinPage", PageId.class, boolean.class),
+          type.getMethod("freePage", PageId.class),
+          type.getMethod("flushPage", PageId.class),
+          type.getMethod("flushAllFrames") };
+      for (Method method : methods) {
+        if (!Modifier.isSynchronized(method.getModifiers())) {
+          return false;
+        }
+      }
+      return true;
+    } catch (NoSuchMethodException exc) {
+      return false;
+    }
+  }
+
+  /**
+   * Takes checkpoints and writes out old dirty pages until shut down.
+   */
+  public void run() {
+
+    while (running) {
+
+      // log the tables, then write out what was dirty before them
+      long deadline = System.currentTimeMillis() + interval;
+      logmgr.checkpoint();
+      long begin = logmgr.getCheckpointLSN();
+      long next = System.nanoTime();
+      for (int pid : logmgr.getDirtyPages()) {
+        long rec = logmgr.getRecLSN(new PageId(pid));
+        if (rec >= begin) {
+          break;
+        }
+        if ((rec == LogMgr.NULL_LSN) || !pause_until(next)) {
+          continue;
+        }
+        if (flush_page(new PageId(pid))) {
+          next = Math.max(next, System.nanoTime() - page_delay) + page_delay;
+        }
+      }
+
+      // wait for the next checkpoint
+      pause(deadline - System.currentTimeMillis());
+
+    } // while
+
+  } // public void run()
+
+  /**
+   * Asks the thread to stop and waits until it has.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      running = false;
+      notifyAll();
+    }
+    try {
+      join();
+    } catch (InterruptedException exc) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Gets the number of pages written so far.
+   */
+  public long getFlushCount() {
+    return flush_cnt;
+  }
+
+  /**
+   * Writes one page out through the buffer manager, if it is not pinned.
+   *
+   * @return true if the page was written
+   */
+  protected boolean flush_page(PageId pageno) {
+
+    // the same monitor as the foreground's calls (see isThreadSafe)
+    synchronized (Minibase.BufferManager) {
+      try {
+        Minibase.BufferManager.flushPage(pageno);
+      } catch (IllegalArgumentException exc) {
+        // pinned or no longer buffered; the next round will catch it
+        return false;
+      }
+    }
+    flush_cnt++;
+    return true;
+  }
+
+  /**
+   * Waits until the given System.nanoTime, unless shut down first.
+   *
+   * @return true if still running
+   */
+  protected boolean pause_until(long nanos) {
+    long wait = nanos - System.nanoTime();
+    if (wait > 0) {
+      pause((wait + 999999) / 1000000);
+    }
+    return running;
+  }
+
+  /**
+   * Waits for the given time (in ms), unless shut down first.
+   */
+  protected synchronized void pause(long millis) {
+    long end = System.currentTimeMillis() + millis;
+    while (running && (millis > 0)) {
+      try {
+        wait(millis);
+      } catch (InterruptedException exc) {
+        return;
+      }
+      millis = end - System.currentTimeMillis();
+    }
+  }
+
+} // public class Checkpointer extends Thread
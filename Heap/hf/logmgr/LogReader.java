@@ -0,0 +1,145 @@
+package logmgr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the log file sequentially in large chunks, for restart recovery.
+ * Stops at the end of the log or at the first torn or damaged record.  The
+ * file starts with a header giving the LSN of its first record (see
+ * LogMgr.truncate), so a record is found at its LSN minus that base plus
+ * the header size.
+ */
+public class LogReader {
+
+  /** Size of each sequential read (in bytes). */
+  protected static final int READ_SIZE = 256 * 1024;
+
+  /** Channel to the log file. */
+  protected final FileChannel log;
+
+  /** File position of LSN 0, which may be negative. */
+  protected final long delta;
+
+  /** Buffered log bytes; the position is at the next record. */
+  protected ByteBuffer buf = ByteBuffer.allocate(READ_SIZE);
+
+  /** LSN of the next record. */
+  protected long next;
+
+  /**
+   * Constructs a reader starting at the record with the given LSN, in a log
+   * file whose first record has the given base LSN.
+   */
+  public LogReader(FileChannel log, long base, long start) {
+    this.log = log;
+    delta = LogMgr.HEADER_SIZE - base;
+    next = start;
+    buf.limit(0);
+  }
+
+  /**
+   * Reads the next record.
+   *
+   * @return the record, or null at the (possibly torn) end of the log
+   */
+  public LogRecord next() throws IOException {
+    while (true) {
+      LogRecord rec = LogRecord.readData(buf);
+      if (rec != null) {
+        if (rec.lsn != next) {
+          return null;
+        }
+        next += rec.getLength();
+        return rec;
+      }
+      if (!fill()) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Gets the LSN of the next record, which after the last one is the end
+   * of the valid log.
+   */
+  public long getPosition() {
+    return next;
+  }
+
+  /**
+   * Reads more of the log after the buffered bytes, growing the buffer if
+   * the next record does not fit.
+   *
+   * @return false if nothing more could be read
+   */
+  protected boolean fill() throws IOException {
+
+    // a length past the end of the file means a torn record
+    long size = log.size() - delta;
+    long file_pos = next + buf.remaining();
+    if (file_pos >= size) {
+      return false;
+    }
+    if (buf.remaining() >= 4) {
+      int length = buf.getInt(buf.position());
+      if ((length < 0) || (next + length > size)) {
+        return false;
+      }
+      if (length > buf.capacity()) {
+        ByteBuffer bigger = ByteBuffer.allocate(length);
+        bigger.put(buf).flip();
+        buf = bigger;
+      }
+    }
+
+    // append what follows in the file
+    buf.compact();
+    int cnt = log.read(buf, file_pos + delta);
+    buf.flip();
+    return cnt > 0;
+
+  } // protected boolean fill()
+
+  /**
+   * Reads the single record with the given LSN, in a log file whose first
+   * record has the given base LSN.
+   *
+   * @throws IllegalArgumentException if there is no valid record there
+   */
+  public static LogRecord read(FileChannel log, long base, long lsn)
+      throws IOException {
+    long pos = lsn - base + LogMgr.HEADER_SIZE;
+    if (lsn < base) {
+      throw new IllegalArgumentException("No log record at " + lsn);
+    }
+    ByteBuffer len = ByteBuffer.allocate(4);
+    read_fully(log, len, pos);
+    int length = len.getInt(0);
+    if ((length < LogRecord.HEADER_SIZE) || (pos + length > log.size())) {
+      throw new IllegalArgumentException("No log record at " + lsn);
+    }
+    ByteBuffer data = ByteBuffer.allocate(length);
+    read_fully(log, data, pos);
+    data.flip();
+    LogRecord rec = LogRecord.readData(data);
+    if ((rec == null) || (rec.lsn != lsn)) {
+      throw new IllegalArgumentException("No log record at " + lsn);
+    }
+    return rec;
+  }
+
+  /**
+   * Fills the buffer from the given file position, or up to end of file.
+   */
+  protected static void read_fully(FileChannel log, ByteBuffer data, long pos)
+      throws IOException {
+    while (data.hasRemaining()) {
+      if (log.read(data, pos + data.position()) < 0) {
+        break;
+      }
+    }
+  }
+
+} // public class LogReader
@@ -6,6 +6,8 @@ import global.RID;
 import heap.HeapFile; 
 import heap.HeapScan;
 
+import java.util.Arrays;
+
 /**
  * Test suite for the heap layer.
  */
@@ -592,22 +594,33 @@ class HFTest extends TestDriver {
     // the records will cause any problem.
     System.out.println("  - Try to change the size of a record\n");
 
-    //update the record with a shorter record - should fail
+    //update the record with a shorter record, then with one too long for
+    // its page, then with the original; the RID stays the same throughout
     DummyRecord rec = new DummyRecord(record);
     byte[] newrecord = null;
     rec.name = "short";
     newrecord = rec.toByteArray();
+    byte[] longrecord = new byte[PAGE_SIZE / 2];
+    System.arraycopy(newrecord, 0, longrecord, 0, newrecord.length);
     try {
+      System.out.println("  ** Shortening a record");
       f.updateRecord(rid, newrecord);
-      status = FAIL;
-      System.err.print("Short update: The expected exception was not thrown\n");
-    } catch (IllegalArgumentException e) {
-          System.out.println("  ** Shortening a record");
-          System.out.println("  --> Failed as expected \n");
+      boolean same = Arrays.equals(f.selectRecord(rid), newrecord);
+      System.out.println("  ** Lengthening a record");
+      f.updateRecord(rid, longrecord);
+      same &= Arrays.equals(f.selectRecord(rid), longrecord);
+      f.updateRecord(rid, record);
+      same &= Arrays.equals(f.selectRecord(rid), record);
+      if (same) {
+        System.out.println("  --> Succeeded \n");
+      } else {
+        status = FAIL;
+        System.err.print("*** Record changed by resizing updates\n");
+      }
     } catch (Exception e) {
        e.printStackTrace();
        status = FAIL;
-       System.err.print("Short update: The expected exception was not thrown\n");
+       System.err.print("*** Error resizing a record\n");
     }
 
     scan.close();
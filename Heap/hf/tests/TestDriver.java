@@ -1,10 +1,15 @@
 package tests;
 
 import global.GlobalConst;
+import diskmgr.CompressedDiskMgr;
+import diskmgr.DiskMgr;
+import diskmgr.IOStats;
+import diskmgr.MemDiskMgr;
 import global.Minibase;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.Random;
 
 /**
@@ -30,6 +35,12 @@ class TestDriver implements GlobalConst {
   /** Default buffer pool size (in pages) */
   protected int BUF_SIZE = 100;
 
+  /** Keep the database in memory instead (run with -Dminibase.memory=true). */
+  protected boolean IN_MEMORY = Boolean.getBoolean("minibase.memory");
+
+  /** Store the pages compressed (run with -Dminibase.compress=true). */
+  protected boolean COMPRESS = Boolean.getBoolean("minibase.compress");
+
   // --------------------------------------------------------------------------
 
   /** Random generator; use the same seed to make tests deterministic. */
@@ -42,9 +53,9 @@ class TestDriver implements GlobalConst {
 
     public String desc;
 
-    public int reads;
+    public long reads;
 
-    public int writes;
+    public long writes;
 
     public int allocs;
 
@@ -72,7 +83,7 @@ class TestDriver implements GlobalConst {
    */
   protected void create_minibase() {
     System.out.println("Creating database...\n");
-    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false);
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, false, new_diskmgr());
   }
 
   /**
@@ -80,7 +91,17 @@ class TestDriver implements GlobalConst {
    */
   protected void load_minibase() {
     System.out.println("Loading database...\n" );
-    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, true);
+    new Minibase(DB_PATH, DB_SIZE, BUF_SIZE, true, new_diskmgr());
+  }
+
+  /**
+   * Gets a disk manager for the database, in memory or on disk.
+   */
+  protected DiskMgr new_diskmgr() {
+    if (IN_MEMORY) {
+      return new MemDiskMgr();
+    }
+    return COMPRESS ? new CompressedDiskMgr() : new DiskMgr();
   }
 
   // --------------------------------------------------------------------------
@@ -137,6 +158,10 @@ class TestDriver implements GlobalConst {
         .println("  *** Remaining Pinned: "
             + (numbufs - Minibase.BufferManager.getNumUnpinned()) + " / "
             + numbufs);
+    System.out.println("  *** Read latency:     "
+        + Minibase.DiskManager.getIOStats().getReadLatency());
+    System.out.println("  *** Write latency:    "
+        + Minibase.DiskManager.getIOStats().getWriteLatency());
 
   } // protected void printCounters()
 
@@ -170,6 +195,15 @@ class TestDriver implements GlobalConst {
 
     } // for
     System.out.println(seperator);
+    System.out.println("Read latency:\t"
+        + Minibase.DiskManager.getIOStats().getReadLatency());
+    System.out.println("Write latency:\t"
+        + Minibase.DiskManager.getIOStats().getWriteLatency());
+    for (Map.Entry<String, IOStats> tag : Minibase.DiskManager
+        .getTaggedIOStats().entrySet()) {
+      System.out.println(tag.getKey() + ":\t" + tag.getValue().getReads()
+          + " reads, " + tag.getValue().getWrites() + " writes");
+    }
 
   } // protected void printSummary(int sepcnt)
 
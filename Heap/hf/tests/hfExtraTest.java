@@ -1,14 +1,28 @@
 
 package tests;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
+import global.AttrOperator;
+import global.AttrType;
 import global.Convert;
 import global.Minibase;
+import global.Page;
 import global.PageId;
 import global.RID;
+import heap.FieldPredicate;
 import heap.HeapFile; 
 import heap.HeapScan;
+import heap.RecordBatch;
+import heap.RecordPredicate;
+import heap.RecordVisitor;
+import heap.RelocationListener;
 import tests.HFTest.DummyRecord;
 
 /**
@@ -44,6 +58,17 @@ class hfExtraTest extends TestDriver {
     //status &= hft.test2();
   //  status &= hft.test3();
     status &= hft.test6();
+    status &= hft.test7();
+    status &= hft.test8();
+    status &= hft.test9();
+    status &= hft.test10();
+    status &= hft.test11();
+    status &= hft.test12();
+    status &= hft.test13();
+    status &= hft.test14();
+    status &= hft.test15();
+    status &= hft.test16();
+    status &= hft.test17();
 
     // display the final results
     System.out.println();
@@ -194,7 +219,7 @@ class hfExtraTest extends TestDriver {
     //update the record with a shorter record - should fail
 
       System.out.println("  - Try to insert a max size record (page size - header size - one slot size)");
-      record = new byte[PAGE_SIZE - 20 - 4];
+      record = new byte[HeapFile.MAX_RECORD_SIZE];
       try {
         rid = f.insertRecord(record);
         //status = PASS;
@@ -212,6 +237,820 @@ class hfExtraTest extends TestDriver {
 
   } // protected boolean test4()
 
+  /**
+   * Compacts a file after mass deletes and shrinks the database.
+   */
+  protected boolean test7() {
+
+    System.out.println("\n  Test 7: Compact a file and shrink the database\n");
+    boolean status = PASS;
+    final HashMap<Integer, RID> rids = new HashMap<Integer, RID>();
+    HeapFile f = new HeapFile("file_7");
+
+    System.out.println("  - Add " + FILE_SIZE + " records, then delete 3 of 4\n");
+    fill(f, rids, 0, FILE_SIZE);
+    for (int i = 0; i < FILE_SIZE; i++) {
+      if (i % 4 != 0) {
+        f.deleteRecord(rids.remove(i));
+      }
+    }
+    int allocs = Minibase.DiskManager.getAllocCount();
+
+    System.out.println("  - Compact the file, following the moved records\n");
+    final HashMap<RID, Integer> keys = new HashMap<RID, Integer>();
+    for (Integer key : rids.keySet()) {
+      keys.put(rids.get(key), key);
+    }
+    int freed = f.compact(new RelocationListener() {
+      public void recordMoved(RID oldRid, RID newRid) {
+        Integer key = keys.remove(oldRid);
+        rids.put(key, newRid);
+        keys.put(newRid, key);
+      }
+    });
+    // (emptied directory pages are freed too)
+    if ((freed == 0) || (Minibase.DiskManager.getAllocCount() > allocs - freed)) {
+      System.err.println("*** Compacting freed " + freed + " pages\n");
+      status = FAIL;
+    }
+    status &= checkUnpinned("Compacting");
+
+    System.out.println("  - Check every record by its new RID\n");
+    status &= checkRecords(f, rids);
+
+    System.out.println("  - Shrink the database file\n");
+    int pages = Minibase.DiskManager.shrinkDB();
+    if ((pages >= DB_SIZE) || (IN_MEMORY == false
+        && new java.io.File(DB_PATH).length() > (long) pages * PAGE_SIZE)) {
+      System.err.println("*** Database file was not shrunk\n");
+      status = FAIL;
+    }
+    f.deleteFile();
+
+    if (status == PASS)
+      System.out.println("  Test 7 completed successfully.\n");
+    return status;
+
+  } // protected boolean test7()
+
+  /**
+   * Fills the space freed by deletes before adding pages, and forgets the
+   * file's free space when the file is deleted.
+   */
+  protected boolean test8() {
+
+    System.out.println("\n  Test 8: Reuse free space after deletes\n");
+    boolean status = PASS;
+    HashMap<Integer, RID> rids = new HashMap<Integer, RID>();
+    int allocs = Minibase.DiskManager.getAllocCount();
+    HeapFile f = new HeapFile("file_8");
+
+    System.out.println("  - Add " + FILE_SIZE + " records, then delete every other one\n");
+    fill(f, rids, 0, FILE_SIZE);
+    for (int i = 1; i < FILE_SIZE; i += 2) {
+      f.deleteRecord(rids.remove(i));
+    }
+    int pages = f.getPageCnt();
+
+    System.out.println("  - Add shorter records back, into the freed space\n");
+    for (int i = 1; i < FILE_SIZE; i += 2) {
+      rids.put(i, f.insertRecord(record(i, "")));
+    }
+    if (f.getPageCnt() != pages) {
+      System.err.println("*** File grew from " + pages + " to "
+          + f.getPageCnt() + " pages\n");
+      status = FAIL;
+    }
+    status &= checkRecords(f, rids);
+    status &= checkUnpinned("Inserting");
+
+    System.out.println("  - Delete the file, then create it again\n");
+    f.deleteFile();
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      System.err.println("*** Deleting the file left "
+          + (Minibase.DiskManager.getAllocCount() - allocs) + " pages\n");
+      status = FAIL;
+    }
+    f = new HeapFile("file_8");
+    rid = f.insertRecord(new byte[100]);
+    if ((f.getRecCnt() != 1) || (f.getPageCnt() != 1)
+        || (f.selectRecord(rid).length != 100)) {
+      System.err.println("*** New file reports " + f.getRecCnt()
+          + " records on " + f.getPageCnt() + " pages\n");
+      status = FAIL;
+    }
+    f.deleteFile();
+
+    if (status == PASS)
+      System.out.println("  Test 8 completed successfully.\n");
+    return status;
+
+  } // protected boolean test8()
+
+  /**
+   * Bulk-loads records, with room for full runs of pages and then with
+   * only single free pages left.
+   */
+  protected boolean test9() {
+
+    System.out.println("\n  Test 9: Bulk insert records\n");
+    boolean status = PASS;
+    HeapFile f = new HeapFile("file_9");
+
+    System.out.println("  - Bulk insert " + FILE_SIZE + " records\n");
+    status &= bulkInsert(f, FILE_SIZE);
+
+    System.out.println("  - Fill the database, then free every other page\n");
+    ArrayList<PageId> held = new ArrayList<PageId>();
+    for (int run = 64; run > 0; run /= 2) {
+      try {
+        while (true) {
+          PageId first = Minibase.DiskManager.allocate_page(run);
+          for (int i = 0; i < run; i++) {
+            held.add(new PageId(first.pid + i));
+          }
+        }
+      } catch (IllegalStateException full) {
+        // try a shorter run
+      }
+    }
+    for (int i = held.size() - 1; i >= 0; i -= 2) {
+      Minibase.DiskManager.deallocate_page(held.remove(i));
+    }
+
+    System.out.println("  - Bulk insert " + FILE_SIZE / 10
+        + " more records into the single pages\n");
+    status &= bulkInsert(f, FILE_SIZE / 10);
+    if ((status == PASS) && (f.getRecCnt() != FILE_SIZE + FILE_SIZE / 10)) {
+      System.err.println("*** File reports " + f.getRecCnt() + " records\n");
+      status = FAIL;
+    }
+    for (PageId pageno : held) {
+      Minibase.DiskManager.deallocate_page(pageno);
+    }
+    f.deleteFile();
+
+    if (status == PASS)
+      System.out.println("  Test 9 completed successfully.\n");
+    return status;
+
+  } // protected boolean test9()
+
+  /**
+   * Bulk inserts the given number of records and reads them back by the
+   * RIDs returned.
+   */
+  protected boolean bulkInsert(HeapFile f, int count) {
+
+    ArrayList<byte[]> records = new ArrayList<byte[]>();
+    for (int i = 0; i < count; i++) {
+      records.add(record(i, "record" + i));
+    }
+    long[] rids;
+    try {
+      rids = f.insertRecords(records.iterator());
+    } catch (Exception e) {
+      System.err.println("*** Error bulk inserting records\n");
+      e.printStackTrace();
+      return FAIL;
+    }
+    if (rids.length != count) {
+      System.err.println("*** Got " + rids.length + " RIDs, not " + count + "\n");
+      return FAIL;
+    }
+    for (int i = 0; i < count; i++) {
+      DummyRecord rec = new DummyRecord(f.selectRecord(HeapFile.unpackRID(rids[i])));
+      if (rec.ival != i) {
+        System.err.println("*** Record " + i + " differs\n");
+        return FAIL;
+      }
+    }
+    return checkUnpinned("Bulk insert");
+
+  } // protected boolean bulkInsert(HeapFile f, int count)
+
+  /**
+   * Appends records in append-only mode, leaving the free space in the
+   * file's earlier pages alone.
+   */
+  protected boolean test10() {
+
+    System.out.println("\n  Test 10: Insert in append-only mode\n");
+    boolean status = PASS;
+    HashMap<Integer, RID> rids = new HashMap<Integer, RID>();
+    HashSet<Integer> oldPages = new HashSet<Integer>();
+    HeapFile f = new HeapFile("file_10");
+
+    System.out.println("  - Add " + FILE_SIZE / 2 + " records, then delete every other one\n");
+    fill(f, rids, 0, FILE_SIZE / 2);
+    for (RID old : rids.values()) {
+      oldPages.add(old.pageno.pid);
+    }
+    for (int i = 1; i < FILE_SIZE / 2; i += 2) {
+      f.deleteRecord(rids.remove(i));
+    }
+
+    System.out.println("  - Append " + FILE_SIZE / 2 + " records\n");
+    f.setAppendOnly(true);
+    fill(f, rids, FILE_SIZE / 2, FILE_SIZE);
+    f.setAppendOnly(false);
+    for (int i = FILE_SIZE / 2; (i < FILE_SIZE) && (status == PASS); i++) {
+      if (oldPages.contains(rids.get(i).pageno.pid)) {
+        System.err.println("*** Record " + i + " went to old page "
+            + rids.get(i).pageno.pid + "\n");
+        status = FAIL;
+      }
+    }
+    status &= checkRecords(f, rids);
+    status &= checkUnpinned("Appending");
+    f.deleteFile();
+
+    if (status == PASS)
+      System.out.println("  Test 10 completed successfully.\n");
+    return status;
+
+  } // protected boolean test10()
+
+  /**
+   * Scans a file with sequential and parallel streams, and with split
+   * scans.
+   */
+  protected boolean test11() {
+
+    System.out.println("\n  Test 11: Scan with streams\n");
+    boolean status = PASS;
+    HeapFile f = new HeapFile("file_11");
+    fill(f, null, 0, FILE_SIZE);
+
+    System.out.println("  - Count the records with a sequential stream\n");
+    if (f.stream().count() != FILE_SIZE) {
+      System.err.println("*** Stream found " + f.stream().count() + " records\n");
+      status = FAIL;
+    }
+
+    System.out.println("  - Collect the records with a parallel stream\n");
+    Set<Integer> keys = f.parallelStream()
+        .map(data -> new DummyRecord(data).ival)
+        .collect(Collectors.toSet());
+    for (int i = 0; i < FILE_SIZE; i++) {
+      if ((status == PASS) && !keys.contains(i)) {
+        System.err.println("*** Parallel stream missed record " + i + "\n");
+        status = FAIL;
+      }
+    }
+    if (keys.size() != FILE_SIZE) {
+      System.err.println("*** Parallel stream found " + keys.size() + " records\n");
+      status = FAIL;
+    }
+
+    System.out.println("  - Split a scan in two\n");
+    Spliterator<byte[]> first = f.spliterator();
+    Spliterator<byte[]> second = first.trySplit();
+    final int[] counts = new int[2];
+    if (second == null) {
+      System.err.println("*** Scan did not split\n");
+      status = FAIL;
+    } else {
+      first.forEachRemaining(data -> counts[0]++);
+      second.forEachRemaining(data -> counts[1]++);
+      if ((counts[0] == 0) || (counts[1] == 0)
+          || (counts[0] + counts[1] != FILE_SIZE)) {
+        System.err.println("*** Split scans found " + counts[0] + " and "
+            + counts[1] + " records\n");
+        status = FAIL;
+      }
+    }
+    status &= checkUnpinned("Scanning");
+    f.deleteFile();
+
+    if (status == PASS)
+      System.out.println("  Test 11 completed successfully.\n");
+    return status;
+
+  } // protected boolean test11()
+
+  /**
+   * Scans with predicates on integer and string fields, which are tested
+   * in place on the data pages.
+   */
+  protected boolean test12() {
+
+    System.out.println("\n  Test 12: Scan with field predicates\n");
+    boolean status = PASS;
+    HeapFile f = new HeapFile("file_12");
+    for (int i = 0; i < FILE_SIZE; i++) {
+      f.insertRecord(slotRecord(i, 12));
+    }
+    // ival 0, but too short to hold the name field
+    f.insertRecord(new byte[8]);
+
+    System.out.println("  - Scan for ival < 100\n");
+    ArrayList<Integer> keys = scanKeys(f, new FieldPredicate(0, 0,
+        AttrType.INTEGER, AttrOperator.LT, 100));
+    if (keys.size() != 101) {
+      System.err.println("*** Scan found " + keys.size() + " records\n");
+      status = FAIL;
+    }
+    for (Integer key : keys) {
+      if ((status == PASS) && ((key < 0) || (key >= 100))) {
+        System.err.println("*** Scan found record " + key + "\n");
+        status = FAIL;
+      }
+    }
+
+    System.out.println("  - Scan for name = \"record42\"\n");
+    keys = scanKeys(f, new FieldPredicate(8, 12, AttrType.STRING,
+        AttrOperator.EQ, "record42"));
+    if ((keys.size() != 1) || (keys.get(0) != 42)) {
+      System.err.println("*** Scan found records " + keys + "\n");
+      status = FAIL;
+    }
+
+    System.out.println("  - Scan for name > \"record9\"\n");
+    keys = scanKeys(f, new FieldPredicate(8, 12, AttrType.STRING,
+        AttrOperator.GT, "record9"));
+    if (keys.size() != 110) {
+      System.err.println("*** Scan found " + keys.size() + " records\n");
+      status = FAIL;
+    }
+    status &= checkUnpinned("Scanning");
+    f.deleteFile();
+
+    if (status == PASS)
+      System.out.println("  Test 12 completed successfully.\n");
+    return status;
+
+  } // protected boolean test12()
+
+  /**
+   * Gets the ival of each record matching the filter.
+   */
+  protected ArrayList<Integer> scanKeys(HeapFile f, RecordPredicate filter) {
+
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    HeapScan scan = f.openScan(filter);
+    byte[] data;
+    while ((data = scan.getNext(rid)) != null) {
+      keys.add(Convert.getIntValue(0, data));
+    }
+    scan.close();
+    return keys;
+
+  } // protected ArrayList<Integer> scanKeys(HeapFile f, RecordPredicate filter)
+
+  /**
+   * Reuses the slots of deleted records, and packs a page's records when a
+   * new one only fits in the holes between them.
+   */
+  protected boolean test13() {
+
+    System.out.println("\n  Test 13: Reuse slots and compact a page\n");
+    boolean status = PASS;
+    HashMap<Integer, RID> rids = new HashMap<Integer, RID>();
+    HashSet<Integer> freeSlots = new HashSet<Integer>();
+    HeapFile f = new HeapFile("file_13");
+
+    // a page holds as many records as fit with their slots; the holes left
+    // by deleting some (less the one refilled) plus the rest of the page
+    // then hold one record bigger than any hole, as long as room for a slot
+    // is left too (an insert asks for it, even when it reuses one)
+    int recLen = slotRecord(0, 32).length;
+    int space = HeapFile.MAX_RECORD_SIZE + HeapFile.RECORD_OVERHEAD;
+    int perPage = space / (recLen + HeapFile.RECORD_OVERHEAD);
+    int deletes = 5;
+    int bigLen = space - perPage * (recLen + HeapFile.RECORD_OVERHEAD)
+        + (deletes - 1) * recLen - HeapFile.RECORD_OVERHEAD;
+
+    System.out.println("  - Fill a page with " + perPage + " records, then delete "
+        + deletes + "\n");
+    for (int i = 0; i < perPage; i++) {
+      rids.put(i, f.insertRecord(slotRecord(i, 32)));
+    }
+    for (int i = 1; i < 2 * deletes; i += 2) {
+      f.deleteRecord(rids.get(i));
+      freeSlots.add(rids.remove(i).slotno);
+    }
+    if (f.getPageCnt() != 1) {
+      System.err.println("*** File has " + f.getPageCnt() + " pages\n");
+      status = FAIL;
+    }
+
+    System.out.println("  - Add a record of the same size\n");
+    rids.put(perPage, f.insertRecord(slotRecord(perPage, 32)));
+    if (!freeSlots.remove(rids.get(perPage).slotno)) {
+      System.err.println("*** Record went to slot " + rids.get(perPage).slotno
+          + "\n");
+      status = FAIL;
+    }
+
+    System.out.println("  - Add a " + bigLen + "-byte record that only fits "
+        + "in the holes\n");
+    int key = perPage + 1;
+    rids.put(key, f.insertRecord(slotRecord(key, bigLen - (recLen - 32))));
+    if (!freeSlots.remove(rids.get(key).slotno) || (f.getPageCnt() != 1)) {
+      System.err.println("*** Record went to slot " + rids.get(key).slotno
+          + " of " + f.getPageCnt() + " pages\n");
+      status = FAIL;
+    }
+    status &= checkRecords(f, rids);
+    status &= checkUnpinned("Inserting");
+    f.deleteFile();
+
+    if (status == PASS)
+      System.out.println("  Test 13 completed successfully.\n");
+    return status;
+
+  } // protected boolean test13()
+
+  /**
+   * Keeps the record count and average record length on the head page
+   * through inserts, deletes and resizes, and rebuilds them for a head page
+   * written before the record bytes were kept.
+   */
+  protected boolean test14() {
+
+    System.out.println("\n  Test 14: Keep the file statistics\n");
+    boolean status = PASS;
+    HashMap<Integer, RID> rids = new HashMap<Integer, RID>();
+    HashMap<Integer, Integer> lengths = new HashMap<Integer, Integer>();
+    HeapFile f = new HeapFile("file_14");
+
+    System.out.println("  - Add " + FILE_SIZE / 10 + " records of different lengths\n");
+    for (int i = 0; i < FILE_SIZE / 10; i++) {
+      byte[] data = slotRecord(i, 10 + i % 40);
+      rids.put(i, f.insertRecord(data));
+      lengths.put(i, data.length);
+    }
+    status &= checkStats(f, lengths);
+
+    System.out.println("  - Delete every third record\n");
+    for (int i = 0; i < FILE_SIZE / 10; i += 3) {
+      f.deleteRecord(rids.remove(i));
+      lengths.remove(i);
+    }
+    status &= checkStats(f, lengths);
+
+    System.out.println("  - Grow some records off their pages and shrink others\n");
+    for (Integer key : rids.keySet()) {
+      byte[] data = slotRecord(key, (key % 5 == 1) ? 300 : 10 + key % 7);
+      f.updateRecord(rids.get(key), data);
+      lengths.put(key, data.length);
+    }
+    status &= checkStats(f, lengths);
+    status &= checkRecords(f, rids);
+
+    System.out.println("  - Reopen the file with a head page from before the "
+        + "record bytes\n");
+    PageId headId = Minibase.DiskManager.get_file_entry("file_14");
+    Page head = new Page();
+    Minibase.BufferManager.pinPage(headId, head, PIN_DISKIO);
+    head.setShortValue((short) 0x5354, PAGE_SIZE - 4);
+    head.setIntValue(0, PAGE_SIZE - 20);
+    Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+    f = new HeapFile("file_14");
+    status &= checkStats(f, lengths);
+    status &= checkUnpinned("Reopening");
+    f.deleteFile();
+
+    if (status == PASS)
+      System.out.println("  Test 14 completed successfully.\n");
+    return status;
+
+  } // protected boolean test14()
+
+  /**
+   * Frees a data page in the middle of the directory, whose later entries
+   * move down a slot, then empties the pages after it one record at a time,
+   * which must find their moved entries.
+   */
+  protected boolean test15() {
+
+    System.out.println("\n  Test 15: Find directory entries after a page is "
+        + "removed\n");
+    boolean status = PASS;
+    HashMap<Integer, RID> rids = new HashMap<Integer, RID>();
+    int allocs = Minibase.DiskManager.getAllocCount();
+    HeapFile f = new HeapFile("file_15");
+
+    // records of a third of a page each fill the data pages three by three
+    int perPage = 3, numPages = 10;
+    int nameLength = HeapFile.MAX_RECORD_SIZE / perPage - 40;
+    System.out.println("  - Add " + perPage * numPages + " records on "
+        + numPages + " pages\n");
+    for (int i = 0; i < perPage * numPages; i++) {
+      rids.put(i, f.insertRecord(slotRecord(i, nameLength)));
+    }
+    if (f.getPageCnt() != numPages) {
+      System.err.println("*** File has " + f.getPageCnt() + " pages\n");
+      status = FAIL;
+    }
+
+    System.out.println("  - Empty the fourth page, removing its entry\n");
+    for (int i = 3 * perPage; i < 4 * perPage; i++) {
+      f.deleteRecord(rids.remove(i));
+    }
+    if (f.getPageCnt() != numPages - 1) {
+      System.err.println("*** File has " + f.getPageCnt() + " pages\n");
+      status = FAIL;
+    }
+
+    System.out.println("  - Empty the pages after it, one record at a time\n");
+    for (int page = 4; page < numPages && status == PASS; page++) {
+      for (int i = page * perPage; i < (page + 1) * perPage; i++) {
+        f.deleteRecord(rids.remove(i));
+      }
+      status &= checkRecords(f, rids);
+      if (!new HashSet<Integer>(scanKeys(f, null)).equals(rids.keySet())) {
+        System.err.println("*** A scan after emptying page " + page
+            + " returned " + scanKeys(f, null) + "\n");
+        status = FAIL;
+      }
+      if (f.getPageCnt() != numPages + 2 - page) {
+        System.err.println("*** File has " + f.getPageCnt() + " pages after "
+            + "emptying page " + page + "\n");
+        status = FAIL;
+      }
+    }
+    status &= checkUnpinned("Deleting");
+    f.deleteFile();
+    if (Minibase.DiskManager.getAllocCount() != allocs) {
+      System.err.println("*** Deleting the file left "
+          + (Minibase.DiskManager.getAllocCount() - allocs) + " pages\n");
+      status = FAIL;
+    }
+
+    if (status == PASS)
+      System.out.println("  Test 15 completed successfully.\n");
+    return status;
+
+  } // protected boolean test15()
+
+  /**
+   * Reads records in place with getNextView and forEach: each page's
+   * records come through one reused read-only view of the buffer pool
+   * frame, which sees changes made to the page after it was returned.
+   */
+  protected boolean test16() {
+
+    System.out.println("\n  Test 16: Read records in place\n");
+    boolean status = PASS;
+    HashMap<Integer, RID> rids = new HashMap<Integer, RID>();
+    HeapFile f = new HeapFile("file_16");
+    int numRecords = FILE_SIZE / 20;
+    fill(f, rids, 0, numRecords);
+
+    System.out.println("  - Scan with getNextView\n");
+    final HashMap<Integer, ByteBuffer> views = new HashMap<Integer, ByteBuffer>();
+    HashSet<Integer> keys = new HashSet<Integer>();
+    HeapScan scan = f.openScan();
+    ByteBuffer view;
+    while ((view = scan.getNextView(rid)) != null) {
+      ByteBuffer pageView = views.put(rid.pageno.pid, view);
+      if (!view.isReadOnly() || ((pageView != null) && (pageView != view))) {
+        System.err.println("*** Record " + rid.pageno.pid + ":" + rid.slotno
+            + " has a view of its own\n");
+        status = FAIL;
+        break;
+      }
+      if (view.remaining() != record(0, "record" + view.getInt(view.position()))
+          .length) {
+        System.err.println("*** View of record " + view.getInt(view.position())
+            + " has " + view.remaining() + " bytes\n");
+        status = FAIL;
+        break;
+      }
+      keys.add(view.getInt(view.position()));
+    }
+    scan.close();
+    if ((status == PASS) && !keys.equals(rids.keySet())) {
+      System.err.println("*** The scan returned " + keys.size() + " records\n");
+      status = FAIL;
+    }
+
+    System.out.println("  - Update a record while its view is held\n");
+    scan = f.openScan();
+    view = scan.getNextView(rid);
+    int key = view.getInt(view.position());
+    f.updateRecord(rid, record(key + numRecords, "record" + key));
+    if (view.getInt(view.position()) != key + numRecords) {
+      System.err.println("*** The view still reads " + view.getInt(view.position())
+          + "\n");
+      status = FAIL;
+    }
+    scan.close();
+    f.updateRecord(rid, record(key, "record" + key));
+
+    System.out.println("  - Visit the records with forEach\n");
+    views.clear();
+    final int[] visited = new int[2];
+    f.openScan().forEach(new RecordVisitor() {
+      public boolean visit(RID rid, ByteBuffer record) {
+        ByteBuffer pageView = views.put(rid.pageno.pid, record);
+        if (!record.isReadOnly() || ((pageView != null) && (pageView != record))) {
+          visited[1]++;
+        }
+        visited[0]++;
+        return true;
+      }
+    });
+    if ((visited[0] != numRecords) || (visited[1] != 0)) {
+      System.err.println("*** Visited " + visited[0] + " records, "
+          + visited[1] + " through views of their own\n");
+      status = FAIL;
+    }
+    status &= checkRecords(f, rids);
+    status &= checkUnpinned("Scanning");
+    f.deleteFile();
+
+    if (status == PASS)
+      System.out.println("  Test 16 completed successfully.\n");
+    return status;
+
+  } // protected boolean test16()
+
+  /**
+   * Mixes getNextBatch with getNext: a batch takes the rest of the current
+   * page, if any, then whole pages while it has room, and getNext goes on
+   * with the record after the batch.
+   */
+  protected boolean test17() {
+
+    System.out.println("\n  Test 17: Scan in batches\n");
+    boolean status = PASS;
+    HeapFile f = new HeapFile("file_17");
+    fill(f, null, 0, FILE_SIZE / 10);
+
+    System.out.println("  - Scan the file one record at a time\n");
+    ArrayList<RID> order = new ArrayList<RID>();
+    ArrayList<Integer> keys = new ArrayList<Integer>();
+    HeapScan scan = f.openScan();
+    byte[] rec;
+    while ((rec = scan.getNext(rid)) != null) {
+      order.add(new RID(rid));
+      keys.add(Convert.getIntValue(0, rec));
+    }
+    scan.close();
+
+    System.out.println("  - Scan it again, alternating records and batches\n");
+    scan = f.openScan();
+    RecordBatch[] batches = { new RecordBatch(1), new RecordBatch(2),
+        new RecordBatch(3) };
+    int pos = 0;
+    for (int round = 0; (pos < order.size()) && (status == PASS); round++) {
+
+      // read 0, 1, the rest of the next page, or 3 records one at a time
+      int gets = round % 4;
+      if (gets == 2) {
+        while ((pos + gets < order.size()) && samePage(order, pos, pos + gets)) {
+          gets++;
+        }
+      }
+      boolean inPage = false;
+      for (int i = 0; (i < gets) && (pos < order.size()); i++, pos++) {
+        rec = scan.getNext(rid);
+        if ((rec == null) || !rid.equals(order.get(pos))
+            || (Convert.getIntValue(0, rec) != keys.get(pos))) {
+          System.err.println("*** getNext did not return record " + pos + "\n");
+          status = FAIL;
+          break;
+        }
+        inPage = true;
+      }
+
+      // expect the rest of the page, then whole pages while there is room
+      RecordBatch batch = batches[round % batches.length];
+      int end = pos;
+      int pages = 0;
+      if (inPage) {
+        while ((end < order.size()) && samePage(order, pos - 1, end)) {
+          end++;
+        }
+        pages = (end > pos) ? 1 : 0;
+      }
+      for (; (end < order.size()) && (pages < round % batches.length + 1); pages++) {
+        int first = end;
+        while ((end < order.size()) && samePage(order, first, end)) {
+          end++;
+        }
+      }
+      int size = scan.getNextBatch(batch);
+      if ((status == PASS) && (size != end - pos)) {
+        System.err.println("*** Batch at record " + pos + " has " + size
+            + " records, not " + (end - pos) + "\n");
+        status = FAIL;
+      }
+      for (int i = 0; (i < size) && (status == PASS); i++, pos++) {
+        if (!batch.getRID(i, rid).equals(order.get(pos))
+            || (Convert.getIntValue(0, batch.getRecord(i)) != keys.get(pos))) {
+          System.err.println("*** Batch did not return record " + pos + "\n");
+          status = FAIL;
+        }
+      }
+    }
+    if ((status == PASS) && ((scan.getNext(rid) != null)
+        || (scan.getNextBatch(batches[0]) != 0))) {
+      System.err.println("*** The scan went past the end of the file\n");
+      status = FAIL;
+    }
+    scan.close();
+    status &= checkUnpinned("Scanning");
+    f.deleteFile();
+
+    if (status == PASS)
+      System.out.println("  Test 17 completed successfully.\n");
+    return status;
+
+  } // protected boolean test17()
+
+  /**
+   * Tells whether two records of the list are on the same page.
+   */
+  protected boolean samePage(ArrayList<RID> order, int i, int j) {
+    return order.get(i).pageno.pid == order.get(j).pageno.pid;
+  }
+
+  /**
+   * Checks the file's record count and average record length against the
+   * given record lengths.
+   */
+  protected boolean checkStats(HeapFile f, HashMap<Integer, Integer> lengths) {
+    int total = 0;
+    for (int length : lengths.values()) {
+      total += length;
+    }
+    int avg = lengths.isEmpty() ? 0 : total / lengths.size();
+    if ((f.getRecCnt() != lengths.size()) || (f.getAvgRecLength() != avg)) {
+      System.err.println("*** File reports " + f.getRecCnt() + " records of "
+          + f.getAvgRecLength() + " bytes, not " + lengths.size() + " of "
+          + avg + "\n");
+      return FAIL;
+    }
+    return PASS;
+  }
+
+  /**
+   * Inserts the records with ivals from (inclusive) to to (exclusive),
+   * remembering their RIDs by ival if rids is not null.
+   */
+  protected void fill(HeapFile f, HashMap<Integer, RID> rids, int from, int to) {
+    for (int i = from; i < to; i++) {
+      RID newRid = f.insertRecord(record(i, "record" + i));
+      if (rids != null) {
+        rids.put(i, newRid);
+      }
+    }
+  }
+
+  /**
+   * Checks that the file holds exactly the given records, each with its
+   * ival at its RID.
+   */
+  protected boolean checkRecords(HeapFile f, HashMap<Integer, RID> rids) {
+    if (f.getRecCnt() != rids.size()) {
+      System.err.println("*** File reports " + f.getRecCnt() + " records\n");
+      return FAIL;
+    }
+    for (Integer key : rids.keySet()) {
+      DummyRecord rec = new DummyRecord(f.selectRecord(rids.get(key)));
+      if (rec.ival != key) {
+        System.err.println("*** Record " + key + " was lost\n");
+        return FAIL;
+      }
+    }
+    return PASS;
+  }
+
+  /**
+   * Checks that the buffer pool has no pages left pinned by the named
+   * operation.
+   */
+  protected boolean checkUnpinned(String operation) {
+    if (Minibase.BufferManager.getNumUnpinned() != Minibase.BufferManager
+        .getNumFrames()) {
+      System.err.println("*** " + operation + " left a page pinned\n");
+      return FAIL;
+    }
+    return PASS;
+  }
+
+  /**
+   * Gets a record with the given ival and name.
+   */
+  protected byte[] record(int ival, String name) {
+    DummyRecord rec = new DummyRecord();
+    rec.ival = ival;
+    rec.fval = (float) (ival * 2.5);
+    rec.name = name;
+    return rec.toByteArray();
+  }
+
+  /**
+   * Gets a record with the given ival and a name of the given length.
+   */
+  protected byte[] slotRecord(int ival, int nameLength) {
+    return record(ival, String.format("%-" + nameLength + "s", "record" + ival));
+  }
+
   /**
    * Used in fixed-length record test cases.
    */
@@ -0,0 +1,159 @@
+package diskmgr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * Persistent bitmap of the database pages written since the last backup,
+ * kept in a file next to the database.  Only a page's first write after a
+ * backup changes the file (one byte), so keeping it costs almost nothing.
+ * While a backup runs, its pages stay marked in the file until it succeeds.
+ */
+class ChangeMap {
+
+  /** Pages written since the last backup started. */
+  protected final BitSet changed = new BitSet();
+
+  /** Pages being copied by a running backup, or null. */
+  protected BitSet backup;
+
+  /** The bitmap file, or null if the map is kept in memory only. */
+  protected FileChannel file;
+
+  /** Database size, in pages. */
+  protected final int num_pages;
+
+  /**
+   * Opens (or creates) the map for a database of the given size.  A missing
+   * file for an existing database marks every page, so the next incremental
+   * backup is a full one.
+   *
+   * @param fname name of the bitmap file, or null to keep it in memory
+   */
+  ChangeMap(String fname, int num_pages, boolean create) throws IOException {
+    this.num_pages = num_pages;
+    if (fname == null) {
+      if (!create) {
+        changed.set(0, num_pages);
+      }
+      return;
+    }
+    File mapfile = new File(fname);
+    boolean exists = mapfile.exists() && !create;
+    file = new RandomAccessFile(mapfile, "rw").getChannel();
+    if (exists) {
+      ByteBuffer bytes = ByteBuffer.allocate((int) file.size());
+      while (bytes.hasRemaining()) {
+        if (file.read(bytes, bytes.position()) < 0) {
+          break;
+        }
+      }
+      changed.or(BitSet.valueOf(bytes.array()));
+    } else {
+      if (!create) {
+        changed.set(0, num_pages);
+      }
+      save();
+    }
+  }
+
+  /**
+   * Marks the given page as changed, before it is written.
+   */
+  synchronized void mark(int pid) throws IOException {
+    if (changed.get(pid)) {
+      return;
+    }
+    changed.set(pid);
+    if (file != null) {
+      int index = pid / 8;
+      byte bits = get_byte(changed, index);
+      if (backup != null) {
+        bits |= get_byte(backup, index);
+      }
+      file.write(ByteBuffer.wrap(new byte[] { bits }), index);
+    }
+  }
+
+  /**
+   * Starts a backup: takes the pages it must copy (every page, or those
+   * changed since the last backup) and starts collecting the next set.
+   *
+   * @throws IllegalStateException if a backup is already running
+   */
+  synchronized BitSet take(boolean full) {
+    if (backup != null) {
+      throw new IllegalStateException("Backup already running");
+    }
+    backup = (BitSet) changed.clone();
+    if (full) {
+      backup.set(0, num_pages);
+    }
+    changed.clear();
+    return backup;
+  }
+
+  /**
+   * Ends a backup; if it failed, its pages count as changed again.
+   */
+  synchronized void finish(boolean done) throws IOException {
+    if (!done) {
+      changed.or(backup);
+    }
+    backup = null;
+    save();
+  }
+
+  /**
+   * Gets the number of pages changed since the last backup started.
+   */
+  synchronized int getCount() {
+    return changed.cardinality();
+  }
+
+  /**
+   * Closes the bitmap file.
+   */
+  void close() throws IOException {
+    if (file != null) {
+      file.close();
+    }
+  }
+
+  /**
+   * Rewrites the whole bitmap file (including a running backup's pages).
+   */
+  protected void save() throws IOException {
+    if (file == null) {
+      return;
+    }
+    byte[] bytes = new byte[(num_pages + 7) / 8];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = get_byte(changed, i);
+      if (backup != null) {
+        bytes[i] |= get_byte(backup, i);
+      }
+    }
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    while (buf.hasRemaining()) {
+      file.write(buf, buf.position());
+    }
+    file.truncate(bytes.length);
+  }
+
+  /**
+   * Gets the given byte (i.e. 8 pages) of a bitmap.
+   */
+  protected static byte get_byte(BitSet bits, int index) {
+    int value = 0;
+    for (int i = 7; i >= 0; i--) {
+      value = (value << 1) | (bits.get(index * 8 + i) ? 1 : 0);
+    }
+    return (byte) value;
+  }
+
+} // class ChangeMap
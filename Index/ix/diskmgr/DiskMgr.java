@@ -4,10 +4,36 @@ import global.GlobalConst;
 import global.Minibase;
 import global.Page;
 import global.PageId;
+import logmgr.LogMgr;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <h3>Minibase Disk Manager</h3>
@@ -22,32 +48,173 @@ import java.io.RandomAccessFile;
  * </ol>
  * The disk manager manages a library of entries consisting of the name of
  * a file and the page number of the first page in the file.
+ * <br><br>
+ * Pages of temporary files can be allocated from a separate temp segment
+ * instead (see setTempAllocation).  Its page ids start at TEMP_PAGEID; it is
+ * never logged and never synced, and it is emptied whenever the database is
+ * created, opened or closed.
+ * <br><br>
+ * Every database page written gets a CRC32C checksum, which is verified
+ * whenever the page is read (except by restart recovery, which repairs the
+ * pages); a background scrubber (see startScrubber) can verify the
+ * allocated pages ahead of time.
   */
 public class DiskMgr implements GlobalConst {
 
   /** Number of actual bits per page. */
   protected static final int BITS_PER_PAGE = PAGE_SIZE * 8;
 
+  /** Id of the first page in the temp segment. */
+  public static final int TEMP_PAGEID = 1 << 30;
+
+  /** First word of a backup stream. */
+  protected static final int BACKUP_MAGIC = 0x4d424b50;
+
+  /** Most pages copied by one read during a backup. */
+  protected static final int BACKUP_RUN = 64;
+
+  /** Most pages verified by one read of the scrubber. */
+  protected static final int SCRUB_RUN = 64;
+
   // --------------------------------------------------------------------------
 
   /** Pages in the database are stored as an Operating System file.  
    * This is the name of that file. */
   protected String name;
 
-  /** Reference to the OS file. */
-  protected RandomAccessFile fp;
+  /** Channels to the segment files, in stripe order; the first segment is
+   * the database file itself. */
+  protected FileChannel[] segments;
+
+  /** Directories for the segments after the first, used by createDB. */
+  protected String[] segment_dirs;
+
+  /** Number of consecutive pages stored in one segment before moving on to
+   * the next (1 stripes page by page; larger values place whole extents). */
+  protected int stripe_pages = 1;
   
+  /** Bypass the OS page cache, so pages are cached only by the buffer pool. */
+  protected boolean direct_io;
+
+  /** Unit of direct I/O: the larger of the page and file system block size. */
+  protected int io_block = PAGE_SIZE;
+
+  /** Block-aligned staging buffer for direct I/O, one per thread. */
+  protected ThreadLocal<ByteBuffer> io_buffer;
+
+  /**
+   * ExtendedOpenOption.DIRECT, or null if the JDK lacks it.  Direct I/O
+   * needs JDK 10 or later, so it is looked up by reflection to keep the
+   * code building for Java 8.
+   */
+  protected static final OpenOption DIRECT_OPTION = direct_option();
+
   /** Database size, in pages. */
   protected int num_db_pages;
 
-  /** Number of disk page reads since database construction. */
-  protected int read_cnt;
+  /** Page reads and writes since database construction. */
+  protected final IOStats io_stats = new IOStats();
+
+  /** Page reads and writes by I/O tag. */
+  protected final ConcurrentHashMap<String, IOStats> tag_stats =
+      new ConcurrentHashMap<String, IOStats>();
+
+  /** The I/O tag of the calling thread, or null if untagged. */
+  protected static final ThreadLocal<String> io_tag = new ThreadLocal<String>();
+
+  /** File library entries by lower-cased name; mirrors the header pages. */
+  protected HashMap<String, LibraryEntry> library;
+
+  /** Number of times the file library has been reloaded. */
+  protected volatile int library_version;
+
+  /** Unused header page slots, reused before the library grows. */
+  protected ArrayDeque<LibraryEntry> free_slots;
 
-  /** Number of disk page writes since database construction. */
-  protected int write_cnt;
+  /** Last header page in the library chain. */
+  protected int last_header_pid;
+
+  /** True for threads whose new pages go to the temp segment. */
+  protected static final ThreadLocal<Boolean> temp_alloc =
+      new ThreadLocal<Boolean>() {
+        protected Boolean initialValue() {
+          return Boolean.FALSE;
+        }
+      };
+
+  /** Channel to the temp segment file; null until first needed. */
+  protected FileChannel temp_file;
+
+  /** Allocated pages of the temp segment. */
+  protected final BitSet temp_map = new BitSet();
+
+  /** Size of the temp segment, in pages. */
+  protected int temp_pages;
+
+  /** Pages written since the last backup. */
+  protected ChangeMap changes;
+
+  /** Checksums of the database pages. */
+  protected PageChecksums checksums;
+
+  /** True while the database is being opened, before restart recovery. */
+  protected boolean opening;
+
+  /** Background scrubber, or null if not running. */
+  protected Scrubber scrubber;
 
   // ------Manage the DB--------------------
 
+  /**
+   * Spreads the next database created by createDB over several segment files.
+   * The first segment is always the database file itself; one more segment is
+   * created in each of the given directories.  Pages are dealt out to the
+   * segments round robin, stripe_pages at a time.  The layout is saved next
+   * to the database file, so openDB needs no configuration.
+   * 
+   * @throws IllegalArgumentException if stripe_pages is invalid
+   */
+  public void setSegments(String[] dirs, int stripe_pages) {
+    if (stripe_pages < 1) {
+      throw new IllegalArgumentException("Invalid stripe size");
+    }
+    this.segment_dirs = dirs.clone();
+    this.stripe_pages = stripe_pages;
+  }
+
+  /**
+   * Opens the segment files of the next created or opened database with
+   * O_DIRECT, so pages are not cached a second time by the OS.  Requires a
+   * platform and file system that support ExtendedOpenOption.DIRECT; on a
+   * JDK without it (before 10), or a file system that refuses it, buffered
+   * I/O is used instead.
+   */
+  public void setDirectIO(boolean direct_io) {
+    this.direct_io = direct_io;
+  }
+
+  /**
+   * Tells whether the open database bypasses the OS page cache, i.e. direct
+   * I/O was asked for and is supported.
+   */
+  public boolean isDirectIO() {
+    return direct_io;
+  }
+
+  /**
+   * Gets the number of segment files in the database.
+   */
+  public int getNumSegments() {
+    return segments.length;
+  }
+
+  /**
+   * Gets the segment file holding the given page.  Pages in different
+   * segments can be read and written concurrently.
+   */
+  public int getSegment(PageId pageno) {
+    return (pageno.pid / stripe_pages) % segments.length;
+  }
 
   /**
    * Creates and opens a new database with the given OS file name and specified
@@ -59,15 +226,12 @@ public class DiskMgr implements GlobalConst {
     name = fname;
     num_db_pages = (num_db_pgs > 2) ? num_db_pgs : 2;
 
-    // overwrite an existing file
-    File DBfile = new File(name);
-    DBfile.delete();
-
-    // create the database file, num_pages pages long
+    // create the storage, overwriting an existing database
     try {
-      fp = new RandomAccessFile(fname, "rw");
-      fp.seek((long) (num_db_pages * PAGE_SIZE - 1));
-      fp.writeByte(0);
+      create_files();
+      reset_temp();
+      changes = new ChangeMap(changes_name(), num_db_pages, true);
+      checksums = new PageChecksums(checksums_name(), num_db_pages, true);
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
@@ -84,6 +248,9 @@ public class DiskMgr implements GlobalConst {
     int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
     set_bits(pageId, 1 + num_map_pages, 1);
 
+    // start with an empty file library
+    load_library();
+
   } // public void createDB(String fname, int num_pgs)
 
   /**
@@ -91,18 +258,17 @@ public class DiskMgr implements GlobalConst {
    */
   public void openDB(String fname) {
 
-    // save the name and open the OS file
+    // save the name and open the OS files
     name = fname;
-    File DBfile = new File(name);
-    if (!DBfile.exists())
-    	throw new IllegalStateException("File "+name+" does not exist\n");
     try {
-      fp = new RandomAccessFile(fname, "rw");
+      open_files();
+      reset_temp();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
-    // read the first page
+    // read the first page (only it is valid until its size field is known)
+    num_db_pages = FIRST_PAGEID + 1;
     PageId pageId = new PageId(FIRST_PAGEID);
     Page apage = new Page();
     Minibase.BufferManager.pinPage(pageId, apage, PIN_DISKIO);
@@ -111,6 +277,22 @@ public class DiskMgr implements GlobalConst {
     DBFirstPage firstpg = new DBFirstPage(apage);
     num_db_pages = firstpg.getNumDBPages();
     Minibase.BufferManager.unpinPage(pageId, UNPIN_CLEAN);
+    try {
+      changes = new ChangeMap(changes_name(), num_db_pages, false);
+      checksums = new PageChecksums(checksums_name(), num_db_pages, false);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+
+    // cache the file library; a header page torn by a crash is only noted
+    // as corrupt here, since recovery has yet to repair it (the library is
+    // reloaded, verified, once recovery is done)
+    opening = true;
+    try {
+      load_library();
+    } finally {
+      opening = false;
+    }
 
   } // public void openDB(String fname)
 
@@ -120,20 +302,534 @@ public class DiskMgr implements GlobalConst {
    */
   public void closeDB() {
     try {
+      stopScrubber();
+      if (Minibase.LogManager != null) {
+        Minibase.LogManager.stopCheckpointer();
+      }
       Minibase.BufferManager.flushAllFrames();
-      fp.close();
+      if (Minibase.LogManager != null) {
+        Minibase.LogManager.closeLog();
+      }
+      close_files();
+      reset_temp();
+      changes.close();
+      checksums.close();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+  }
+
+  /**
+   * Forces every page written so far, and its checksum, to stable storage.
+   * A checkpoint does this before it lets go of the log records that could
+   * redo those pages.
+   */
+  public void sync() {
+    try {
+      sync_files();
+      checksums.force();
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
   }
 
   /**
-   * Destroy the database, removing the file that stores it.
+   * Destroy the database, removing the files that store it.
    */
   public void destroyDB() {
     closeDB();
+    try {
+      delete_files();
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    if (changes_name() != null) {
+      new File(changes_name()).delete();
+    }
+    if (checksums_name() != null) {
+      new File(checksums_name()).delete();
+    }
+  }
+
+  /**
+   * Writes an online backup of the database to the given stream while the
+   * engine keeps running: every page, or only those written since the last
+   * backup (full or incremental).  Pages are copied from disk in page order
+   * with large sequential reads; the stream holds a header (magic number,
+   * page size, database size), then each page as its id and contents, and
+   * ends with id -1.
+   * <br><br>
+   * Like a fuzzy checkpoint, the copy is of the pages on disk, not in the
+   * buffer pool; pages written during the backup (or after it) go into the
+   * next one.  Flush the buffer pool first for a backup that is complete on
+   * its own.  If the backup fails, its pages stay marked.
+   * 
+   * @param out where to write the backup (not closed)
+   * @param full true to copy every page, false for only changed ones
+   * @return the number of pages copied
+   * @throws IOException if writing to the stream fails
+   * @throws IllegalStateException if another backup is running
+   */
+  public int backup(OutputStream out, boolean full) throws IOException {
+
+    // take the pages to copy, and start collecting for the next backup
+    BitSet pages = changes.take(full);
+    boolean done = false;
+    try {
+
+      // write the header
+      DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(
+          out, BACKUP_RUN * PAGE_SIZE));
+      stream.writeInt(BACKUP_MAGIC);
+      stream.writeInt(PAGE_SIZE);
+      stream.writeInt(num_db_pages);
+
+      // copy runs of consecutive pages in page order
+      int count = 0;
+      byte[] buf = new byte[BACKUP_RUN * PAGE_SIZE];
+      for (int pid = pages.nextSetBit(0); (pid >= 0) && (pid < num_db_pages);
+          pid = pages.nextSetBit(pid)) {
+        int end = Math.min(Math.min(pages.nextClearBit(pid), pid + BACKUP_RUN),
+            num_db_pages);
+        read_run(pid, end - pid, buf);
+        for (int i = 0; pid < end; i++, pid++) {
+          stream.writeInt(pid);
+          stream.write(buf, i * PAGE_SIZE, PAGE_SIZE);
+          count++;
+        }
+      }
+      stream.writeInt(-1);
+      stream.flush();
+      done = true;
+      return count;
+
+    } finally {
+      changes.finish(done);
+    }
+
+  } // public int backup(OutputStream out, boolean full)
+
+  /**
+   * Applies a backup written by the backup method to this database, through
+   * the buffer pool.  Restore the last full backup, then each incremental
+   * one after it, in order, before using the database (with logging off).
+   * 
+   * @return the number of pages restored
+   * @throws IOException if reading from the stream fails
+   * @throws IllegalArgumentException if it is not a backup of a database
+   * of this size
+   */
+  public int restoreBackup(InputStream in) throws IOException {
+
+    // check the header
+    DataInputStream stream = new DataInputStream(in);
+    if ((stream.readInt() != BACKUP_MAGIC) || (stream.readInt() != PAGE_SIZE)
+        || (stream.readInt() != num_db_pages)) {
+      throw new IllegalArgumentException("Not a backup of this database");
+    }
+
+    // overwrite each page in the backup, without reading the (possibly
+    // corrupt) page being replaced
+    int count = 0;
+    PageId pageno = new PageId();
+    Page page = new Page();
+    byte[] image = new byte[PAGE_SIZE];
+    for (int pid = stream.readInt(); pid >= 0; pid = stream.readInt()) {
+      pageno.pid = pid;
+      stream.readFully(image);
+      page.setData(image);
+      Minibase.BufferManager.pinPage(pageno, page, PIN_MEMCPY);
+      System.arraycopy(image, 0, page.getData(), 0, PAGE_SIZE); // if buffered
+      Minibase.BufferManager.unpinPage(pageno, UNPIN_DIRTY);
+      count++;
+    }
+
+    // the file library may have changed too
+    reloadLibrary();
+    return count;
+
+  } // public int restoreBackup(InputStream in)
+
+  /**
+   * Gets the number of pages written since the last backup started.
+   */
+  public int getChangedCount() {
+    return changes.getCount();
+  }
+
+  /**
+   * Starts a low-priority background scrubber that verifies the checksums of
+   * the allocated pages, in page order and over and over, at no more than
+   * the given rate.  Corrupt pages it finds are reported by getCorruptPages.
+   * 
+   * @throws IllegalStateException if one is already running
+   */
+  public void startScrubber(int pages_per_sec) {
+    if (scrubber != null) {
+      throw new IllegalStateException("Scrubber already running");
+    }
+    scrubber = new Scrubber(this, pages_per_sec);
+    scrubber.start();
+  }
+
+  /**
+   * Stops the background scrubber, if any, and waits for it to finish.
+   */
+  public void stopScrubber() {
+    if (scrubber != null) {
+      scrubber.shutdown();
+      scrubber = null;
+    }
+  }
+
+  /**
+   * Verifies the checksums of the allocated pages in the given range, with
+   * one sequential read.  Pages written meanwhile are not reported.
+   * 
+   * @return the number of corrupt pages found
+   * @throws IllegalArgumentException if the range is invalid
+   */
+  public int scrub(int first, int count) {
+
+    // validate the range
+    if ((first < 0) || (count < 0) || (count > SCRUB_RUN)
+        || (first + count > num_db_pages)) {
+      throw new IllegalArgumentException("Invalid page range; scrub aborted");
+    }
+
+    int bad = 0;
+    try {
+
+      // read the run, and each page of it marked in the space map on disk
+      byte[] buf = new byte[count * PAGE_SIZE];
+      read_run(first, count, buf);
+      byte[] map = new byte[PAGE_SIZE];
+      byte[] page = new byte[PAGE_SIZE];
+      int map_pid = -1;
+      for (int pid = first; pid < first + count; pid++) {
+        if (pid / BITS_PER_PAGE + 1 != map_pid) {
+          map_pid = pid / BITS_PER_PAGE + 1;
+          read_raw(map_pid, map);
+        }
+        int bit = pid % BITS_PER_PAGE;
+        if ((map[bit / 8] & (1 << (bit % 8))) == 0) {
+          continue;
+        }
+        System.arraycopy(buf, (pid - first) * PAGE_SIZE, page, 0, PAGE_SIZE);
+        if (checksums.matches(pid, page)) {
+          continue;
+        }
+
+        // it may have been written since; check again while it cannot be
+        synchronized (checksums.lock(pid)) {
+          read_raw(pid, page);
+          if (!checksums.verify(pid, page)) {
+            bad++;
+          }
+        }
+
+      } // for
+
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    return bad;
+
+  } // public int scrub(int first, int count)
+
+  /**
+   * Gets the ids of the pages that have failed their checksums so far, by
+   * reads or by the scrubber and not rewritten since, in order.
+   */
+  public int[] getCorruptPages() {
+    return checksums.getCorrupt();
+  }
+
+  /**
+   * Gets the number of pages in the database.
+   */
+  public int getNumDBPages() {
+    return num_db_pages;
+  }
+
+  /**
+   * Gets the name of the file holding the page checksums, or null to keep
+   * them in memory only.
+   */
+  protected String checksums_name() {
+    return name + ".sum";
+  }
+
+  /**
+   * Gets the name of the file recording the pages written since the last
+   * backup, or null to keep that in memory only.
+   */
+  protected String changes_name() {
+    return name + ".chg";
+  }
+
+  /**
+   * Reads a run of consecutive pages into the given buffer, with a single
+   * read when they are contiguous in one file.
+   */
+  protected void read_run(int pid, int count, byte[] buf) throws IOException {
+    if ((segments != null) && (segments.length == 1) && !direct_io) {
+      ByteBuffer bb = ByteBuffer.wrap(buf, 0, count * PAGE_SIZE);
+      long offset = segment_offset(pid);
+      while (bb.hasRemaining()) {
+        if (segments[0].read(bb, offset + bb.position()) < 0) {
+          Arrays.fill(buf, bb.position(), count * PAGE_SIZE, (byte) 0);
+          break;
+        }
+      }
+      return;
+    }
+    byte[] page = new byte[PAGE_SIZE];
+    for (int i = 0; i < count; i++) {
+      read_raw(pid + i, page);
+      System.arraycopy(page, 0, buf, i * PAGE_SIZE, PAGE_SIZE);
+    }
+  }
+
+  /**
+   * Shrinks the database files to end at the last allocated page, giving
+   * trailing free space (e.g. left by HeapFile.compact) back to the OS.  The
+   * database keeps its size in pages: pages past the end read as zeros, and
+   * the files grow again when they are written.
+   * 
+   * @return the number of pages the files now hold
+   */
+  public int shrinkDB() {
+    int num_pages = last_allocated() + 1;
+    try {
+      truncate_files(num_pages);
+      checksums.truncate(num_pages);
+    } catch (IOException exc) {
+      Minibase.haltSystem(exc);
+    }
+    return num_pages;
+  }
+
+  /**
+   * Creates and opens the segment files for a new database of num_db_pages
+   * pages, overwriting any existing ones.
+   */
+  protected void create_files() throws IOException {
+
+    // overwrite an existing file
     File DBfile = new File(name);
     DBfile.delete();
+    new File(segment_map_name()).delete();
+
+    // create the segment files, together num_pages pages long
+    int num_segs = (segment_dirs == null) ? 1 : segment_dirs.length + 1;
+    String[] paths = new String[num_segs];
+    paths[0] = name;
+    for (int i = 1; i < num_segs; i++) {
+      paths[i] = new File(segment_dirs[i - 1], DBfile.getName() + "." + i)
+          .getPath();
+    }
+    int num_extents = (num_db_pages + stripe_pages - 1) / stripe_pages;
+    for (int i = 0; i < num_segs; i++) {
+      int seg_extents = (num_extents - i + num_segs - 1) / num_segs;
+      new File(paths[i]).delete();
+      RandomAccessFile segfile = new RandomAccessFile(paths[i], "rw");
+      segfile.setLength((long) seg_extents * stripe_pages * PAGE_SIZE);
+      segfile.close();
+    }
+    if (num_segs > 1) {
+      write_segment_map(paths);
+    }
+    open_segments(paths);
+
+  } // protected void create_files()
+
+  /**
+   * Opens the segment files of an existing database.
+   * 
+   * @throws IllegalStateException if the database file does not exist
+   */
+  protected void open_files() throws IOException {
+    if (!new File(name).exists()) {
+      throw new IllegalStateException("File " + name + " does not exist\n");
+    }
+    open_segments(read_segment_map());
+  }
+
+  /**
+   * Closes the segment files.
+   */
+  protected void close_files() throws IOException {
+    for (FileChannel seg : segments) {
+      seg.close();
+    }
+  }
+
+  /**
+   * Forces the segment files to stable storage.
+   */
+  protected void sync_files() throws IOException {
+    for (FileChannel seg : segments) {
+      seg.force(false);
+    }
+  }
+
+  /**
+   * Cuts each segment file after the last of the given number of pages it
+   * holds.
+   */
+  protected void truncate_files(int num_pages) throws IOException {
+    for (int i = 0; i < segments.length; i++) {
+
+      // find the segment's last page below num_pages (if any)
+      long length = 0;
+      int lowest = Math.max(0, num_pages - stripe_pages * segments.length);
+      for (int pid = num_pages - 1; pid >= lowest; pid--) {
+        if (getSegment(new PageId(pid)) == i) {
+          length = segment_offset(pid) + PAGE_SIZE;
+          break;
+        }
+      }
+      if (length < segments[i].size()) {
+        segments[i].truncate(length);
+      }
+
+    } // for
+  }
+
+  /**
+   * Deletes the (closed) segment files and the segment map.
+   */
+  protected void delete_files() throws IOException {
+    for (String path : read_segment_map()) {
+      new File(path).delete();
+    }
+    new File(segment_map_name()).delete();
+  }
+
+  /**
+   * Opens the given segment files; the first one is the database file.
+   */
+  protected void open_segments(String[] paths) throws IOException {
+
+    // fall back to buffered I/O without JDK or file system support
+    if (direct_io && (DIRECT_OPTION == null)) {
+      direct_io = false;
+    }
+    if (direct_io) {
+      try {
+        open_direct(paths[0]).close();
+      } catch (IOException exc) {
+        direct_io = false;
+      }
+    }
+
+    // direct I/O must cover whole file system blocks from aligned memory
+    if (direct_io) {
+      final int align = block_size(Files.getFileStore(Paths.get(paths[0])));
+      io_block = Math.max(PAGE_SIZE, align);
+      io_buffer = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+          return aligned_slice(ByteBuffer.allocateDirect(io_block + align), align);
+        }
+      };
+    }
+
+    segments = new FileChannel[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      if (direct_io) {
+        segments[i] = open_direct(paths[i]);
+      } else {
+        segments[i] = new RandomAccessFile(paths[i], "rw").getChannel();
+      }
+    }
+
+  } // protected void open_segments(String[] paths)
+
+  /**
+   * Opens a segment file with O_DIRECT.
+   * 
+   * @throws IOException if the file system refuses it
+   */
+  protected FileChannel open_direct(String path) throws IOException {
+    return FileChannel.open(Paths.get(path), StandardOpenOption.READ,
+        StandardOpenOption.WRITE, DIRECT_OPTION);
+  }
+
+  /**
+   * Gets ExtendedOpenOption.DIRECT, or null if the JDK lacks it.
+   */
+  private static OpenOption direct_option() {
+    try {
+      return (OpenOption) Class.forName("com.sun.nio.file.ExtendedOpenOption")
+          .getField("DIRECT").get(null);
+    } catch (ReflectiveOperationException exc) {
+      return null;
+    }
+  }
+
+  /**
+   * Gets the block size of a file store (FileStore.getBlockSize, JDK 10).
+   */
+  protected static int block_size(FileStore store) throws IOException {
+    try {
+      return ((Long) FileStore.class.getMethod("getBlockSize").invoke(store))
+          .intValue();
+    } catch (ReflectiveOperationException exc) {
+      throw new IOException("Can't get the file system block size", exc);
+    }
+  }
+
+  /**
+   * Gets the aligned part of a direct buffer (ByteBuffer.alignedSlice,
+   * JDK 10).
+   */
+  protected static ByteBuffer aligned_slice(ByteBuffer buf, int align) {
+    try {
+      return (ByteBuffer) ByteBuffer.class.getMethod("alignedSlice", int.class)
+          .invoke(buf, align);
+    } catch (ReflectiveOperationException exc) {
+      throw new IllegalStateException("Can't align the direct I/O buffer", exc);
+    }
+  }
+
+  /**
+   * Gets the name of the file describing a multi-segment layout.
+   */
+  protected String segment_map_name() {
+    return name + ".seg";
+  }
+
+  /**
+   * Saves the stripe size and the segment paths next to the database file.
+   */
+  protected void write_segment_map(String[] paths) throws IOException {
+    PrintWriter out = new PrintWriter(new FileWriter(segment_map_name()));
+    out.println(stripe_pages);
+    for (String path : paths) {
+      out.println(path);
+    }
+    out.close();
+  }
+
+  /**
+   * Loads the stripe size and the segment paths saved by createDB; a
+   * database without a segment map is a single file.
+   */
+  protected String[] read_segment_map() throws IOException {
+    File mapfile = new File(segment_map_name());
+    if (!mapfile.exists()) {
+      stripe_pages = 1;
+      return new String[] { name };
+    }
+    ArrayList<String> paths = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(new FileReader(mapfile));
+    stripe_pages = Integer.parseInt(in.readLine().trim());
+    for (String line = in.readLine(); line != null; line = in.readLine()) {
+      paths.add(line);
+    }
+    in.close();
+    return paths.toArray(new String[paths.size()]);
   }
   
 //-----Manage Logical File Layer -------------------
@@ -144,24 +840,65 @@ public class DiskMgr implements GlobalConst {
    * in the OS file.  Also referred to as the Id of the page.
    * @param mempage output parameter to hold the contents of the page
    * @throws IllegalArgumentException if pageno is invalid
+   * @throws IllegalStateException if the page fails its checksum (unless
+   * the database is still being opened)
+   */
+  public void read_page(PageId pageno, Page mempage) {
+    read_page(pageno, mempage, true);
+  }
+
+  /**
+   * Reads the contents of the specified page from disk, verifying its
+   * checksum if asked to.
    */
-  public void read_page(PageId pageno, Page mempage) {
+  protected void read_page(PageId pageno, Page mempage, boolean verify) {
 
     // validate the page id
-    if ((pageno.pid < 0) || (pageno.pid >= num_db_pages)) {
+    boolean temp = isTempPage(pageno);
+    if ((pageno.pid < 0) || (!temp && (pageno.pid >= num_db_pages))
+        || (temp && (pageno.pid - TEMP_PAGEID >= temp_pages))) {
       throw new IllegalArgumentException("Invalid page number; read aborted");
     }
 
-    // seek to the correct page on disk and read it
+    // read the page from its place in the segment files
     try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.read(mempage.getData());
-      read_cnt++;
+      long start = System.nanoTime();
+      if (temp) {
+        read_temp(pageno.pid - TEMP_PAGEID, mempage.getData());
+      } else {
+        read_raw(pageno.pid, mempage.getData());
+      }
+      long elapsed = System.nanoTime() - start;
+      io_stats.recordRead(elapsed);
+      IOStats tagged = tagged_stats();
+      if (tagged != null) {
+        tagged.recordRead(elapsed);
+      }
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
-  } // public void read_page(PageId pageno, Page mempage)
+    // verify the page (the first one is read before the checksums are)
+    if (verify && !temp && (checksums != null)
+        && !checksums.verify(pageno.pid, mempage.getData()) && !opening) {
+      throw new IllegalStateException("Checksum mismatch on page "
+          + pageno.pid + "; read aborted");
+    }
+
+  } // protected void read_page(PageId pageno, Page mempage, boolean verify)
+
+  /**
+   * Reads the contents of the specified page from disk without verifying
+   * its checksum, for restart recovery: after a crash a page and its
+   * checksum may disagree until the page is rewritten.
+   * 
+   * @param pageno identifies the page to read
+   * @param mempage output parameter to hold the contents of the page
+   * @throws IllegalArgumentException if pageno is invalid
+   */
+  public void read_page_unverified(PageId pageno, Page mempage) {
+    read_page(pageno, mempage, false);
+  }
 
   /**
    * Writes the contents of the given page to disk.
@@ -173,32 +910,222 @@ public class DiskMgr implements GlobalConst {
   public void write_page(PageId pageno, Page mempage) {
 
     // validate the page id
-    if ((pageno.pid < 0) || (pageno.pid >= num_db_pages)) {
+    boolean temp = isTempPage(pageno);
+    if ((pageno.pid < 0) || (!temp && (pageno.pid >= num_db_pages))
+        || (temp && (pageno.pid - TEMP_PAGEID >= temp_pages))) {
       throw new IllegalArgumentException("Invalid page number; write aborted");
     }
 
-    // seek to the correct page on disk and write it
+    // write-ahead rule: the page's log records must be durable first
+    LogMgr log = temp ? null : Minibase.LogManager;
+    long lsn = LogMgr.NULL_LSN;
+    if (log != null) {
+      lsn = log.flushPage(pageno.pid);
+    }
+
+    // write the page to its place in the segment files
     try {
-      fp.seek((long) (pageno.pid * PAGE_SIZE));
-      fp.write(mempage.getData());
-      write_cnt++;
+      long start = System.nanoTime();
+      if (temp) {
+        write_temp(pageno.pid - TEMP_PAGEID, mempage.getData());
+      } else {
+        synchronized (checksums.lock(pageno.pid)) {
+          changes.mark(pageno.pid);
+          write_raw(pageno.pid, mempage.getData());
+          checksums.update(pageno.pid, mempage.getData());
+        }
+      }
+      long elapsed = System.nanoTime() - start;
+      io_stats.recordWrite(elapsed);
+      IOStats tagged = tagged_stats();
+      if (tagged != null) {
+        tagged.recordWrite(elapsed);
+      }
+      if (log != null) {
+        log.pageWritten(pageno.pid, lsn);
+      }
     } catch (IOException exc) {
       Minibase.haltSystem(exc);
     }
 
   } // public void write_page(PageId pageno, Page mempage)
+
+  /**
+   * Reads one page image from the segment holding it.  Positional reads on
+   * the segment's channel let different threads work on different segments
+   * (or even the same one) without sharing a file pointer.  Pages that were
+   * never written read as zeros.
+   */
+  protected void read_raw(int pid, byte[] buf) throws IOException {
+    FileChannel channel = segments[getSegment(new PageId(pid))];
+    long offset = segment_offset(pid);
+    if (direct_io) {
+      read_direct(channel, offset, buf);
+      return;
+    }
+    ByteBuffer bb = ByteBuffer.wrap(buf);
+    while (bb.hasRemaining()) {
+      if (channel.read(bb, offset + bb.position()) < 0) {
+        Arrays.fill(buf, bb.position(), buf.length, (byte) 0);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Writes one page image to the segment holding it.
+   */
+  protected void write_raw(int pid, byte[] buf) throws IOException {
+    FileChannel channel = segments[getSegment(new PageId(pid))];
+    long offset = segment_offset(pid);
+    if (direct_io) {
+      write_direct(channel, offset, buf);
+      return;
+    }
+    ByteBuffer bb = ByteBuffer.wrap(buf);
+    while (bb.hasRemaining()) {
+      channel.write(bb, offset + bb.position());
+    }
+  }
+
+  /**
+   * Reads a page through the aligned staging buffer, fetching the whole
+   * file system block that contains it.
+   */
+  protected void read_direct(FileChannel channel, long offset, byte[] buf)
+      throws IOException {
+    long blockpos = offset - offset % io_block;
+    ByteBuffer block = fill_block(channel, blockpos);
+    block.position((int) (offset - blockpos));
+    block.get(buf);
+  }
+
+  /**
+   * Writes a page through the aligned staging buffer.  When a file system
+   * block holds several pages, the block is read, patched and written back
+   * while holding the segment's lock.
+   */
+  protected void write_direct(FileChannel channel, long offset, byte[] buf)
+      throws IOException {
+    long blockpos = offset - offset % io_block;
+    synchronized (channel) {
+      ByteBuffer block;
+      if (io_block > PAGE_SIZE) {
+        block = fill_block(channel, blockpos);
+      } else {
+        block = io_buffer.get();
+        block.clear().limit(io_block);
+      }
+      block.position((int) (offset - blockpos));
+      block.put(buf);
+      block.clear().limit(io_block);
+      while (block.hasRemaining()) {
+        channel.write(block, blockpos + block.position());
+      }
+    }
+  }
+
+  /**
+   * Reads the block at the given position into this thread's staging buffer;
+   * any part past the end of the file reads as zeros.
+   */
+  protected ByteBuffer fill_block(FileChannel channel, long blockpos)
+      throws IOException {
+    ByteBuffer block = io_buffer.get();
+    block.clear().limit(io_block);
+    while (block.hasRemaining()) {
+      int len = channel.read(block, blockpos + block.position());
+      if (len < 0 || blockpos + block.position() >= channel.size()) {
+        while (block.hasRemaining()) {
+          block.put((byte) 0);
+        }
+      }
+    }
+    block.clear().limit(io_block);
+    return block;
+  }
+
+  /**
+   * Gets the byte offset of a page within its segment file.
+   */
+  protected long segment_offset(int pid) {
+    long extent = pid / stripe_pages / segments.length;
+    return (extent * stripe_pages + pid % stripe_pages) * PAGE_SIZE;
+  }
   
   /**
    * Gets the number of disk reads since database construction.
    */
-  public int getReadCount() {
-    return read_cnt;
+  public long getReadCount() {
+    return io_stats.getReads();
   }
   /**
    * Gets the number of disk writes since database construction.
    */
-  public int getWriteCount() {
-    return write_cnt;
+  public long getWriteCount() {
+    return io_stats.getWrites();
+  }
+
+  /**
+   * Gets the counts and latency histograms of all disk I/O since database
+   * construction.
+   */
+  public IOStats getIOStats() {
+    return io_stats;
+  }
+
+  /**
+   * Gets the counts and latency histograms of the disk I/O done under the
+   * given tag, or null if there was none.
+   */
+  public IOStats getIOStats(String tag) {
+    return tag_stats.get(tag);
+  }
+
+  /**
+   * Gets the statistics of every I/O tag used so far.
+   */
+  public Map<String, IOStats> getTaggedIOStats() {
+    return Collections.unmodifiableMap(tag_stats);
+  }
+
+  /**
+   * Charges the disk I/O done by the calling thread to the given tag, for
+   * example the name of the heap file or index being worked on, until the
+   * tag is changed again.  Pages written while evicting them from the buffer
+   * pool count against the tag of the thread that caused the eviction.
+   * 
+   * @param tag the new tag, or null to stop tagging
+   * @return the previous tag, so nested callers can restore it
+   */
+  public static String setIOTag(String tag) {
+    String prev = io_tag.get();
+    io_tag.set(tag);
+    return prev;
+  }
+
+  /**
+   * Gets the calling thread's I/O tag, or null if the thread is untagged.
+   */
+  public static String getIOTag() {
+    return io_tag.get();
+  }
+
+  /**
+   * Gets the statistics for the calling thread's I/O tag, or null if the
+   * thread is untagged.
+   */
+  protected IOStats tagged_stats() {
+    String tag = io_tag.get();
+    if (tag == null) {
+      return null;
+    }
+    IOStats stats = tag_stats.get(tag);
+    if (stats == null) {
+      tag_stats.putIfAbsent(tag, new IOStats());
+      stats = tag_stats.get(tag);
+    }
+    return stats;
   }
 
 //-----Manage allocation and deallocation of pages -------------------
@@ -214,6 +1141,11 @@ public class DiskMgr implements GlobalConst {
    */
   public PageId allocate_page(int run_size) {
 
+    // temp files have a segment of their own
+    if (temp_alloc.get()) {
+      return allocate_temp(run_size);
+    }
+
     // validate the run size
     if ((run_size < 1) || (run_size > num_db_pages)) {
       throw new IllegalArgumentException("Invalid run size; allocate aborted");
@@ -310,6 +1242,15 @@ public class DiskMgr implements GlobalConst {
    */
   public void deallocate_page(PageId firstid, int run_size) {
 
+    // temp pages are only marked free in memory
+    if (isTempPage(firstid) && (run_size >= 1)) {
+      synchronized (temp_map) {
+        temp_map.clear(firstid.pid - TEMP_PAGEID, firstid.pid - TEMP_PAGEID
+            + run_size);
+      }
+      return;
+    }
+
     // validate the page id
     if ((firstid.pid < 0) || (firstid.pid >= num_db_pages)) {
       throw new IllegalArgumentException(
@@ -335,6 +1276,148 @@ public class DiskMgr implements GlobalConst {
   public void deallocate_page(PageId pageno) {
     deallocate_page(pageno, 1);
   }
+  /**
+   * Gets the id of the last allocated page, according to the space map.
+   */
+  protected int last_allocated() {
+
+    // walk the space map backwards, bit by bit
+    int num_map_pages = (num_db_pages + BITS_PER_PAGE - 1) / BITS_PER_PAGE;
+    PageId pgid = new PageId();
+    Page apage = new Page();
+    for (int i = num_map_pages - 1; i >= 0; i--) {
+      pgid.pid = i + 1;
+      Minibase.BufferManager.pinPage(pgid, apage, PIN_DISKIO);
+      byte[] pagebuf = apage.getData();
+      int num_bits = Math.min(BITS_PER_PAGE, num_db_pages - i * BITS_PER_PAGE);
+      for (int bit = num_bits - 1; bit >= 0; bit--) {
+        if ((pagebuf[bit / 8] & (1 << (bit % 8))) != 0) {
+          Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
+          return i * BITS_PER_PAGE + bit;
+        }
+      }
+      Minibase.BufferManager.unpinPage(pgid, UNPIN_CLEAN);
+    }
+    return FIRST_PAGEID;
+
+  } // protected int last_allocated()
+
+  /**
+   * Makes the calling thread's page allocations (including those made
+   * through BufMgr.newPage) come from the temp segment, or the database
+   * again.  Temporary files switch this on around allocating their pages.
+   * 
+   * @return the previous setting, for restoring it
+   */
+  public static boolean setTempAllocation(boolean temp) {
+    boolean old = temp_alloc.get();
+    temp_alloc.set(temp);
+    return old;
+  }
+
+  /**
+   * Tells whether the given page is in the temp segment.
+   */
+  public static boolean isTempPage(PageId pageno) {
+    return pageno.pid >= TEMP_PAGEID;
+  }
+
+  /**
+   * Gets the number of allocated pages in the temp segment.
+   */
+  public int getTempAllocCount() {
+    synchronized (temp_map) {
+      return temp_map.cardinality();
+    }
+  }
+
+  /**
+   * Allocates a run of pages in the temp segment, growing it if needed.
+   */
+  protected PageId allocate_temp(int run_size) {
+
+    // validate the run size
+    if (run_size < 1) {
+      throw new IllegalArgumentException("Invalid run size; allocate aborted");
+    }
+
+    // take the first free run, past the end if need be
+    synchronized (temp_map) {
+      int first = temp_map.nextClearBit(0);
+      while (temp_map.nextSetBit(first) >= 0
+          && temp_map.nextSetBit(first) < first + run_size) {
+        first = temp_map.nextClearBit(temp_map.nextSetBit(first));
+      }
+      if (first + run_size > TEMP_PAGEID) {
+        throw new IllegalStateException("Temp segment full; allocate aborted");
+      }
+      temp_map.set(first, first + run_size);
+      temp_pages = Math.max(temp_pages, first + run_size);
+      return new PageId(TEMP_PAGEID + first);
+    }
+
+  } // protected PageId allocate_temp(int run_size)
+
+  /**
+   * Empties the temp segment, deleting its file.
+   */
+  protected void reset_temp() throws IOException {
+    synchronized (temp_map) {
+      if (temp_file != null) {
+        temp_file.close();
+        temp_file = null;
+      }
+      new File(temp_name()).delete();
+      temp_map.clear();
+      temp_pages = 0;
+    }
+  }
+
+  /**
+   * Gets the name of the temp segment file.
+   */
+  protected String temp_name() {
+    return name + ".tmp";
+  }
+
+  /**
+   * Reads a page of the temp segment; pages never written read as zeros.
+   */
+  protected void read_temp(int index, byte[] buf) throws IOException {
+    FileChannel channel = temp_channel();
+    ByteBuffer bb = ByteBuffer.wrap(buf);
+    while (bb.hasRemaining()) {
+      if (channel.read(bb, (long) index * PAGE_SIZE + bb.position()) < 0) {
+        Arrays.fill(buf, bb.position(), buf.length, (byte) 0);
+        break;
+      }
+    }
+  }
+
+  /**
+   * Writes a page of the temp segment.  It is left to the OS when (or
+   * whether) the page reaches the disk.
+   */
+  protected void write_temp(int index, byte[] buf) throws IOException {
+    FileChannel channel = temp_channel();
+    ByteBuffer bb = ByteBuffer.wrap(buf);
+    while (bb.hasRemaining()) {
+      channel.write(bb, (long) index * PAGE_SIZE + bb.position());
+    }
+  }
+
+  /**
+   * Gets the channel to the temp segment file, creating the file if needed.
+   */
+  protected FileChannel temp_channel() throws IOException {
+    synchronized (temp_map) {
+      if (temp_file == null) {
+        temp_file = new RandomAccessFile(temp_name(), "rw").getChannel();
+      }
+      return temp_file;
+    }
+  }
+
   /**
    * Gets the number of allocated disk pages.
    */
@@ -470,6 +1553,7 @@ public class DiskMgr implements GlobalConst {
       // pin the space-map page
       Page pg = new Page();
       Minibase.BufferManager.pinPage(pgid, pg, PIN_DISKIO);
+      byte[] before = LogMgr.snapshot(pg);
       byte[] pgbuf = pg.getData();
 
       // locate the piece of the run that fits on this page
@@ -512,7 +1596,8 @@ public class DiskMgr implements GlobalConst {
 
       } // end of forloop02
 
-      // unpin the space-map page
+      // log the change and unpin the space-map page
+      LogMgr.logUpdate(pgid, before, pg);
       Minibase.BufferManager.unpinPage(pgid, UNPIN_DIRTY);
 
     } // end of forloop01
@@ -520,7 +1605,70 @@ public class DiskMgr implements GlobalConst {
   } // protected void set_bits(PageId start_page, int run_size, int bit)
 
   //-----Manage File Library-------------------
-  
+
+  /**
+   * Rebuilds the in-memory copy of the file library by walking the chain of
+   * header pages once.  Afterwards, lookups and updates never rescan the
+   * header pages; the cache is kept in write-through sync with them.
+   */
+  protected void load_library() {
+
+    // reset the cached state
+    library = new HashMap<String, LibraryEntry>();
+    free_slots = new ArrayDeque<LibraryEntry>();
+
+    // walk every header page, remembering used and free slots
+    DBHeaderPage hpage = new DBHeaderPage();
+    PageId hpid = new PageId();
+    PageId nexthpid = new PageId(FIRST_PAGEID);
+    do {
+
+      // pin the next header page and get its next
+      hpid.pid = nexthpid.pid;
+      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
+      nexthpid = hpage.getNextPage();
+
+      // sort each slot into the library or the free list
+      for (int entry = 0; entry < hpage.getNumOfEntries(); entry++) {
+        PageId startpid = new PageId();
+        String tmpname = hpage.getFileEntry(startpid, entry);
+        if (startpid.pid == INVALID_PAGEID) {
+          free_slots.add(new LibraryEntry(null, null, hpid.pid, entry));
+        } else {
+          library.put(tmpname.toLowerCase(Locale.ROOT), new LibraryEntry(tmpname,
+              startpid, hpid.pid, entry));
+        }
+      }
+
+      // unpin the page before continuing or exiting loop
+      Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
+
+    } while (nexthpid.pid != INVALID_PAGEID);
+
+    // remember the tail of the chain for growing the library
+    last_header_pid = hpid.pid;
+
+  } // protected void load_library()
+
+  /**
+   * Reloads the cached file library from the header pages, after they have
+   * been changed behind the disk manager's back (i.e. by rolling back a
+   * transaction).
+   */
+  public void reloadLibrary() {
+    load_library();
+    library_version++;
+  }
+
+  /**
+   * Gets the number of times the file library has been reloaded.  A reload
+   * means pages may have changed behind the buffer pool's users, so caches
+   * built from them (e.g. of heap file directories) must be rebuilt.
+   */
+  public int getLibraryVersion() {
+    return library_version;
+  }
+
   /**
    * Adds an entry to the file library.  Each entry contains the name of
    * the file and the PageId of the file's first page.
@@ -541,69 +1689,45 @@ public class DiskMgr implements GlobalConst {
     }
 
     // does the file already exist?
-    if (get_file_entry(fname) != null) {
+    String key = fname.toLowerCase(Locale.ROOT);
+    if (library.containsKey(key)) {
       throw new IllegalArgumentException(
           "File entry already exists; add entry aborted");
     }
 
-    // search the header pages for the entry slot
-    boolean found = false;
-    int free_slot = 0;
-    DBHeaderPage hpage = new DBHeaderPage();
-    PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(FIRST_PAGEID);
-    do {
-
-      // pin the next header page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the header page for an empty entry
-      int entry = 0;
-      while (entry < hpage.getNumOfEntries()) {
-        hpage.getFileEntry(tmppid, entry);
-        if (tmppid.pid == INVALID_PAGEID) {
-          break;
-        }
-        entry++;
-      }
-
-      // verify an empty slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        free_slot = entry;
-        found = true;
-      } else if (nexthpid.pid != INVALID_PAGEID) {
-        // unpin before continuing loop
-        Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-      }
-
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
     // if necessary (and possible), add a new header page to the library
-    if (!found) {
+    if (free_slots.isEmpty()) {
 
       // allocate the new header page
-      nexthpid = allocate_page();
+      PageId nexthpid = allocate_page();
 
       // set the next-page pointer on the previous library page
+      DBHeaderPage hpage = new DBHeaderPage();
+      PageId hpid = new PageId(last_header_pid);
+      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
+      byte[] before = LogMgr.snapshot(hpage);
       hpage.setNextPage(nexthpid);
+      LogMgr.logUpdate(hpid, before, hpage);
       Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
 
-      // pin the newly-allocated directory page
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_MEMCPY);
+      // pin the newly-allocated directory page and make its slots available
+      Minibase.BufferManager.pinPage(nexthpid, hpage, PIN_MEMCPY);
       hpage.initDefaults();
-      free_slot = 0;
+      LogMgr.logNewPage(nexthpid, hpage);
+      Minibase.BufferManager.unpinPage(nexthpid, UNPIN_DIRTY);
+      for (int entry = 0; entry < hpage.getNumOfEntries(); entry++) {
+        free_slots.add(new LibraryEntry(null, null, nexthpid.pid, entry));
+      }
+      last_header_pid = nexthpid.pid;
 
     } // if new library page
 
-    // At this point, "hpid" has the page id of the library page with the free
-    // slot; "hpage" has the directory_page pointer; "free_slot" is the entry
-    // number in the directory where we're going to put the new file entry.
-    hpage.setFileEntry(fname, start_pageno, free_slot);
-    Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+    // write the entry through to its header page slot
+    LibraryEntry slot = free_slots.poll();
+    slot.name = fname;
+    slot.start = new PageId(start_pageno.pid);
+    write_file_entry(slot, fname, slot.start);
+    library.put(key, slot);
 
   } // public void add_file_entry(String fname, PageId start_pageno)
 
@@ -615,52 +1739,17 @@ public class DiskMgr implements GlobalConst {
   public void delete_file_entry(String fname) {
 
     // Is the file really in the library?
-    if (get_file_entry(fname) == null) {
+    LibraryEntry slot = library.remove(fname.toLowerCase(Locale.ROOT));
+    if (slot == null) {
       throw new IllegalArgumentException(
           "File entry not found in library; delete entry aborted");
     }
 
-    // search the library pages for the entry slot
-    boolean found = false;
-    int slot = 0;
-    DBHeaderPage hpage = new DBHeaderPage();
-    PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(0);
-    do {
-
-      // pin the next library page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
-
-      // search the library page for the entry
-      int entry = 0;
-      String tmpname = null;
-      while (entry < hpage.getNumOfEntries()) {
-        tmpname = hpage.getFileEntry(tmppid, entry);
-        if ((tmppid.pid != INVALID_PAGEID)
-            && (tmpname.compareToIgnoreCase(fname) == 0)) {
-          break;
-        }
-        entry++;
-      }
-
-      // verify the entry slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        slot = entry;
-        found = true;
-      } else {
-        // unpin before continuing loop
-        Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
-      }
-
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
-
-    // have to delete record at hpnum:slot
-    tmppid.pid = INVALID_PAGEID;
-    hpage.setFileEntry("\0", tmppid, slot);
-    Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+    // clear the slot on its header page and make it available again
+    write_file_entry(slot, "\0", new PageId(INVALID_PAGEID));
+    slot.name = null;
+    slot.start = null;
+    free_slots.addFirst(slot);
 
   } // public void delete_file_entry(String fname)
 
@@ -672,53 +1761,55 @@ public class DiskMgr implements GlobalConst {
    */
   public PageId get_file_entry(String fname) {
 
-    // search the library pages for the entry's slot
-    boolean found = false;
-    int slot = 0;
+    // return null if not found, otherwise a copy of the first page id
+    LibraryEntry slot = library.get(fname.toLowerCase(Locale.ROOT));
+    if (slot == null) {
+      return null;
+    }
+    return new PageId(slot.start.pid);
+
+  } // public PageId get_file_entry(String fname)
+
+  /**
+   * Writes a file entry onto the header page slot described by the given
+   * library entry.
+   */
+  protected void write_file_entry(LibraryEntry slot, String fname,
+      PageId start_pageno) {
     DBHeaderPage hpage = new DBHeaderPage();
-    PageId hpid = new PageId();
-    PageId tmppid = new PageId();
-    PageId nexthpid = new PageId(0);
-    do {
+    PageId hpid = new PageId(slot.hpid);
+    Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
+    byte[] before = LogMgr.snapshot(hpage);
+    hpage.setFileEntry(fname, start_pageno, slot.entry);
+    LogMgr.logUpdate(hpid, before, hpage);
+    Minibase.BufferManager.unpinPage(hpid, UNPIN_DIRTY);
+  }
 
-      // pin the next library page and get its next
-      hpid.pid = nexthpid.pid;
-      Minibase.BufferManager.pinPage(hpid, hpage, PIN_DISKIO);
-      nexthpid = hpage.getNextPage();
+  /**
+   * Cached file library entry: the file's name and first page, and the header
+   * page slot where the entry is stored.  Free slots have a null name.
+   */
+  protected static class LibraryEntry {
 
-      // search the library page for the entry
-      int entry = 0;
-      String tmpname;
-      while (entry < hpage.getNumOfEntries()) {
-        tmpname = hpage.getFileEntry(tmppid, entry);
-        if ((tmppid.pid != INVALID_PAGEID)
-            && (tmpname.compareToIgnoreCase(fname) == 0)) {
-          break;
-        }
-        entry++;
-      }
+    /** Name of the file as it was added, or null for a free slot. */
+    String name;
 
-      // verify the entry slot was found
-      if (entry < hpage.getNumOfEntries()) {
-        slot = entry;
-        found = true;
-      }
+    /** First page of the file, or null for a free slot. */
+    PageId start;
 
-      // unpin the page before continuing or exiting loop
-      Minibase.BufferManager.unpinPage(hpid, UNPIN_CLEAN);
+    /** Header page holding this slot. */
+    final int hpid;
 
-    } while ((nexthpid.pid != INVALID_PAGEID) && (!found));
+    /** Entry number on the header page. */
+    final int entry;
 
-    // return null if not found
-    if (!found) {
-      return null;
+    LibraryEntry(String name, PageId start, int hpid, int entry) {
+      this.name = name;
+      this.start = start;
+      this.hpid = hpid;
+      this.entry = entry;
     }
 
-    // otherwise, return the first page id
-    PageId startpid = new PageId();
-    hpage.getFileEntry(startpid, slot);
-    return startpid;
-
-  } // public PageId get_file_entry(String fname)
+  } // protected static class LibraryEntry
 
 } // public class DiskMgr implements GlobalConst
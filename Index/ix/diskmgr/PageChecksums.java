@@ -0,0 +1,228 @@
+package diskmgr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C checksums of the database pages, kept in a file next to the
+ * database (four bytes per page) because every byte of a page belongs to
+ * the layer above.  A checksum of zero means the page was never written, so
+ * it is not verified.
+ * <br><br>
+ * Writes and scrubbing reads of a page hold its lock, so the scrubber never
+ * sees a page and a checksum from different writes.  A page is written
+ * before its checksum, and neither is forced until a checkpoint (see
+ * DiskMgr.sync), so after a crash they may disagree; recovery reads pages
+ * without verifying them (see DiskMgr.read_page_unverified) and rewrites
+ * both.
+ */
+public class PageChecksums {
+
+  /** Number of locks guarding pages, by page id. */
+  protected static final int NUM_LOCKS = 64;
+
+  /** CRC32C polynomial, reversed. */
+  protected static final int POLYNOMIAL = 0x82F63B78;
+
+  /** java.util.zip.CRC32C (JDK 9), or null to compute with TABLE. */
+  protected static final Constructor<? extends Checksum> CRC32C = crc32c();
+
+  /** CRC32C of each byte value, for JDKs without java.util.zip.CRC32C. */
+  protected static final int[] TABLE = new int[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i;
+      for (int bit = 0; bit < 8; bit++) {
+        crc = ((crc & 1) != 0) ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+      }
+      TABLE[i] = crc;
+    }
+  }
+
+  /** Checksum of each page, or 0 if unknown. */
+  protected final int[] sums;
+
+  /** The checksum file, or null if they are kept in memory only. */
+  protected FileChannel file;
+
+  /** Locks guarding a page and its checksum while written or scrubbed. */
+  protected final Object[] locks = new Object[NUM_LOCKS];
+
+  /** Pages found corrupt. */
+  protected final BitSet corrupt = new BitSet();
+
+  /**
+   * Opens (or creates) the checksums for a database of the given size.  A
+   * missing file for an existing database leaves every checksum unknown.
+   *
+   * @param fname name of the checksum file, or null to keep them in memory
+   */
+  PageChecksums(String fname, int num_pages, boolean create)
+      throws IOException {
+    sums = new int[num_pages];
+    for (int i = 0; i < NUM_LOCKS; i++) {
+      locks[i] = new Object();
+    }
+    if (fname == null) {
+      return;
+    }
+    File sumfile = new File(fname);
+    if (create) {
+      sumfile.delete();
+    }
+    file = new RandomAccessFile(sumfile, "rw").getChannel();
+    ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(file.size(),
+        4L * num_pages));
+    while (bytes.hasRemaining()) {
+      if (file.read(bytes, bytes.position()) < 0) {
+        break;
+      }
+    }
+    bytes.flip();
+    bytes.asIntBuffer().get(sums, 0, bytes.remaining() / 4);
+  }
+
+  /**
+   * Computes the checksum of a page image.
+   */
+  static int compute(byte[] data) {
+    if (CRC32C != null) {
+      try {
+        Checksum crc = CRC32C.newInstance();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+      } catch (ReflectiveOperationException exc) {
+        // computed below instead
+      }
+    }
+    return crc32c(data, 0, data.length);
+  }
+
+  /**
+   * Computes the CRC32C of part of an array with the lookup table, as on
+   * JDKs without java.util.zip.CRC32C.
+   */
+  public static int crc32c(byte[] data, int offset, int length) {
+    int crc = ~0;
+    for (int i = offset; i < offset + length; i++) {
+      crc = TABLE[(crc ^ data[i]) & 0xFF] ^ (crc >>> 8);
+    }
+    return ~crc;
+  }
+
+  /**
+   * Gets the JDK's (intrinsic) CRC32C class, or null if it lacks one.
+   */
+  private static Constructor<? extends Checksum> crc32c() {
+    try {
+      return Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class)
+          .getConstructor();
+    } catch (ReflectiveOperationException exc) {
+      return null;
+    }
+  }
+
+  /**
+   * Gets the lock guarding the given page.
+   */
+  Object lock(int pid) {
+    return locks[pid % NUM_LOCKS];
+  }
+
+  /**
+   * Records the checksum of the given page image, after it is written; a
+   * page found corrupt before is repaired by being rewritten.
+   */
+  void update(int pid, byte[] data) throws IOException {
+    synchronized (corrupt) {
+      corrupt.clear(pid);
+    }
+    int sum = compute(data);
+    if (sums[pid] == sum) {
+      return;
+    }
+    sums[pid] = sum;
+    if (file != null) {
+      ByteBuffer buf = ByteBuffer.allocate(4).putInt(0, sum);
+      while (buf.hasRemaining()) {
+        file.write(buf, 4L * pid + buf.position());
+      }
+    }
+  }
+
+  /**
+   * Checks a page image against its checksum.
+   *
+   * @return false if they differ
+   */
+  boolean matches(int pid, byte[] data) {
+    int sum = sums[pid];
+    return (sum == 0) || (sum == compute(data));
+  }
+
+  /**
+   * Checks a page image just read against its checksum, remembering the
+   * page if it is corrupt.
+   *
+   * @return false if the page is corrupt
+   */
+  boolean verify(int pid, byte[] data) {
+    if (matches(pid, data)) {
+      return true;
+    }
+    synchronized (corrupt) {
+      corrupt.set(pid);
+    }
+    return false;
+  }
+
+  /**
+   * Forgets the checksums of the pages past the given number, whose
+   * storage has been released.
+   */
+  void truncate(int num_pages) throws IOException {
+    for (int pid = num_pages; pid < sums.length; pid++) {
+      synchronized (lock(pid)) {
+        sums[pid] = 0;
+      }
+    }
+    if (file != null) {
+      file.truncate(4L * num_pages);
+    }
+  }
+
+  /**
+   * Gets the ids of the pages found corrupt so far, in order.
+   */
+  int[] getCorrupt() {
+    synchronized (corrupt) {
+      return corrupt.stream().toArray();
+    }
+  }
+
+  /**
+   * Forces the checksum file to stable storage.
+   */
+  void force() throws IOException {
+    if (file != null) {
+      file.force(false);
+    }
+  }
+
+  /**
+   * Closes the checksum file.
+   */
+  void close() throws IOException {
+    if (file != null) {
+      file.close();
+    }
+  }
+
+} // public class PageChecksums
@@ -2,6 +2,7 @@ package global;
 
 import bufmgr.BufMgr;
 import diskmgr.DiskMgr;
+import logmgr.LogMgr;
 
 /**
  * Definitions for the running Minibase system, including references to static
@@ -18,6 +19,9 @@ public class Minibase {
   /** The Minibase Buffer Manager. */
   public static BufMgr BufferManager;
 
+  /** The Minibase Log Manager, or null if write-ahead logging is off. */
+  public static LogMgr LogManager;
+
   // --------------------------------------------------------------------------
 
   /**
@@ -36,6 +40,43 @@ public class Minibase {
 
   } // constructor
 
+  /**
+   * Constructs and starts an instance of Minibase on top of the given disk
+   * manager, which may be configured (or subclassed) before it is opened.
+   * 
+   * @param dbname Name of the data file
+   * @param num_pgs Number of pages to allocate
+   * @param bufpoolsize Buffer pool size (in pages)
+   * @param exists If the database already exists on disk
+   * @param diskmgr Disk manager that has not yet created or opened a database
+   */
+  public Minibase(String dbname, int num_pgs, int bufpoolsize,
+      boolean exists, DiskMgr diskmgr) {
+
+    // simply initialize the database
+    init(dbname, num_pgs, bufpoolsize, exists, diskmgr, null);
+
+  } // constructor
+
+  /**
+   * Constructs and starts an instance of Minibase with write-ahead logging;
+   * the log is kept in the data file's name plus ".log".
+   * 
+   * @param dbname Name of the data file
+   * @param num_pgs Number of pages to allocate
+   * @param bufpoolsize Buffer pool size (in pages)
+   * @param exists If the database already exists on disk
+   * @param diskmgr Disk manager that has not yet created or opened a database
+   * @param logmgr Log manager that has not yet opened a log, or null
+   */
+  public Minibase(String dbname, int num_pgs, int bufpoolsize,
+      boolean exists, DiskMgr diskmgr, LogMgr logmgr) {
+
+    // simply initialize the database
+    init(dbname, num_pgs, bufpoolsize, exists, diskmgr, logmgr);
+
+  } // constructor
+
   /**
    * Initializes the current instance of Minibase with the given configuration.
    * 
@@ -46,13 +87,30 @@ public class Minibase {
    */
   public void init(String dbname, int num_pgs, int bufpoolsize,
       boolean exists) {
+    init(dbname, num_pgs, bufpoolsize, exists, new DiskMgr(), null);
+  }
+
+  /**
+   * Initializes the current instance of Minibase with the given configuration,
+   * disk manager and (optional) log manager.
+   * 
+   * @param dbname Name of the data file
+   * @param num_pgs Number of pages to allocate
+   * @param bufpoolsize Buffer pool size (in pages)
+   * @param exists If the database already exists on disk
+   * @param diskmgr Disk manager that has not yet created or opened a database
+   * @param logmgr Log manager that has not yet opened a log, or null
+   */
+  public void init(String dbname, int num_pgs, int bufpoolsize,
+      boolean exists, DiskMgr diskmgr, LogMgr logmgr) {
 
     // save the file name
     DatabaseName = dbname;
 
     // load the static layers
     try {
-      DiskManager = new DiskMgr();
+      LogManager = null;
+      DiskManager = diskmgr;
       BufferManager = new BufMgr(bufpoolsize);
     } catch (Exception exc) {
       haltSystem(exc);
@@ -70,6 +128,21 @@ public class Minibase {
       haltSystem(exc);
     }
 
+    // start logging changes, first recovering from a crash if need be
+    if (logmgr != null) {
+      logmgr.openLog(dbname + ".log", !exists);
+      if (exists) {
+        // redo writes pages directly, so start over with an empty pool
+        logmgr.recover();
+        BufferManager = new BufMgr(bufpoolsize);
+      }
+      LogManager = logmgr;
+      if (exists) {
+        logmgr.rollback();
+        DiskManager.reloadLibrary();
+      }
+    }
+
   } // init
 
   /**
@@ -2,6 +2,7 @@ package index;
 
 import global.Minibase;
 import global.PageId;
+import logmgr.LogMgr;
 
 /**
  * An object in this class is a page in a linked list.
@@ -73,9 +74,11 @@ class HashBucketPage extends SortedPage {
 				//pin the page
 				HashBucketPage nextPage = new HashBucketPage();
 				Minibase.BufferManager.pinPage(nextPageId, nextPage, PIN_DISKIO);
+				byte[] before = LogMgr.snapshot(nextPage);
 
 				//here is the recursive call to insertEntry
 				boolean isDirty = nextPage.insertEntry(entry);
+				LogMgr.logUpdate(nextPageId, before, nextPage);
 
 				//on return from the recursive call, check if the next page
 				//was able to be updated so we know whether to unpin as dirty/clean
@@ -100,6 +103,7 @@ class HashBucketPage extends SortedPage {
 				//here is the recursive call
 				//no need to check if returns true/false because must unpin dirty since changed NextPage
 				nextPage.insertEntry(entry);
+				LogMgr.logNewPage(nextPageId, nextPage);
 
 				Minibase.BufferManager.unpinPage(nextPageId, UNPIN_DIRTY);
 
@@ -143,10 +147,12 @@ class HashBucketPage extends SortedPage {
 				//pin the next page
 				HashBucketPage nextPage = new HashBucketPage();
 				Minibase.BufferManager.pinPage(nextPageId, nextPage, PIN_DISKIO);
+				byte[] before = LogMgr.snapshot(nextPage);
 
 				//here is the recursive call
 				//keep track of return so we know to unpin nextpage clean/dirty
 				boolean isDirty = nextPage.deleteEntry(entry);
+				LogMgr.logUpdate(nextPageId, before, nextPage);
 
 				//check the count of the next page and delete if appropriate
 				if(nextPage.getEntryCount() <= 0){
@@ -1,10 +1,13 @@
 package index;
 
+import diskmgr.DiskMgr;
 import global.GlobalConst;
 import global.Minibase;
+import global.Page;
 import global.PageId;
 import global.RID;
 import global.SearchKey;
+import logmgr.LogMgr;
 
 /**
  * <h3>Minibase Hash Index</h3>
@@ -68,7 +71,8 @@ public class HashIndex implements GlobalConst {
 		//and assign returned (pinned) page ID to headId
 		//add the file/headId to library
 		if(!doesExist){
-			headId = Minibase.BufferManager.newPage(hashDirPage, 1);
+			headId = newPage(hashDirPage);
+			LogMgr.logNewPage(headId, hashDirPage);
 			Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
 
 			if(!isTemp){
@@ -141,57 +145,106 @@ public class HashIndex implements GlobalConst {
 	 * @throws IllegalArgumentException if the entry is too large
 	 */
 	public void insertEntry(SearchKey key, RID rid) {
+		String prevTag = tagIO();
+		try{
+			//create the data entry and check on its size
+			DataEntry dataEntry = new DataEntry(key, rid);
 
-		//create the data entry and check on its size
-		DataEntry dataEntry = new DataEntry(key, rid);
+			if(dataEntry.getLength() > SortedPage.MAX_ENTRY_SIZE){
+				throw new IllegalArgumentException("data entry is too big!!!");
+			}
 
-		if(dataEntry.getLength() > SortedPage.MAX_ENTRY_SIZE){
-			throw new IllegalArgumentException("data entry is too big!!!");
-		}
+			//if we get here, the entry is appropriately sized
 
-		//if we get here, the entry is appropriately sized
+			//Hash Bucket Page will be needed
+			HashBucketPage hashBucketPage = new HashBucketPage();
+			PageId hashBucketPageId = new PageId();
 
-		//Hash Bucket Page will be needed
-		HashBucketPage hashBucketPage = new HashBucketPage();
-		PageId hashBucketPageId = new PageId();
+			//get the hash value of the search key to determine what bucket it should go in
+			int bucket = key.getHash(DEPTH);
 
-		//get the hash value of the search key to determine what bucket it should go in
-		int bucket = key.getHash(DEPTH);
+			//pin the directory page to access buckets
+			Minibase.BufferManager.pinPage(headId, hashDirPage, PIN_DISKIO);
 
-		//pin the directory page to access buckets
-		Minibase.BufferManager.pinPage(headId, hashDirPage, PIN_DISKIO);
+			//determine the selected bucket's pageId
+			hashBucketPageId.copyPageId(hashDirPage.getPageId(bucket));
 
-		//determine the selected bucket's pageId
-		hashBucketPageId.copyPageId(hashDirPage.getPageId(bucket));
+			//check if the bucket already exists, if not, need to make a new page for the bucket
+			//(a new page is logged whole after the insert, an existing one by its changes)
+			byte[] before = null;
+			boolean isNew = (hashBucketPageId.pid == INVALID_PAGEID);
+			if(!isNew){
+				//exists, so just pin it and the direcory page can be unpinned clean since not being updated
+				Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
+				Minibase.BufferManager.pinPage(hashBucketPageId, hashBucketPage, PIN_DISKIO);
+				before = LogMgr.snapshot(hashBucketPage);
+			}
+			else{
+				//doesn't exist, so create a new page, add the page id to the directory
+				//and unpin the directory as dirty since it was updated
+				byte[] dirBefore = LogMgr.snapshot(hashDirPage);
+				hashBucketPageId.copyPageId(newPage(hashBucketPage));
+				hashDirPage.setPageId(bucket, hashBucketPageId);
+				LogMgr.logUpdate(headId, dirBefore, hashDirPage);
+				Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+			}
 
-		//check if the bucket already exists, if not, need to make a new page for the bucket
-		if(hashBucketPageId.pid != INVALID_PAGEID){
-			//exists, so just pin it and the direcory page can be unpinned clean since not being updated
-			Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
-			Minibase.BufferManager.pinPage(hashBucketPageId, hashBucketPage, PIN_DISKIO);
+			//finally insert the data record in the bucket
+			//keep track of return value to see if clean/dirty unpin is needed (might have updated overflow page -->clean)
+			//(a temp index's overflow pages come from the temp segment too)
+			boolean isDirty;
+			boolean wasTemp = DiskMgr.setTempAllocation(isTemp);
+			try{
+				isDirty = hashBucketPage.insertEntry(dataEntry);
+			}
+			finally{
+				DiskMgr.setTempAllocation(wasTemp);
+			}
+			if(isNew){
+				LogMgr.logNewPage(hashBucketPageId, hashBucketPage);
+			}
+			else{
+				LogMgr.logUpdate(hashBucketPageId, before, hashBucketPage);
+			}
+
+			if(isDirty){
+				Minibase.BufferManager.unpinPage(hashBucketPageId, UNPIN_DIRTY);
+			}
+			else{
+				Minibase.BufferManager.unpinPage(hashBucketPageId, UNPIN_CLEAN);
+			}
+
+			//		throw new UnsupportedOperationException("Not implemented");
 		}
-		else{
-			//doesn't exist, so create a new page, add the page id to the directory
-			//and unpin the directory as dirty since it was updated
-			hashBucketPageId.copyPageId(Minibase.BufferManager.newPage(hashBucketPage, 1));
-			hashDirPage.setPageId(bucket, hashBucketPageId);
-			Minibase.BufferManager.unpinPage(headId, UNPIN_DIRTY);
+		finally{
+			DiskMgr.setIOTag(prevTag);
 		}
 
-		//finally insert the data record in the bucket
-		//keep track of return value to see if clean/dirty unpin is needed (might have updated overflow page -->clean)
-		boolean isDirty = hashBucketPage.insertEntry(dataEntry);
+	} // public void insertEntry(SearchKey key, RID rid)
+
+	/**
+	 * Allocates and pins a new page for the index; a temporary index's pages
+	 * come from the disk manager's (unlogged) temp segment.
+	 */
+	protected PageId newPage(Page page) {
 
-		if(isDirty){
-			Minibase.BufferManager.unpinPage(hashBucketPageId, UNPIN_DIRTY);
+		boolean wasTemp = DiskMgr.setTempAllocation(isTemp);
+		try{
+			return Minibase.BufferManager.newPage(page, 1);
 		}
-		else{
-			Minibase.BufferManager.unpinPage(hashBucketPageId, UNPIN_CLEAN);
+		finally{
+			DiskMgr.setTempAllocation(wasTemp);
 		}
 
-		//		throw new UnsupportedOperationException("Not implemented");
+	} // protected PageId newPage(Page page)
 
-	} // public void insertEntry(SearchKey key, RID rid)
+	/**
+	 * Charges the calling thread's disk I/O to this index, by name, until the
+	 * returned tag is restored; a temporary index keeps the caller's tag.
+	 */
+	protected String tagIO() {
+		return DiskMgr.setIOTag(isTemp ? DiskMgr.getIOTag() : fileName);
+	}
 
 	/**
 	 * Deletes the specified data entry from the index file.
@@ -199,52 +252,59 @@ public class HashIndex implements GlobalConst {
 	 * @throws IllegalArgumentException if the entry doesn't exist
 	 */
 	public void deleteEntry(SearchKey key, RID rid) {
+		String prevTag = tagIO();
+		try{
+			//Hash Bucket Page will be needed
+			HashBucketPage hashBucketPage = new HashBucketPage();
+			PageId hashBucketPageId = new PageId();
 
-		//Hash Bucket Page will be needed
-		HashBucketPage hashBucketPage = new HashBucketPage();
-		PageId hashBucketPageId = new PageId();
-
-		//create the data entry and the bucket to delete from
-		DataEntry dataEntry = new DataEntry(key, rid);
-		int bucket = key.getHash(DEPTH);
+			//create the data entry and the bucket to delete from
+			DataEntry dataEntry = new DataEntry(key, rid);
+			int bucket = key.getHash(DEPTH);
 
-		//pin the directory page to access buckets
-		Minibase.BufferManager.pinPage(headId, hashDirPage, PIN_DISKIO);
-
-		//determine the selected bucket's pageId
-		hashBucketPageId.copyPageId(hashDirPage.getPageId(bucket));
+			//pin the directory page to access buckets
+			Minibase.BufferManager.pinPage(headId, hashDirPage, PIN_DISKIO);
 
-		//unpin directory page since won't need any longer
-		//since deleting, the directory page won't be updated.
-		Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
+			//determine the selected bucket's pageId
+			hashBucketPageId.copyPageId(hashDirPage.getPageId(bucket));
 
-		if(hashBucketPageId.pid != INVALID_PAGEID){
-			//page exists, so pin it and try to delete the entry if it exists in the page
-			Minibase.BufferManager.pinPage(hashBucketPageId, hashBucketPage, PIN_DISKIO);
+			//unpin directory page since won't need any longer
+			//since deleting, the directory page won't be updated.
+			Minibase.BufferManager.unpinPage(headId, UNPIN_CLEAN);
 
-			try{
-				//keep track if dirty so know to unpin clean/dirty (clean if update is overflow ex)
-				boolean isDirty = hashBucketPage.deleteEntry(dataEntry);
-				if(isDirty){
-					Minibase.BufferManager.unpinPage(hashBucketPageId, UNPIN_DIRTY);
+			if(hashBucketPageId.pid != INVALID_PAGEID){
+				//page exists, so pin it and try to delete the entry if it exists in the page
+				Minibase.BufferManager.pinPage(hashBucketPageId, hashBucketPage, PIN_DISKIO);
+				byte[] before = LogMgr.snapshot(hashBucketPage);
+
+				try{
+					//keep track if dirty so know to unpin clean/dirty (clean if update is overflow ex)
+					boolean isDirty = hashBucketPage.deleteEntry(dataEntry);
+					LogMgr.logUpdate(hashBucketPageId, before, hashBucketPage);
+					if(isDirty){
+						Minibase.BufferManager.unpinPage(hashBucketPageId, UNPIN_DIRTY);
+					}
+					else{
+						Minibase.BufferManager.unpinPage(hashBucketPageId, UNPIN_CLEAN);
+					}
 				}
-				else{
+				catch(IllegalArgumentException exc){
+					//unpin clean since no update able to be made (entry doesn't exist)
 					Minibase.BufferManager.unpinPage(hashBucketPageId, UNPIN_CLEAN);
+					throw new IllegalArgumentException("That entry does not exist");
 				}
 			}
-			catch(IllegalArgumentException exc){
-				//unpin clean since no update able to be made (entry doesn't exist)
-				Minibase.BufferManager.unpinPage(hashBucketPageId, UNPIN_CLEAN);
+
+			else{
+				//if get here, the bucket is "invalid" so can't contain the entry
 				throw new IllegalArgumentException("That entry does not exist");
 			}
-		}
 
-		else{
-			//if get here, the bucket is "invalid" so can't contain the entry
-			throw new IllegalArgumentException("That entry does not exist");
+			//		throw new UnsupportedOperationException("Not implemented");
+		}
+		finally{
+			DiskMgr.setIOTag(prevTag);
 		}
-
-		//		throw new UnsupportedOperationException("Not implemented");
 
 	} // public void deleteEntry(SearchKey key, RID rid)
 
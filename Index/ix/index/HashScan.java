@@ -1,5 +1,6 @@
 package index;
 
+import diskmgr.DiskMgr;
 import global.GlobalConst;
 import global.Minibase;
 import global.PageId;
@@ -12,6 +13,9 @@ import global.SearchKey;
  */
 public class HashScan implements GlobalConst {
 
+  /** The index being scanned, which its disk I/O is charged to. */
+  protected HashIndex index;
+
   /** The search key to scan for. */
   protected SearchKey key;
 
@@ -40,11 +44,18 @@ public class HashScan implements GlobalConst {
 	  directoryId.copyPageId(index.headId);
 	  
 	  //assign the HashScan key value and get the bucket (from hash function)
+	  this.index = index;
 	  this.key = key; 
 	  int bucket = key.getHash(index.DEPTH);
 	  
 	  //pin the directory
-	  Minibase.BufferManager.pinPage(directoryId, directoryPage, PIN_DISKIO);
+	  String prevTag = index.tagIO();
+	  try{
+		  Minibase.BufferManager.pinPage(directoryId, directoryPage, PIN_DISKIO);
+	  }
+	  finally{
+		  DiskMgr.setIOTag(prevTag);
+	  }
 	  
 	  //get bucket's primary pageId and initialize HashScan fields
 	  curPageId = new PageId();
@@ -102,7 +113,13 @@ public class HashScan implements GlobalConst {
 	  //starting with cur page, check all bucket pages for the key
 	  while(curPageId.pid != INVALID_PAGEID){
 		  //pin the curPageId
-		  Minibase.BufferManager.pinPage(curPageId, curPage, PIN_DISKIO);
+		  String prevTag = index.tagIO();
+		  try{
+			  Minibase.BufferManager.pinPage(curPageId, curPage, PIN_DISKIO);
+		  }
+		  finally{
+			  DiskMgr.setIOTag(prevTag);
+		  }
 		  
 		  //Note: sorted page.nextEntry returns slot of the next entry for key or -1 if not found
 		  curSlot = curPage.nextEntry(key, curSlot);